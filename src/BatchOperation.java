@@ -0,0 +1,131 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class BatchOperation. An insertion, lookup or deletion carried around the ring by a batch query
+ * together with the other operations of the batch, collecting its own results on the way: the values
+ * every machine has found or deleted for its key, and the machines its key-value pair has been inserted at.
+ */
+public class BatchOperation implements Serializable {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 2614902297745871063L;
+
+	/** The operation type. */
+	private BatchOperationType operationType;
+
+	/** The key. */
+	private String key;
+
+	/** The value of an insertion. */
+	private String value;
+
+	/** The iP address of the storage a new key is inserted into, chosen by the issuing client. */
+	private String storageIP;
+
+	/** The values found or deleted at every machine. */
+	private HashMap<String, ArrayList<String>> valuesMap = new HashMap<String, ArrayList<String>>();
+
+	/** The machine i ps the key-value pair has been inserted at. */
+	private HashSet<String> machineIPsWithOperation = new HashSet<String>();
+
+	/**
+	 * Instantiates a new batch operation.
+	 *
+	 * @param operationType the operation type
+	 * @param key the key
+	 * @param value the value of an insertion, or null
+	 */
+	public BatchOperation(BatchOperationType operationType, String key, String value) {
+		this.operationType = operationType;
+		this.key = key;
+		this.value = value;
+	}
+
+	/**
+	 * Gets the operation type.
+	 *
+	 * @return the operation type
+	 */
+	public BatchOperationType getOperationType() {
+		return operationType;
+	}
+
+	/**
+	 * Gets the key.
+	 *
+	 * @return the key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Gets the value.
+	 *
+	 * @return the value
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * Gets the storage ip.
+	 *
+	 * @return the storage ip
+	 */
+	public String getStorageIP() {
+		return storageIP;
+	}
+
+	/**
+	 * Sets the storage ip.
+	 *
+	 * @param storageIP the new storage ip
+	 */
+	public void setStorageIP(String storageIP) {
+		this.storageIP = storageIP;
+	}
+
+	/**
+	 * Adds the values of a machine.
+	 *
+	 * @param IPAddress the iP address
+	 * @param values the values
+	 */
+	public void addValues(String IPAddress, ArrayList<String> values) {
+		valuesMap.put(IPAddress, values);
+	}
+
+	/**
+	 * Gets the values.
+	 *
+	 * @return the values
+	 */
+	public HashMap<String, ArrayList<String>> getValues() {
+		return valuesMap;
+	}
+
+	/**
+	 * Adds the machine ip with operation.
+	 *
+	 * @param machineIPWithOperation the machine ip with operation
+	 */
+	public void addMachineIPWithOperation(String machineIPWithOperation) {
+		machineIPsWithOperation.add(machineIPWithOperation);
+	}
+
+	/**
+	 * Gets the machine i ps with operation.
+	 *
+	 * @return the machine i ps with operation
+	 */
+	public HashSet<String> getMachineIPsWithOperation() {
+		return machineIPsWithOperation;
+	}
+
+}
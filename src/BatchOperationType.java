@@ -0,0 +1,16 @@
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Enum BatchOperationType. The operations a batch query can carry.
+ */
+public enum BatchOperationType {
+	
+	/** The INSERT. */
+	INSERT,
+	
+	/** The LOOKUP. */
+	LOOKUP,
+	
+	/** The DELETE. */
+	DELETE
+}
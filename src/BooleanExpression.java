@@ -0,0 +1,588 @@
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class BooleanExpression. A boolean expression of keys, carried by a boolean lookup and evaluated by
+ * every machine over the postings of its local storages, so only the matching titles are shipped. An
+ * expression is turned into a tree of posting iterators per inner storage: an AND advances its operands
+ * in turns from the one with the fewest document ids, an OR merges its operands and a NOT skips the
+ * document ids of its operand. A NOT can only be an operand of an AND with an operand which isn't
+ * negated, so an expression never has to match the titles without some key.
+ */
+public class BooleanExpression implements Serializable {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 2641383908447209731L;
+
+	/** The operator. */
+	private BooleanOperator operator;
+
+	/** The key of a KEY expression. */
+	private String key;
+
+	/** The operands. */
+	private ArrayList<BooleanExpression> operands = new ArrayList<BooleanExpression>();
+
+	/**
+	 * Instantiates a new boolean expression.
+	 *
+	 * @param operator the operator
+	 * @param key the key
+	 */
+	private BooleanExpression(BooleanOperator operator, String key) {
+		this.operator = operator;
+		this.key = key;
+	}
+
+	/**
+	 * Creates an expression matching the titles of a key.
+	 *
+	 * @param key the key
+	 * @return the boolean expression
+	 */
+	public static BooleanExpression key(String key) {
+		return new BooleanExpression(BooleanOperator.KEY, key);
+	}
+
+	/**
+	 * Creates an expression matching the titles matched by all the operands.
+	 *
+	 * @param operands the operands
+	 * @return the boolean expression
+	 */
+	public static BooleanExpression and(BooleanExpression... operands) {
+		return combine(BooleanOperator.AND, operands);
+	}
+
+	/**
+	 * Creates an expression matching the titles matched by any of the operands.
+	 *
+	 * @param operands the operands
+	 * @return the boolean expression
+	 */
+	public static BooleanExpression or(BooleanExpression... operands) {
+		return combine(BooleanOperator.OR, operands);
+	}
+
+	/**
+	 * Creates an expression matching the titles not matched by the operand.
+	 *
+	 * @param operand the operand
+	 * @return the boolean expression
+	 */
+	public static BooleanExpression not(BooleanExpression operand) {
+		return combine(BooleanOperator.NOT, operand);
+	}
+
+	/**
+	 * Combines the operands with an operator.
+	 *
+	 * @param operator the operator
+	 * @param operands the operands
+	 * @return the boolean expression
+	 */
+	private static BooleanExpression combine(BooleanOperator operator, BooleanExpression... operands) {
+		if (operands.length == 0) {
+			throw new IllegalArgumentException("The "+operator+" has no operand.");
+		}
+		BooleanExpression expression = new BooleanExpression(operator, null);
+		expression.operands.addAll(Arrays.asList(operands));
+		return expression;
+	}
+
+	/**
+	 * Parses an expression of keys separated by whitespace, with the operators AND, OR and NOT written in
+	 * capitals and parentheses. NOT binds tighter than AND, and AND tighter than OR.
+	 *
+	 * @param expressionString the expression string
+	 * @return the boolean expression
+	 */
+	public static BooleanExpression parse(String expressionString) {
+		ArrayList<String> tokens = new ArrayList<String>();
+		for (String token : expressionString.replace("(", " ( ").replace(")", " ) ").trim().split("\\s+")) {
+			if (token.length() > 0) {
+				tokens.add(token);
+			}
+		}
+		int[] position = new int[1];
+		BooleanExpression expression = parseOr(tokens, position);
+		if (position[0] < tokens.size()) {
+			throw new IllegalArgumentException("Unexpected \""+tokens.get(position[0])+"\" in the expression.");
+		}
+		expression.checkMatchable();
+		return expression;
+	}
+
+	/**
+	 * Parses the operands of an OR.
+	 *
+	 * @param tokens the tokens
+	 * @param position the position of the next token
+	 * @return the boolean expression
+	 */
+	private static BooleanExpression parseOr(ArrayList<String> tokens, int[] position) {
+		ArrayList<BooleanExpression> operands = new ArrayList<BooleanExpression>();
+		operands.add(parseAnd(tokens, position));
+		while (position[0] < tokens.size() && tokens.get(position[0]).equals("OR")) {
+			position[0]++;
+			operands.add(parseAnd(tokens, position));
+		}
+		return operands.size() == 1 ? operands.get(0) : or(operands.toArray(new BooleanExpression[operands.size()]));
+	}
+
+	/**
+	 * Parses the operands of an AND.
+	 *
+	 * @param tokens the tokens
+	 * @param position the position of the next token
+	 * @return the boolean expression
+	 */
+	private static BooleanExpression parseAnd(ArrayList<String> tokens, int[] position) {
+		ArrayList<BooleanExpression> operands = new ArrayList<BooleanExpression>();
+		operands.add(parseNot(tokens, position));
+		while (position[0] < tokens.size() && tokens.get(position[0]).equals("AND")) {
+			position[0]++;
+			operands.add(parseNot(tokens, position));
+		}
+		return operands.size() == 1 ? operands.get(0) : and(operands.toArray(new BooleanExpression[operands.size()]));
+	}
+
+	/**
+	 * Parses a key, a parenthesized expression or its negation.
+	 *
+	 * @param tokens the tokens
+	 * @param position the position of the next token
+	 * @return the boolean expression
+	 */
+	private static BooleanExpression parseNot(ArrayList<String> tokens, int[] position) {
+		if (position[0] == tokens.size()) {
+			throw new IllegalArgumentException("The expression ends where a key is expected.");
+		}
+		String token = tokens.get(position[0]++);
+		if (token.equals("NOT")) {
+			return not(parseNot(tokens, position));
+		}
+		if (token.equals("(")) {
+			BooleanExpression expression = parseOr(tokens, position);
+			if (position[0] == tokens.size() || !tokens.get(position[0]++).equals(")")) {
+				throw new IllegalArgumentException("A parenthesis isn't closed in the expression.");
+			}
+			return expression;
+		}
+		if (token.equals(")") || token.equals("AND") || token.equals("OR")) {
+			throw new IllegalArgumentException("Unexpected \""+token+"\" where a key is expected.");
+		}
+		return key(token);
+	}
+
+	/**
+	 * Gets the operator.
+	 *
+	 * @return the operator
+	 */
+	public BooleanOperator getOperator() {
+		return operator;
+	}
+
+	/**
+	 * Gets the key of a KEY expression.
+	 *
+	 * @return the key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Gets the operands.
+	 *
+	 * @return the operands
+	 */
+	public ArrayList<BooleanExpression> getOperands() {
+		return operands;
+	}
+
+	/**
+	 * Checks that every NOT is an operand of an AND with an operand which isn't negated.
+	 *
+	 * @throws IllegalArgumentException if a NOT can't be matched
+	 */
+	public void checkMatchable() {
+		if (operator == BooleanOperator.NOT) {
+			throw new IllegalArgumentException("A NOT can only be combined by an AND with a key which isn't negated.");
+		}
+		boolean hasPositiveOperand = false;
+		for (BooleanExpression operand : operands) {
+			if (operator == BooleanOperator.AND && operand.operator == BooleanOperator.NOT) {
+				operand.operands.get(0).checkMatchable();
+			} else {
+				operand.checkMatchable();
+				hasPositiveOperand = true;
+			}
+		}
+		if (operator == BooleanOperator.AND && !hasPositiveOperand) {
+			throw new IllegalArgumentException("A NOT can only be combined by an AND with a key which isn't negated.");
+		}
+	}
+
+	/**
+	 * Gets the keys of the expression.
+	 *
+	 * @return the keys
+	 */
+	public HashSet<String> getKeys() {
+		HashSet<String> keys = new HashSet<String>();
+		addKeysTo(keys);
+		return keys;
+	}
+
+	/**
+	 * Adds the keys of the expression to the given set.
+	 *
+	 * @param keys the keys
+	 */
+	private void addKeysTo(HashSet<String> keys) {
+		if (operator == BooleanOperator.KEY) {
+			keys.add(key);
+		}
+		for (BooleanExpression operand : operands) {
+			operand.addKeysTo(keys);
+		}
+	}
+
+	/**
+	 * Gets an iterator over the document ids of an inner storage matched by the expression.
+	 *
+	 * @param innerStorage the inner storage
+	 * @return the posting iterator, or null if no document id can match
+	 */
+	public PostingIterator iterator(InnerStorage innerStorage) {
+		HashMap<String, PostingList> postingLists = new HashMap<String, PostingList>();
+		for (String expressionKey : getKeys()) {
+			PostingList postingList = innerStorage.getPostingList(expressionKey);
+			if (postingList != null) {
+				postingLists.put(expressionKey, postingList);
+			}
+		}
+		return iterator(postingLists);
+	}
+
+	/**
+	 * Builds the iterator tree of the expression.
+	 *
+	 * @param postingLists the posting lists of the keys
+	 * @return the posting iterator, or null if no document id can match
+	 */
+	private PostingIterator iterator(HashMap<String, PostingList> postingLists) {
+		if (operator == BooleanOperator.KEY) {
+			PostingList postingList = postingLists.get(key);
+			return postingList == null || postingList.size() == 0 ? null : postingList.iterator();
+		}
+		if (operator == BooleanOperator.OR) {
+			ArrayList<PostingIterator> iterators = new ArrayList<PostingIterator>();
+			for (BooleanExpression operand : operands) {
+				PostingIterator iterator = operand.iterator(postingLists);
+				if (iterator != null) {
+					iterators.add(iterator);
+				}
+			}
+			if (iterators.size() <= 1) {
+				return iterators.size() == 0 ? null : iterators.get(0);
+			}
+			return new OrIterator(iterators.toArray(new PostingIterator[iterators.size()]));
+		}
+		// An AND, whose operands are ordered by their estimated sizes so the smallest one leads
+		ArrayList<BooleanExpression> positiveOperands = new ArrayList<BooleanExpression>();
+		ArrayList<PostingIterator> negatedIterators = new ArrayList<PostingIterator>();
+		for (BooleanExpression operand : operands) {
+			if (operand.operator == BooleanOperator.NOT) {
+				PostingIterator negatedIterator = operand.operands.get(0).iterator(postingLists);
+				if (negatedIterator != null) {
+					negatedIterators.add(negatedIterator);
+				}
+			} else {
+				positiveOperands.add(operand);
+			}
+		}
+		final HashMap<BooleanExpression, Long> estimatedSizes = new HashMap<BooleanExpression, Long>();
+		for (BooleanExpression operand : positiveOperands) {
+			long estimatedSize = operand.estimateSize(postingLists);
+			if (estimatedSize == 0) {
+				return null;
+			}
+			estimatedSizes.put(operand, estimatedSize);
+		}
+		PostingIterator iterator;
+		if (positiveOperands.size() == 2 && positiveOperands.get(0).operator == BooleanOperator.KEY &&
+				positiveOperands.get(1).operator == BooleanOperator.KEY) {
+			int[] documentIds = PostingList.intersect(postingLists.get(positiveOperands.get(0).key), postingLists.get(positiveOperands.get(1).key));
+			if (documentIds.length == 0) {
+				return null;
+			}
+			iterator = new PostingList(documentIds).iterator();
+		} else {
+			Collections.sort(positiveOperands, new Comparator<BooleanExpression>() {
+				@Override
+				public int compare(BooleanExpression expression, BooleanExpression otherExpression) {
+					return Long.compare(estimatedSizes.get(expression), estimatedSizes.get(otherExpression));
+				}
+			});
+			PostingIterator[] iterators = new PostingIterator[positiveOperands.size()];
+			for (int i=0; i<iterators.length; i++) {
+				iterators[i] = positiveOperands.get(i).iterator(postingLists);
+				if (iterators[i] == null) {
+					return null;
+				}
+			}
+			iterator = iterators.length == 1 ? iterators[0] : new AndIterator(iterators);
+		}
+		if (negatedIterators.size() == 0) {
+			return iterator;
+		}
+		PostingIterator negatedIterator = negatedIterators.size() == 1 ? negatedIterators.get(0) :
+				new OrIterator(negatedIterators.toArray(new PostingIterator[negatedIterators.size()]));
+		return new AndNotIterator(iterator, negatedIterator);
+	}
+
+	/**
+	 * Estimates the number of document ids matched by the expression from above.
+	 *
+	 * @param postingLists the posting lists of the keys
+	 * @return the estimated size
+	 */
+	private long estimateSize(HashMap<String, PostingList> postingLists) {
+		if (operator == BooleanOperator.KEY) {
+			PostingList postingList = postingLists.get(key);
+			return postingList == null ? 0 : postingList.size();
+		}
+		long estimatedSize = operator == BooleanOperator.OR ? 0 : Long.MAX_VALUE;
+		for (BooleanExpression operand : operands) {
+			if (operator == BooleanOperator.OR) {
+				estimatedSize += operand.estimateSize(postingLists);
+			} else if (operand.operator != BooleanOperator.NOT) {
+				estimatedSize = Math.min(estimatedSize, operand.estimateSize(postingLists));
+			}
+		}
+		return estimatedSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		if (operator == BooleanOperator.KEY) {
+			return key;
+		}
+		if (operator == BooleanOperator.NOT) {
+			return "NOT "+operands.get(0);
+		}
+		StringBuffer stringBuffer = new StringBuffer("(");
+		for (int i=0; i<operands.size(); i++) {
+			if (i > 0) {
+				stringBuffer.append(" "+operator+" ");
+			}
+			stringBuffer.append(operands.get(i));
+		}
+		return stringBuffer.append(")").toString();
+	}
+
+	/**
+	 * The Class AndIterator. Advances every operand to the document id of the one ahead until they all agree.
+	 */
+	private static class AndIterator implements PostingIterator {
+
+		/** The iterators, the first one having the fewest document ids. */
+		private PostingIterator[] iterators;
+
+		/** The current document ids of the iterators. */
+		private int[] documentIds;
+
+		/**
+		 * Instantiates a new and iterator.
+		 *
+		 * @param iterators the iterators
+		 */
+		public AndIterator(PostingIterator[] iterators) {
+			this.iterators = iterators;
+			this.documentIds = new int[iterators.length];
+			Arrays.fill(documentIds, -1);
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#nextDocumentId()
+		 */
+		@Override
+		public int nextDocumentId() {
+			documentIds[0] = iterators[0].nextDocumentId();
+			return align();
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#advance(int)
+		 */
+		@Override
+		public int advance(int target) {
+			documentIds[0] = documentIds[0] < target ? iterators[0].advance(target) : documentIds[0];
+			return align();
+		}
+
+		/**
+		 * Advances the iterators until they are all on the document id of the first one.
+		 *
+		 * @return the document id, or NO_MORE_DOCUMENTS if there is none
+		 */
+		private int align() {
+			int target = documentIds[0];
+			int i = 1;
+			while (target != NO_MORE_DOCUMENTS && i < iterators.length) {
+				if (documentIds[i] < target) {
+					documentIds[i] = iterators[i].advance(target);
+				}
+				if (documentIds[i] == target) {
+					i++;
+				} else {
+					target = documentIds[i];
+					documentIds[0] = target == NO_MORE_DOCUMENTS ? target : iterators[0].advance(target);
+					target = documentIds[0];
+					i = 1;
+				}
+			}
+			return target;
+		}
+	}
+
+	/**
+	 * The Class OrIterator. Merges the document ids of the operands.
+	 */
+	private static class OrIterator implements PostingIterator {
+
+		/** The iterators. */
+		private PostingIterator[] iterators;
+
+		/** The current document ids of the iterators. */
+		private int[] documentIds;
+
+		/** The document id. */
+		private int documentId = -1;
+
+		/**
+		 * Instantiates a new or iterator.
+		 *
+		 * @param iterators the iterators
+		 */
+		public OrIterator(PostingIterator[] iterators) {
+			this.iterators = iterators;
+			this.documentIds = new int[iterators.length];
+			Arrays.fill(documentIds, -1);
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#nextDocumentId()
+		 */
+		@Override
+		public int nextDocumentId() {
+			for (int i=0; i<iterators.length; i++) {
+				if (documentIds[i] == documentId) {
+					documentIds[i] = iterators[i].nextDocumentId();
+				}
+			}
+			return documentId = minimum();
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#advance(int)
+		 */
+		@Override
+		public int advance(int target) {
+			for (int i=0; i<iterators.length; i++) {
+				if (documentIds[i] < target) {
+					documentIds[i] = iterators[i].advance(target);
+				}
+			}
+			return documentId = minimum();
+		}
+
+		/**
+		 * Gets the smallest current document id of the iterators.
+		 *
+		 * @return the minimum
+		 */
+		private int minimum() {
+			int minimum = NO_MORE_DOCUMENTS;
+			for (int i=0; i<documentIds.length; i++) {
+				minimum = Math.min(minimum, documentIds[i]);
+			}
+			return minimum;
+		}
+	}
+
+	/**
+	 * The Class AndNotIterator. Skips the document ids of the included iterator which the excluded one has.
+	 */
+	private static class AndNotIterator implements PostingIterator {
+
+		/** The included iterator. */
+		private PostingIterator includedIterator;
+
+		/** The excluded iterator. */
+		private PostingIterator excludedIterator;
+
+		/** The current document id of the excluded iterator. */
+		private int excludedDocumentId = -1;
+
+		/**
+		 * Instantiates a new and not iterator.
+		 *
+		 * @param includedIterator the included iterator
+		 * @param excludedIterator the excluded iterator
+		 */
+		public AndNotIterator(PostingIterator includedIterator, PostingIterator excludedIterator) {
+			this.includedIterator = includedIterator;
+			this.excludedIterator = excludedIterator;
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#nextDocumentId()
+		 */
+		@Override
+		public int nextDocumentId() {
+			return skipExcluded(includedIterator.nextDocumentId());
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#advance(int)
+		 */
+		@Override
+		public int advance(int target) {
+			return skipExcluded(includedIterator.advance(target));
+		}
+
+		/**
+		 * Moves the included iterator past the document ids the excluded one has.
+		 *
+		 * @param documentId the document id of the included iterator
+		 * @return the document id, or NO_MORE_DOCUMENTS if there is none
+		 */
+		private int skipExcluded(int documentId) {
+			while (documentId != NO_MORE_DOCUMENTS) {
+				if (excludedDocumentId < documentId) {
+					excludedDocumentId = excludedIterator.advance(documentId);
+				}
+				if (excludedDocumentId != documentId) {
+					return documentId;
+				}
+				documentId = includedIterator.nextDocumentId();
+			}
+			return documentId;
+		}
+	}
+
+}
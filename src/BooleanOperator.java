@@ -0,0 +1,18 @@
+// TODO: Auto-generated Javadoc
+/**
+ * The Enum BooleanOperator.
+ */
+public enum BooleanOperator {
+	
+	/** The KEY, a leaf matching the titles of a key. */
+	KEY,
+	
+	/** The AND. */
+	AND,
+	
+	/** The OR. */
+	OR,
+	
+	/** The NOT, which is only matched as an operand of an AND. */
+	NOT
+}
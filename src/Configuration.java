@@ -0,0 +1,232 @@
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class Configuration. Reads the tuning parameters of Pino from the system properties, so they
+ * can be given with -D flags while launching the program, and falls back to their defaults otherwise.
+ */
+public class Configuration {
+
+	/**
+	 * Gets the number of write-ahead log records after which the log is synced to the disk.
+	 *
+	 * @return the wal fsync batch size
+	 */
+	public static int getWalFsyncBatchSize() {
+		return getInt("pino.wal.fsyncBatchSize", 256);
+	}
+
+	/**
+	 * Gets the longest time in milliseconds a write-ahead log record waits before the log is synced to the disk.
+	 *
+	 * @return the wal fsync interval
+	 */
+	public static long getWalFsyncInterval() {
+		return getLong("pino.wal.fsyncInterval", 100);
+	}
+
+	/**
+	 * Gets the storage engine of the inner storages, "heap" or "offheap".
+	 *
+	 * @return the storage engine
+	 */
+	public static String getStorageEngine() {
+		return getString("pino.storage.engine", "heap");
+	}
+
+	/**
+	 * Gets the maximum weight of the lookup cache, the number of cached keys and values, where 0 disables the cache.
+	 *
+	 * @return the lookup cache maximum weight
+	 */
+	public static long getLookupCacheMaximumWeight() {
+		return getLong("pino.cache.maxWeight", 1000000);
+	}
+
+	/**
+	 * Checks if the keys are indexed by their trigrams for substring lookups.
+	 *
+	 * @return true, if the n-gram index is enabled
+	 */
+	public static boolean isNGramIndexEnabled() {
+		return getBoolean("pino.index.ngram", false);
+	}
+
+	/**
+	 * Checks if the positions of the keywords of the titles are indexed for phrase lookups.
+	 *
+	 * @return true, if the position index is enabled
+	 */
+	public static boolean isPositionIndexEnabled() {
+		return getBoolean("pino.index.positions", false);
+	}
+
+	/**
+	 * Gets the way the keys are partitioned, "document" to keep the keys of a range of the dataset lines at
+	 * every machine or "term" to keep every key at the machines it is assigned to by consistent hashing.
+	 *
+	 * @return the partition mode
+	 */
+	public static String getPartitionMode() {
+		return getString("pino.partition.mode", "document");
+	}
+
+	/**
+	 * Gets the number of virtual nodes of every machine on the consistent hash ring of the term partitioning.
+	 *
+	 * @return the virtual node number
+	 */
+	public static int getVirtualNodeNumber() {
+		return getInt("pino.partition.virtualNodes", 64);
+	}
+
+	/**
+	 * Gets the way lookups are sent, "ring" to pass them from machine to machine around the ring or
+	 * "scatter" to send them from the issuing client to every machine at once.
+	 *
+	 * @return the lookup mode
+	 */
+	public static String getLookupMode() {
+		return getString("pino.lookup.mode", "ring");
+	}
+
+	/**
+	 * Gets the time in milliseconds a scatter lookup or an insertion probe waits for the responses of the machines.
+	 *
+	 * @return the lookup deadline
+	 */
+	public static long getLookupDeadline() {
+		return getLong("pino.lookup.deadline", 2000);
+	}
+
+	/**
+	 * Gets the maximum age in milliseconds of the load map entries an insertion may be probed and sent
+	 * directly by, 0 always using the insertion rounds around the ring.
+	 *
+	 * @return the maximum load staleness
+	 */
+	public static long getMaximumLoadStaleness() {
+		return getLong("pino.load.maxStaleness", 10000);
+	}
+
+	/**
+	 * Gets the number of threads reading the queries of the connections.
+	 *
+	 * @return the server i/o thread number
+	 */
+	public static int getServerIOThreadNumber() {
+		return getInt("pino.server.ioThreads", 2);
+	}
+
+	/**
+	 * Gets the threads the received queries are handled by, "platform" for a bounded pool of platform threads
+	 * or "virtual" for a virtual thread per query.
+	 *
+	 * @return the thread mode
+	 */
+	public static String getThreadMode() {
+		return getString("pino.threads", "platform");
+	}
+
+	/**
+	 * Gets the number of threads handling the received queries.
+	 *
+	 * @return the server worker thread number
+	 */
+	public static int getServerWorkerThreadNumber() {
+		return getInt("pino.server.workerThreads", 2 * Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Gets the number of received queries which can wait for a worker thread.
+	 *
+	 * @return the server worker queue size
+	 */
+	public static int getServerWorkerQueueSize() {
+		return getInt("pino.server.workerQueueSize", 10000);
+	}
+
+	/**
+	 * Gets the number of queued operations sent together as a batch.
+	 *
+	 * @return the batch size
+	 */
+	public static int getBatchSize() {
+		return getInt("pino.batch.size", 100);
+	}
+
+	/**
+	 * Gets the time in milliseconds a queued operation waits for more operations to join its batch.
+	 *
+	 * @return the batch linger time
+	 */
+	public static long getBatchLingerTime() {
+		return getLong("pino.batch.linger", 5);
+	}
+
+	/**
+	 * Gets the time in milliseconds the future of an asynchronous request waits for its responses.
+	 *
+	 * @return the request timeout
+	 */
+	public static long getRequestTimeout() {
+		return getLong("pino.request.timeout", 10000);
+	}
+
+	/**
+	 * Gets the string.
+	 *
+	 * @param name the name
+	 * @param defaultValue the default value
+	 * @return the string
+	 */
+	private static String getString(String name, String defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null || value.trim().length() == 0) {
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+	/**
+	 * Gets the boolean.
+	 *
+	 * @param name the name
+	 * @param defaultValue the default value
+	 * @return the boolean
+	 */
+	private static boolean getBoolean(String name, boolean defaultValue) {
+		return Boolean.parseBoolean(getString(name, String.valueOf(defaultValue)));
+	}
+
+	/**
+	 * Gets the int.
+	 *
+	 * @param name the name
+	 * @param defaultValue the default value
+	 * @return the int
+	 */
+	private static int getInt(String name, int defaultValue) {
+		return (int) getLong(name, defaultValue);
+	}
+
+	/**
+	 * Gets the long.
+	 *
+	 * @param name the name
+	 * @param defaultValue the default value
+	 * @return the long
+	 */
+	private static long getLong(String name, long defaultValue) {
+		String value = System.getProperty(name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			System.out.println("The value of "+name+" is not a number, using "+defaultValue+" instead.");
+			return defaultValue;
+		}
+	}
+
+}
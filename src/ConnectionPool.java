@@ -0,0 +1,316 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ConnectionPool. Keeps one long-lived connection to every machine queries are sent to, so a
+ * query doesn't pay a TCP handshake and leave a socket in TIME_WAIT. Every query is written as a frame,
+ * its length followed by its bytes encoded by the query codec, so any number of queries from any number
+ * of threads share a connection one frame at a time, and the receiver reads them one after another.
+ * The frames of a connection are queued and written by a writer thread of its own, so a sender never
+ * waits for a slow machine, and a full queue drops the frame instead. A connection is opened on its
+ * first frame and reopened once a write fails. A write stalled for longer than WRITE_TIMEOUT, e.g. by a
+ * machine which has stopped reading, is failed by the watchdog closing its socket, so the writer goes
+ * on with a new connection instead of waiting forever.
+ */
+public class ConnectionPool {
+
+	/** The Constant CONNECT_TIMEOUT. */
+	private static final int CONNECT_TIMEOUT = 2000;
+
+	/** The Constant WRITE_TIMEOUT. */
+	private static final int WRITE_TIMEOUT = 5000;
+
+	/** The Constant WATCHDOG_WAIT_PERIOD. */
+	private static final int WATCHDOG_WAIT_PERIOD = 1000;
+
+	/** The Constant QUEUE_CAPACITY, the number of frames which can wait for the writer of a connection. */
+	private static final int QUEUE_CAPACITY = 10000;
+
+	/** The port. */
+	private int port;
+
+	/** The connections by the ip addresses of the machines. */
+	private ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<String, Connection>();
+
+	/**
+	 * Instantiates a new connection pool.
+	 *
+	 * @param port the port
+	 */
+	public ConnectionPool(int port) {
+		this.port = port;
+		Thread watchdog = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				watchWrites();
+			}
+		});
+		watchdog.setDaemon(true);
+		watchdog.start();
+	}
+
+	/**
+	 * Closes the sockets of the connections whose writes have stalled, periodically.
+	 */
+	private void watchWrites() {
+		while (true) {
+			for (Connection connection : connections.values()) {
+				connection.closeIfStalled();
+			}
+			try {
+				Thread.sleep(WATCHDOG_WAIT_PERIOD);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Sends a query to a machine.
+	 *
+	 * @param query the query
+	 * @param IPAddress the iP address
+	 * @return true, if the query has been queued to be written
+	 */
+	public boolean send(Query query, String IPAddress) {
+		byte[] frame = encode(query);
+		Connection connection = connections.get(IPAddress);
+		if (connection == null) {
+			Connection newConnection = new Connection(IPAddress);
+			connection = connections.putIfAbsent(IPAddress, newConnection);
+			if (connection == null) {
+				connection = newConnection;
+				connection.start();
+			}
+		}
+		return connection.write(frame);
+	}
+
+	/**
+	 * Closes the connection to a machine.
+	 *
+	 * @param IPAddress the iP address
+	 */
+	public void close(String IPAddress) {
+		Connection connection = connections.remove(IPAddress);
+		if (connection != null) {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Encodes a query into a frame.
+	 *
+	 * @param query the query
+	 * @return the frame
+	 */
+	private static byte[] encode(Query query) {
+		byte[] bytes = QueryCodec.encode(query);
+		byte[] frame = new byte[bytes.length + 4];
+		frame[0] = (byte) (bytes.length >>> 24);
+		frame[1] = (byte) (bytes.length >>> 16);
+		frame[2] = (byte) (bytes.length >>> 8);
+		frame[3] = (byte) bytes.length;
+		System.arraycopy(bytes, 0, frame, 4, bytes.length);
+		return frame;
+	}
+
+	/**
+	 * The Class Connection. A connection to a machine, written by its writer thread.
+	 */
+	private class Connection implements Runnable {
+
+		/** The iP address. */
+		private String IPAddress;
+
+		/** The frames waiting to be written. */
+		private ArrayBlockingQueue<byte[]> frames = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY);
+
+		/** The writer. */
+		private Thread writer;
+
+		/** The closed. */
+		private volatile boolean closed;
+
+		/** The socket, or null if the connection isn't open. */
+		private Socket socket;
+
+		/** The output stream. */
+		private OutputStream outputStream;
+
+		/** The time the running write has started at, or 0 if no write is running. */
+		private volatile long writeStartTime;
+
+		/**
+		 * Instantiates a new connection.
+		 *
+		 * @param IPAddress the iP address
+		 */
+		public Connection(String IPAddress) {
+			this.IPAddress = IPAddress;
+		}
+
+		/**
+		 * Starts the writer.
+		 */
+		public void start() {
+			writer = new Thread(this);
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		/**
+		 * Queues a frame to be written.
+		 *
+		 * @param frame the frame
+		 * @return true, if the frame has been queued
+		 */
+		public boolean write(byte[] frame) {
+			return !closed && frames.offer(frame);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			ArrayList<byte[]> batch = new ArrayList<byte[]>();
+			while (!closed) {
+				try {
+					batch.add(frames.take());
+				} catch (InterruptedException e) {
+					continue;
+				}
+				frames.drainTo(batch);
+				writeBatch(batch);
+				batch.clear();
+			}
+			closeSocket();
+		}
+
+		/**
+		 * Writes a batch of frames, opening the connection first if it isn't open. A connection which
+		 * can't be written anymore, e.g. because the machine has restarted, is reopened once, and the
+		 * frames are dropped if they can't be written then either.
+		 *
+		 * @param batch the batch
+		 */
+		private void writeBatch(ArrayList<byte[]> batch) {
+			OutputStream openOutputStream = getOutputStream();
+			if (openOutputStream != null) {
+				if (writeFrames(openOutputStream, batch)) {
+					return;
+				}
+				closeSocket();
+			}
+			openOutputStream = open();
+			if (openOutputStream == null || !writeFrames(openOutputStream, batch)) {
+				closeSocket();
+			}
+		}
+
+		/**
+		 * Opens the connection. The connect runs outside the lock, so the watchdog is never held up by it.
+		 *
+		 * @return the output stream, or null if the connection couldn't be opened
+		 */
+		private OutputStream open() {
+			Socket newSocket = new Socket();
+			try {
+				newSocket.setTcpNoDelay(true);
+				newSocket.connect(new InetSocketAddress(IPAddress, port), CONNECT_TIMEOUT);
+				OutputStream newOutputStream = new BufferedOutputStream(newSocket.getOutputStream(), 1 << 16);
+				synchronized (this) {
+					socket = newSocket;
+					outputStream = newOutputStream;
+				}
+				return newOutputStream;
+			} catch (IOException e) {
+				try {
+					newSocket.close();
+				} catch (IOException closeException) {
+					// The connection is dropped either way
+				}
+				return null;
+			}
+		}
+
+		/**
+		 * Gets the output stream.
+		 *
+		 * @return the output stream, or null if the connection isn't open
+		 */
+		private synchronized OutputStream getOutputStream() {
+			return outputStream;
+		}
+
+		/**
+		 * Writes frames to the open connection.
+		 *
+		 * @param openOutputStream the output stream of the open connection
+		 * @param batch the batch
+		 * @return true, if the frames have been written
+		 */
+		private boolean writeFrames(OutputStream openOutputStream, ArrayList<byte[]> batch) {
+			writeStartTime = System.currentTimeMillis();
+			try {
+				for (byte[] frame : batch) {
+					openOutputStream.write(frame);
+				}
+				openOutputStream.flush();
+				return true;
+			} catch (IOException e) {
+				return false;
+			} finally {
+				writeStartTime = 0;
+			}
+		}
+
+		/**
+		 * Closes the socket if the running write has taken longer than WRITE_TIMEOUT, which fails the write.
+		 */
+		public void closeIfStalled() {
+			long startTime = writeStartTime;
+			if (startTime != 0 && System.currentTimeMillis() - startTime > WRITE_TIMEOUT) {
+				System.out.println("The connection to the machine with IP: "+IPAddress+" has stalled, reconnecting.");
+				closeSocket();
+			}
+		}
+
+		/**
+		 * Closes the socket.
+		 */
+		private synchronized void closeSocket() {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// The connection is dropped either way
+				}
+			}
+			socket = null;
+			outputStream = null;
+		}
+
+		/**
+		 * Closes the connection and stops its writer.
+		 */
+		public void close() {
+			closed = true;
+			if (writer != null) {
+				writer.interrupt();
+			}
+			closeSocket();
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ConsistentHashRing. Assigns the keys to the machines by consistent hashing: every machine is
+ * placed on a ring of 64-bit hashes at a number of virtual nodes, and a key belongs to the machine of the
+ * first virtual node at or after the hash of the key. The replicas of a key belong to the next distinct
+ * machines along the ring. The virtual nodes spread the keys of a machine over all the other machines, so
+ * the keys are balanced and a failed machine's keys are taken over by many machines instead of one. The
+ * ring is built from the initial machines of the system, so every machine assigns every key the same way.
+ */
+public class ConsistentHashRing {
+
+	/** The Constant UTF_8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The machines at the hashes of their virtual nodes. */
+	private TreeMap<Long, String> virtualNodes = new TreeMap<Long, String>();
+
+	/** The machine number. */
+	private int machineNumber;
+
+	/** The signature, identifying the assignment of the keys. */
+	private long signature;
+
+	/**
+	 * Instantiates a new consistent hash ring.
+	 *
+	 * @param machineIPs the machine i ps
+	 * @param virtualNodeNumber the number of virtual nodes of every machine
+	 */
+	public ConsistentHashRing(Collection<String> machineIPs, int virtualNodeNumber) {
+		HashSet<String> distinctMachineIPs = new HashSet<String>(machineIPs);
+		machineNumber = distinctMachineIPs.size();
+		for (String IPAddress : distinctMachineIPs) {
+			for (int i=0; i<virtualNodeNumber; i++) {
+				long hash = hash(IPAddress + "#" + i);
+				// On the rare collision the smaller ip address wins, so every machine agrees on the owner
+				String existingIPAddress = virtualNodes.get(hash);
+				if (existingIPAddress == null || existingIPAddress.compareTo(IPAddress) > 0) {
+					virtualNodes.put(hash, IPAddress);
+				}
+			}
+		}
+		signature = virtualNodeNumber;
+		for (Map.Entry<Long, String> entry : virtualNodes.entrySet()) {
+			signature = signature * 31 + entry.getKey() + hash(entry.getValue());
+		}
+	}
+
+	/**
+	 * Gets the machines a key belongs to, its owner followed by its replicas along the ring.
+	 *
+	 * @param key the key
+	 * @param ownerNumber the number of machines, at most the number of machines on the ring
+	 * @return the owner i ps
+	 */
+	public ArrayList<String> getOwners(String key, int ownerNumber) {
+		return getOwnersFrom(hash(key), ownerNumber);
+	}
+
+	/**
+	 * Gets the distinct machines of the virtual nodes at and after a hash.
+	 *
+	 * @param hash the hash
+	 * @param ownerNumber the owner number
+	 * @return the owner i ps
+	 */
+	private ArrayList<String> getOwnersFrom(long hash, int ownerNumber) {
+		ArrayList<String> owners = new ArrayList<String>();
+		int maximumOwnerNumber = Math.min(ownerNumber, machineNumber);
+		for (String IPAddress : virtualNodes.tailMap(hash).values()) {
+			if (owners.size() == maximumOwnerNumber) {
+				return owners;
+			}
+			if (!owners.contains(IPAddress)) {
+				owners.add(IPAddress);
+			}
+		}
+		for (String IPAddress : virtualNodes.values()) {
+			if (owners.size() == maximumOwnerNumber) {
+				return owners;
+			}
+			if (!owners.contains(IPAddress)) {
+				owners.add(IPAddress);
+			}
+		}
+		return owners;
+	}
+
+	/**
+	 * Gets the machines owning keys a machine holds, itself and the machines it holds replicas for.
+	 *
+	 * @param IPAddress the iP address of the machine
+	 * @param ownerNumber the number of machines every key belongs to
+	 * @return the i ps of the owners
+	 */
+	public HashSet<String> getOwnersHeldBy(String IPAddress, int ownerNumber) {
+		HashSet<String> owners = new HashSet<String>();
+		// The owners change only at the virtual nodes, so the keys right after every virtual node cover all of them
+		for (long hash : virtualNodes.keySet()) {
+			ArrayList<String> keyOwners = getOwnersFrom(hash, ownerNumber);
+			if (keyOwners.contains(IPAddress)) {
+				owners.add(keyOwners.get(0));
+			}
+		}
+		return owners;
+	}
+
+	/**
+	 * Gets the signature, which differs for rings assigning the keys differently.
+	 *
+	 * @return the signature
+	 */
+	public long getSignature() {
+		return signature;
+	}
+
+	/**
+	 * Hashes a string with the 64-bit FNV-1a hash of its UTF-8 bytes, followed by a finalizer which spreads
+	 * the similar strings, e.g. the virtual nodes of a machine, over the ring.
+	 *
+	 * @param string the string
+	 * @return the hash
+	 */
+	private static long hash(String string) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte currentByte : string.getBytes(UTF_8)) {
+			hash = (hash ^ (currentByte & 0xff)) * 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+}
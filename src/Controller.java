@@ -79,7 +79,7 @@ public class Controller {
 		queryHandler.joinTheSystem();
 		while (true) {
 			try {
-				System.out.println("Enter the type of your query, i.e., \"insert\", \"lookup\", \"delete\", \"print\" or \"size\"");
+				System.out.println("Enter the type of your query, i.e., \"insert\", \"lookup\", \"lookup count\", \"lookup limit\", \"lookup page\", \"lookup next\", \"boolean lookup\", \"prefix lookup\", \"substring lookup\", \"phrase lookup\", \"delete\", \"batch\", \"print\", \"size\" or \"snapshot\"");
 				queryTypeString = bufferedReader.readLine();
 				if (queryTypeString.equals("insert")) {
 					System.out.println("Enter the key:");
@@ -93,17 +93,114 @@ public class Controller {
 					String key = bufferedReader.readLine();
 					queryHandler.startLookup(key);
 				}
+				else if (queryTypeString.equals("lookup count")) {
+					System.out.println("Enter the key:");
+					String key = bufferedReader.readLine();
+					queryHandler.startLookupCount(key);
+				}
+				else if (queryTypeString.equals("lookup limit")) {
+					System.out.println("Enter the key:");
+					String key = bufferedReader.readLine();
+					System.out.println("Enter the limit:");
+					int valueLimit;
+					try {
+						valueLimit = Integer.parseInt(bufferedReader.readLine().trim());
+					} catch (NumberFormatException e) {
+						System.out.println("The limit should be a number!");
+						continue;
+					}
+					if (valueLimit <= 0) {
+						System.out.println("The limit should be positive!");
+						continue;
+					}
+					queryHandler.startLookupLimit(key, valueLimit);
+				}
+				else if (queryTypeString.equals("lookup page")) {
+					System.out.println("Enter the key:");
+					String key = bufferedReader.readLine();
+					System.out.println("Enter the page size:");
+					int pageSize;
+					try {
+						pageSize = Integer.parseInt(bufferedReader.readLine().trim());
+					} catch (NumberFormatException e) {
+						System.out.println("The page size should be a number!");
+						continue;
+					}
+					if (pageSize <= 0) {
+						System.out.println("The page size should be positive!");
+						continue;
+					}
+					queryHandler.startLookupPage(key, pageSize);
+				}
+				else if (queryTypeString.equals("lookup next")) {
+					queryHandler.startLookupNextPage();
+				}
+				else if (queryTypeString.equals("boolean lookup")) {
+					System.out.println("Enter the expression, e.g. \"apple AND (pie OR cake) AND NOT recipe\":");
+					BooleanExpression expression;
+					try {
+						expression = BooleanExpression.parse(bufferedReader.readLine());
+					} catch (IllegalArgumentException e) {
+						System.out.println(e.getMessage());
+						continue;
+					}
+					queryHandler.startBooleanLookup(expression);
+				}
+				else if (queryTypeString.equals("prefix lookup")) {
+					System.out.println("Enter the prefix:");
+					String prefix = bufferedReader.readLine();
+					if (prefix.length() == 0) {
+						System.out.println("The prefix should not be empty!");
+						continue;
+					}
+					queryHandler.startPrefixLookup(prefix);
+				}
+				else if (queryTypeString.equals("substring lookup")) {
+					System.out.println("Enter the fragment:");
+					String fragment = bufferedReader.readLine();
+					if (fragment.length() == 0) {
+						System.out.println("The fragment should not be empty!");
+						continue;
+					}
+					queryHandler.startSubstringLookup(fragment);
+				}
+				else if (queryTypeString.equals("phrase lookup")) {
+					System.out.println("Enter the phrase:");
+					String phrase = bufferedReader.readLine();
+					queryHandler.startPhraseLookup(phrase);
+				}
 				else if (queryTypeString.equals("delete")) {
 					System.out.println("Enter the key:");
 					String key = bufferedReader.readLine();
 					queryHandler.startDeletion(key);
 				}
+				else if (queryTypeString.equals("batch")) {
+					System.out.println("Enter the operations, one per line as \"insert <key> <value>\", \"lookup <key>\" or \"delete <key>\", and an empty line to send them:");
+					String operation;
+					while ((operation = bufferedReader.readLine()) != null && operation.trim().length() > 0) {
+						String[] tokens = operation.trim().split(" ", 3);
+						if (tokens[0].equals("insert") && tokens.length == 3) {
+							queryHandler.queueInsertion(tokens[1], tokens[2]);
+						} else if (tokens[0].equals("lookup") && tokens.length == 2) {
+							queryHandler.queueLookup(tokens[1]);
+						} else if (tokens[0].equals("delete") && tokens.length == 2) {
+							queryHandler.queueDeletion(tokens[1]);
+						} else {
+							System.out.println("The operation should be \"insert <key> <value>\", \"lookup <key>\" or \"delete <key>\"!");
+						}
+					}
+					queryHandler.flushBatch();
+				}
 				else if (queryTypeString.equals("print")) {
 					queryHandler.printStorage();
 				}
 				else if (queryTypeString.equals("size")) {
 					System.out.println(queryHandler.getStorageSizes());
 				}
+				else if (queryTypeString.equals("snapshot")) {
+					queryHandler.writeSnapshots();
+					System.out.println("The snapshots of the modified storages have been written.");
+				}
 				else if (queryTypeString.equals("current system")) {
 					System.out.println(queryHandler.getCurrentSystemIPList());
 				}
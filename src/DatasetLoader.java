@@ -0,0 +1,277 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class DatasetLoader. Reads the dataset file through memory mapped byte ranges which are aligned
+ * to line boundaries and parses them in a fork-join pool. The ranges are located through the line
+ * offset index of the file, so every line is parsed exactly once regardless of the number of replicas.
+ */
+public class DatasetLoader {
+
+	/** The Constant MINIMUM_CHUNK_SIZE. */
+	private static final int MINIMUM_CHUNK_SIZE = 1 << 20;
+
+	/** The Constant UTF_8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The data file name. */
+	private String dataFileName;
+
+	/** The file size. */
+	private long fileSize;
+
+	/** The chunk size. */
+	private long chunkSize;
+
+	/** The line offset index. */
+	private LineOffsetIndex lineOffsetIndex;
+
+	/** The fork join pool. */
+	private ForkJoinPool forkJoinPool = new ForkJoinPool();
+
+	/**
+	 * Instantiates a new dataset loader, reusing the line offset index of the file when it is valid.
+	 *
+	 * @param dataFileName the data file name
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public DatasetLoader(String dataFileName) throws IOException {
+		this.dataFileName = dataFileName;
+		lineOffsetIndex = LineOffsetIndex.loadOrBuild(dataFileName, forkJoinPool);
+		fileSize = new File(dataFileName).length();
+		chunkSize = Math.max(MINIMUM_CHUNK_SIZE, fileSize / (forkJoinPool.getParallelism() * 4) + 1);
+	}
+
+	/**
+	 * Gets the line number.
+	 *
+	 * @return the line number
+	 */
+	public int getLineNumber() {
+		return lineOffsetIndex.getLineNumber();
+	}
+
+	/**
+	 * Gets the line offset index.
+	 *
+	 * @return the line offset index
+	 */
+	public LineOffsetIndex getLineOffsetIndex() {
+		return lineOffsetIndex;
+	}
+
+	/**
+	 * Loads the lines whose numbers are greater than the start line number and not greater than the
+	 * end line number, which is the range the storage has always been built from.
+	 *
+	 * @param startLineNumber the start line number
+	 * @param endLineNumber the end line number
+	 * @return the task building the inner storage
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public ForkJoinTask<HeapInnerStorage> load(int startLineNumber, int endLineNumber) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(dataFileName, "r");
+		final FileChannel channel = file.getChannel();
+		final long startOffset = lineOffsetIndex.getLineOffset(channel, startLineNumber + 1);
+		final long endOffset = lineOffsetIndex.getLineOffset(channel, endLineNumber + 1);
+		return forkJoinPool.submit(new RangeParser(file, channel, startOffset, endOffset, true));
+	}
+
+	/**
+	 * Gets the fork join pool.
+	 *
+	 * @return the fork join pool
+	 */
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	/**
+	 * Shuts down the pool once all the loads are completed.
+	 */
+	public void shutdown() {
+		forkJoinPool.shutdown();
+	}
+
+	/**
+	 * Moves the given offset to the start of the next line unless it already is at a line start.
+	 *
+	 * @param channel the channel
+	 * @param offset the offset
+	 * @param limit the limit
+	 * @return the aligned offset
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static long alignToLineStart(FileChannel channel, long offset, long limit) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long position = offset - 1;
+		while (position < limit) {
+			buffer.clear();
+			int readBytes = channel.read(buffer, position);
+			if (readBytes <= 0) {
+				break;
+			}
+			for (int i=0; i<readBytes && position + i < limit; i++) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += readBytes;
+		}
+		return limit;
+	}
+
+	/**
+	 * Adds the title of a movie line to the title dictionary and its document id to the keywords of
+	 * the title.
+	 *
+	 * @param bytes the bytes
+	 * @param start the start of the line
+	 * @param end the end of the line
+	 * @param innerStorage the inner storage
+	 */
+	private static void indexMovie(byte[] bytes, int start, int end, HeapInnerStorage innerStorage) {
+		// The quotes are removed in place, they are never a part of a multi-byte UTF-8 sequence
+		int length = 0;
+		for (int i=start; i<end; i++) {
+			if (bytes[i] != '"') {
+				bytes[start+length] = bytes[i];
+				length++;
+			}
+		}
+		int documentId = innerStorage.getTitleDictionary().append(bytes, start, length);
+		if (length == 0) {
+			innerStorage.addDocumentId("", documentId);
+			return;
+		}
+		// The keywords are split at spaces like String.split(" ") does, which drops the trailing empty keywords
+		int keywordsEnd = start + length;
+		while (keywordsEnd > start && bytes[keywordsEnd-1] == ' ') {
+			keywordsEnd--;
+		}
+		if (keywordsEnd == start) {
+			return;
+		}
+		int keyStart = start;
+		for (int i=start; i<=keywordsEnd; i++) {
+			if (i == keywordsEnd || bytes[i] == ' ') {
+				innerStorage.addDocumentId(new String(bytes, keyStart, i - keyStart, UTF_8), documentId);
+				keyStart = i + 1;
+			}
+		}
+	}
+
+	/**
+	 * The Class RangeParser. Parses a line aligned byte range, splitting it while it is larger than a chunk.
+	 */
+	private class RangeParser extends RecursiveTask<HeapInnerStorage> {
+
+		/** The Constant serialVersionUID. */
+		private static final long serialVersionUID = -2860323154870163937L;
+
+		/** The file, closed by the root parser. */
+		private RandomAccessFile file;
+
+		/** The channel. */
+		private FileChannel channel;
+
+		/** The start offset. */
+		private long startOffset;
+
+		/** The end offset. */
+		private long endOffset;
+
+		/** Whether this is the root parser of a range. */
+		private boolean isRoot;
+
+		/**
+		 * Instantiates a new range parser.
+		 *
+		 * @param file the file
+		 * @param channel the channel
+		 * @param startOffset the start offset
+		 * @param endOffset the end offset
+		 * @param isRoot the is root
+		 */
+		public RangeParser(RandomAccessFile file, FileChannel channel, long startOffset, long endOffset, boolean isRoot) {
+			this.file = file;
+			this.channel = channel;
+			this.startOffset = startOffset;
+			this.endOffset = endOffset;
+			this.isRoot = isRoot;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveTask#compute()
+		 */
+		@Override
+		protected HeapInnerStorage compute() {
+			try {
+				return parse();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return new HeapInnerStorage();
+			} finally {
+				if (isRoot) {
+					try {
+						file.close();
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Parses the range, or its halves in parallel when it is larger than a chunk.
+		 *
+		 * @return the inner storage of the range
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		private HeapInnerStorage parse() throws IOException {
+			if (endOffset - startOffset > chunkSize) {
+				long middleOffset = alignToLineStart(channel, startOffset + (endOffset - startOffset) / 2, endOffset);
+				if (middleOffset < endOffset) {
+					RangeParser left = new RangeParser(file, channel, startOffset, middleOffset, false);
+					RangeParser right = new RangeParser(file, channel, middleOffset, endOffset, false);
+					right.fork();
+					HeapInnerStorage innerStorage = left.compute();
+					// Appending the right half after the left one keeps the document ids in file order
+					innerStorage.appendAll(right.join());
+					return innerStorage;
+				}
+			}
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, startOffset, endOffset - startOffset);
+			byte[] bytes = new byte[(int) (endOffset - startOffset)];
+			buffer.get(bytes);
+			HeapInnerStorage innerStorage = new HeapInnerStorage(new TitleDictionary(bytes.length, bytes.length / 32), new HashMap<String, PostingList>());
+			int lineStart = 0;
+			for (int i=0; i<=bytes.length; i++) {
+				if (i == bytes.length || bytes[i] == '\n') {
+					if (i == bytes.length && lineStart == i) {
+						break;
+					}
+					int lineEnd = i;
+					if (lineEnd > lineStart && bytes[lineEnd-1] == '\r') {
+						lineEnd--;
+					}
+					indexMovie(bytes, lineStart, lineEnd, innerStorage);
+					lineStart = i + 1;
+				}
+			}
+			return innerStorage;
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class DroppingPolicy. Drops the queries a full worker pool rejects rather than handling them on the
+ * i/o thread submitting them, which would stop reading every connection of its selector until the query
+ * is handled. The first dropped query and then every thousandth is logged, so an overloaded machine
+ * doesn't also flood its output, and the request of a dropped query times out at its origin.
+ */
+public class DroppingPolicy implements RejectedExecutionHandler {
+
+	/** The Constant LOGGING_INTERVAL. */
+	private static final long LOGGING_INTERVAL = 1000;
+
+	/** The dropped query number. */
+	private AtomicLong droppedQueryNumber = new AtomicLong();
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.RejectedExecutionHandler#rejectedExecution(java.lang.Runnable, java.util.concurrent.ThreadPoolExecutor)
+	 */
+	@Override
+	public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+		long number = droppedQueryNumber.incrementAndGet();
+		if (number % LOGGING_INTERVAL == 1) {
+			System.out.println("The query workers are overloaded, "+number+" queries have been dropped.");
+		}
+	}
+
+}
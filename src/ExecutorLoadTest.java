@@ -0,0 +1,137 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ExecutorLoadTest. Compares the threads the received queries can be handled by under many
+ * concurrent lookups: a new platform thread for every query as before the query server, the bounded pool
+ * of platform threads and a virtual thread for every query, the latter only on Java versions supporting
+ * them. Every lookup decodes its query like a receiving machine does, blocks for the given latency like
+ * sending the query on to the next machine does, then adds its values and encodes the query again. The
+ * throughput, the peak number of threads and the heap used while the lookups are in flight are printed.
+ * Takes the number of concurrent lookups and the latency of a hop in milliseconds as optional arguments.
+ */
+public class ExecutorLoadTest {
+
+	/** The Constant DEFAULT_LOOKUP_NUMBER. */
+	private static final int DEFAULT_LOOKUP_NUMBER = 10000;
+
+	/** The Constant DEFAULT_HOP_LATENCY. */
+	private static final int DEFAULT_HOP_LATENCY = 20;
+
+	/** The Constant MEGABYTE. */
+	private static final long MEGABYTE = 1024 * 1024;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 * @throws Exception the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int lookupNumber = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LOOKUP_NUMBER;
+		int hopLatency = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_HOP_LATENCY;
+		System.out.println(lookupNumber+" concurrent lookups, "+hopLatency+" ms per hop, "+Configuration.getServerWorkerThreadNumber()+" pooled platform threads");
+		System.out.println(String.format("%-20s %12s %16s %14s %14s", "Threads", "Time ms", "Lookups/s", "Peak threads", "Heap MB"));
+		run("thread per query", new Executor() {
+			@Override
+			public void execute(Runnable task) {
+				new Thread(task).start();
+			}
+		}, lookupNumber, hopLatency);
+		ExecutorService platformThreadPool = QueryExecutors.createPlatformThreadPool();
+		// The lookups are submitted by no selector, so the full pool can make the submitter wait rather than drop them
+		((ThreadPoolExecutor) platformThreadPool).setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		run("platform pool", platformThreadPool, lookupNumber, hopLatency);
+		platformThreadPool.shutdown();
+		ExecutorService virtualThreadExecutor = QueryExecutors.createVirtualThreadPerTaskExecutor();
+		if (virtualThreadExecutor == null) {
+			System.out.println(String.format("%-20s %s", "virtual", "not supported by Java "+System.getProperty("java.version")));
+		} else {
+			run("virtual", virtualThreadExecutor, lookupNumber, hopLatency);
+			virtualThreadExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Runs the lookups on an executor and prints the results.
+	 *
+	 * @param name the name of the executor
+	 * @param executor the executor
+	 * @param lookupNumber the lookup number
+	 * @param hopLatency the hop latency
+	 * @throws InterruptedException the interrupted exception
+	 */
+	private static void run(String name, Executor executor, int lookupNumber, final int hopLatency) throws InterruptedException {
+		System.gc();
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		threadMXBean.resetPeakThreadCount();
+		Runtime runtime = Runtime.getRuntime();
+		long usedMemoryBefore = runtime.totalMemory() - runtime.freeMemory();
+		final byte[] frame = QueryCodec.encode(createLookup());
+		final CountDownLatch completedLookups = new CountDownLatch(lookupNumber);
+		long start = System.nanoTime();
+		for (int i=0; i<lookupNumber; i++) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						handleLookup(frame, hopLatency);
+					} finally {
+						completedLookups.countDown();
+					}
+				}
+			});
+		}
+		long usedMemoryInFlight = runtime.totalMemory() - runtime.freeMemory();
+		completedLookups.await(10, TimeUnit.MINUTES);
+		long time = (System.nanoTime() - start) / 1000000;
+		System.out.println(String.format("%-20s %12d %16d %14d %14d", name, time, lookupNumber * 1000L / Math.max(1, time),
+				threadMXBean.getPeakThreadCount(), Math.max(0, usedMemoryInFlight - usedMemoryBefore) / MEGABYTE));
+	}
+
+	/**
+	 * Handles a lookup like a machine receiving it does.
+	 *
+	 * @param frame the frame of the lookup
+	 * @param hopLatency the hop latency
+	 */
+	private static void handleLookup(byte[] frame, int hopLatency) {
+		try {
+			Query query = QueryCodec.decode(frame);
+			Thread.sleep(hopLatency);
+			ArrayList<String> values = new ArrayList<String>();
+			for (int i=0; i<10; i++) {
+				values.add("An index of the titles of volume "+i);
+			}
+			query.addValues("192.168.1.231", values);
+			QueryCodec.encode(query);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Creates a lookup on its way around the ring.
+	 *
+	 * @return the query
+	 */
+	private static Query createLookup() {
+		Query query = new Query(QueryType.LOOKUP, "index");
+		query.setQueryOriginMachineIP("192.168.1.230");
+		ArrayList<String> values = new ArrayList<String>();
+		for (int i=0; i<10; i++) {
+			values.add("The index of volume "+i);
+		}
+		query.addValues("192.168.1.230", values);
+		return query;
+	}
+
+}
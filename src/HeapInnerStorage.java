@@ -0,0 +1,236 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class HeapInnerStorage. The inner storage kept on the heap, where the titles are kept once in a
+ * title dictionary and every key maps to the posting list of the document ids of its titles. The dataset
+ * ranges are always built in it, and converted to the off-heap engine afterwards when it is chosen. While
+ * a storage is built its posting lists are modified in place in a plain hash map; once it is trimmed they
+ * are kept in a concurrent hash map and replaced on write, so lookups never lock and never see a list which
+ * is being modified. Writers of the same key have to be serialized by the caller.
+ */
+public class HeapInnerStorage implements InnerStorage {
+
+	/** The title dictionary. */
+	private TitleDictionary titleDictionary;
+
+	/** The posting lists. */
+	private Map<String, PostingList> postingLists;
+
+	/**
+	 * Instantiates a new heap inner storage.
+	 */
+	public HeapInnerStorage() {
+		this(new TitleDictionary(), new HashMap<String, PostingList>());
+	}
+
+	/**
+	 * Instantiates a new heap inner storage.
+	 *
+	 * @param titleDictionary the title dictionary
+	 * @param postingLists the posting lists
+	 */
+	public HeapInnerStorage(TitleDictionary titleDictionary, Map<String, PostingList> postingLists) {
+		this.titleDictionary = titleDictionary;
+		this.postingLists = postingLists;
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#add(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean add(String key, String value) {
+		int documentId = titleDictionary.add(value);
+		PostingList postingList = postingLists.get(key);
+		PostingList newPostingList;
+		if (postingList == null) {
+			newPostingList = new PostingList();
+			newPostingList.add(documentId);
+		} else {
+			newPostingList = postingList.copyWith(documentId);
+			if (newPostingList == postingList) {
+				return false;
+			}
+		}
+		postingLists.put(key, newPostingList);
+		return true;
+	}
+
+	/**
+	 * Adds a document id to a key in place while the storage is built, adding the key if it doesn't exist.
+	 *
+	 * @param key the key
+	 * @param documentId the document id
+	 */
+	public void addDocumentId(String key, int documentId) {
+		PostingList postingList = postingLists.get(key);
+		if (postingList == null) {
+			postingList = new PostingList();
+			postingLists.put(key, postingList);
+		}
+		postingList.add(documentId);
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#containsKey(java.lang.String)
+	 */
+	@Override
+	public boolean containsKey(String key) {
+		return postingLists.containsKey(key);
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getPostingList(java.lang.String)
+	 */
+	@Override
+	public PostingList getPostingList(String key) {
+		return postingLists.get(key);
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getValueNumber(java.lang.String)
+	 */
+	@Override
+	public int getValueNumber(String key) {
+		PostingList postingList = postingLists.get(key);
+		return postingList == null ? 0 : postingList.size();
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#addValuesTo(java.lang.String, java.util.ArrayList)
+	 */
+	@Override
+	public boolean addValuesTo(String key, ArrayList<String> values) {
+		PostingList postingList = postingLists.get(key);
+		if (postingList == null) {
+			return false;
+		}
+		values.ensureCapacity(values.size() + postingList.size());
+		PostingIterator iterator = postingList.iterator();
+		for (int documentId = iterator.nextDocumentId(); documentId != PostingIterator.NO_MORE_DOCUMENTS; documentId = iterator.nextDocumentId()) {
+			values.add(titleDictionary.getTitle(documentId));
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#remove(java.lang.String)
+	 */
+	@Override
+	public boolean remove(String key) {
+		return postingLists.remove(key) != null;
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#size()
+	 */
+	@Override
+	public int size() {
+		return postingLists.size();
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#keySet()
+	 */
+	@Override
+	public Set<String> keySet() {
+		return postingLists.keySet();
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getPostingIterator(java.lang.String)
+	 */
+	@Override
+	public PostingIterator getPostingIterator(String key) {
+		PostingList postingList = postingLists.get(key);
+		return postingList == null ? null : postingList.iterator();
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getTitleNumber()
+	 */
+	@Override
+	public int getTitleNumber() {
+		return titleDictionary.getTitleNumber();
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getTitle(int)
+	 */
+	@Override
+	public String getTitle(int documentId) {
+		return titleDictionary.getTitle(documentId);
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getTitleBytes(int)
+	 */
+	@Override
+	public byte[] getTitleBytes(int documentId) {
+		return titleDictionary.getTitleBytes(documentId);
+	}
+
+	/**
+	 * Gets the title dictionary.
+	 *
+	 * @return the title dictionary
+	 */
+	public TitleDictionary getTitleDictionary() {
+		return titleDictionary;
+	}
+
+	/**
+	 * Appends another inner storage built from the lines following the lines of this one.
+	 *
+	 * @param innerStorage the inner storage
+	 */
+	public void appendAll(HeapInnerStorage innerStorage) {
+		int shift = titleDictionary.getTitleNumber();
+		titleDictionary.appendAll(innerStorage.titleDictionary);
+		for (Map.Entry<String, PostingList> entry : innerStorage.postingLists.entrySet()) {
+			PostingList postingList = postingLists.get(entry.getKey());
+			if (postingList == null) {
+				postingList = new PostingList();
+				postingLists.put(entry.getKey(), postingList);
+			}
+			postingList.appendAll(entry.getValue(), shift);
+		}
+	}
+
+	/**
+	 * Releases the unused capacity of the title dictionary and compacts the posting lists once the storage
+	 * is built, moving them to a concurrent hash map.
+	 */
+	public void trim() {
+		titleDictionary.trim();
+		for (PostingList postingList : postingLists.values()) {
+			postingList.compact();
+		}
+		postingLists = new ConcurrentHashMap<String, PostingList>(postingLists);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder stringBuilder = new StringBuilder("{");
+		boolean isFirst = true;
+		for (String key : postingLists.keySet()) {
+			if (!isFirst) {
+				stringBuilder.append(", ");
+			}
+			isFirst = false;
+			ArrayList<String> values = new ArrayList<String>();
+			addValuesTo(key, values);
+			stringBuilder.append(key).append('=').append(values);
+		}
+		return stringBuilder.append('}').toString();
+	}
+
+}
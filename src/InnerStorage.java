@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.Set;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Interface InnerStorage. The key-value pairs of one dataset range, where the titles are kept once and
+ * identified by their document ids and every key maps to the ascending document ids of its titles. The
+ * storage engine is chosen with the pino.storage.engine system property: "heap" keeps them in Java arrays
+ * and "offheap" in direct buffers, so the heap and the garbage collection pauses don't grow with the dataset.
+ */
+public interface InnerStorage {
+
+	/**
+	 * Adds a value to a key, adding the key if it doesn't exist.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return true, if the key didn't already have the value
+	 */
+	boolean add(String key, String value);
+
+	/**
+	 * Contains key.
+	 *
+	 * @param key the key
+	 * @return true, if successful
+	 */
+	boolean containsKey(String key);
+
+	/**
+	 * Gets an iterator over the document ids of a key.
+	 *
+	 * @param key the key
+	 * @return the posting iterator, or null if the key doesn't exist
+	 */
+	PostingIterator getPostingIterator(String key);
+
+	/**
+	 * Gets the posting list of a key, which is a heap copy for the off-heap engine.
+	 *
+	 * @param key the key
+	 * @return the posting list, or null if the key doesn't exist
+	 */
+	PostingList getPostingList(String key);
+
+	/**
+	 * Gets the number of values of a key without resolving them.
+	 *
+	 * @param key the key
+	 * @return the value number, or 0 if the key doesn't exist
+	 */
+	int getValueNumber(String key);
+
+	/**
+	 * Resolves the values of a key into the given list.
+	 *
+	 * @param key the key
+	 * @param values the values
+	 * @return true, if the key exists
+	 */
+	boolean addValuesTo(String key, ArrayList<String> values);
+
+	/**
+	 * Removes a key.
+	 *
+	 * @param key the key
+	 * @return true, if the key existed
+	 */
+	boolean remove(String key);
+
+	/**
+	 * Gets the number of keys.
+	 *
+	 * @return the size
+	 */
+	int size();
+
+	/**
+	 * Gets the keys.
+	 *
+	 * @return the keys
+	 */
+	Set<String> keySet();
+
+	/**
+	 * Gets the title number.
+	 *
+	 * @return the title number
+	 */
+	int getTitleNumber();
+
+	/**
+	 * Resolves the title of a document id.
+	 *
+	 * @param documentId the document id
+	 * @return the title
+	 */
+	String getTitle(int documentId);
+
+	/**
+	 * Gets the UTF-8 bytes of the title of a document id.
+	 *
+	 * @param documentId the document id
+	 * @return the title bytes
+	 */
+	byte[] getTitleBytes(int documentId);
+
+}
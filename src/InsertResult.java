@@ -0,0 +1,15 @@
+// TODO: Auto-generated Javadoc
+/**
+ * The Enum InsertResult. Where Storage.insertIfPresent found the key of the key-value pair.
+ */
+public enum InsertResult {
+	
+	/** The KEY_NOT_FOUND, the key isn't stored in this machine and nothing has been inserted. */
+	KEY_NOT_FOUND,
+	
+	/** The KEY_FOUND_IN_REPLICA, the key is only stored in replica storages. */
+	KEY_FOUND_IN_REPLICA,
+	
+	/** The KEY_FOUND_IN_LOCAL, the key is stored in a local storage. */
+	KEY_FOUND_IN_LOCAL
+}
@@ -0,0 +1,108 @@
+import java.util.Collection;
+import java.util.HashSet;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class InsertionProbe. An insertion the issuing client has asked every other machine about at once
+ * before sending it straight to the least loaded machine, gathering the machines which already keep the
+ * key as their responses arrive. The probe completes once every machine has responded or its deadline has
+ * passed, whichever comes first, and is completed exactly once.
+ */
+public class InsertionProbe {
+
+	/** The key. */
+	private String key;
+
+	/** The value. */
+	private String value;
+
+	/** The machine i ps which haven't responded yet. */
+	private HashSet<String> awaitedMachineIPs;
+
+	/** The machine i ps which have inserted the value into the key they already keep. */
+	private HashSet<String> machineIPsWithOperation = new HashSet<String>();
+
+	/** The completed. */
+	private boolean completed;
+
+	/**
+	 * Instantiates a new insertion probe.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @param machineIPs the machine i ps the probe is sent to
+	 */
+	public InsertionProbe(String key, String value, Collection<String> machineIPs) {
+		this.key = key;
+		this.value = value;
+		this.awaitedMachineIPs = new HashSet<String>(machineIPs);
+	}
+
+	/**
+	 * Adds the response of a machine.
+	 *
+	 * @param IPAddress the iP address of the machine
+	 * @param isKeyFound whether the machine keeps the key as a local storage and has inserted the value
+	 * @return true, if every machine has responded now
+	 */
+	public synchronized boolean addResponse(String IPAddress, boolean isKeyFound) {
+		if (completed || !awaitedMachineIPs.remove(IPAddress)) {
+			return false;
+		}
+		if (isKeyFound) {
+			machineIPsWithOperation.add(IPAddress);
+		}
+		return awaitedMachineIPs.isEmpty();
+	}
+
+	/**
+	 * Completes the probe.
+	 *
+	 * @return true, if the probe hasn't been completed before
+	 */
+	public synchronized boolean complete() {
+		if (completed) {
+			return false;
+		}
+		completed = true;
+		return true;
+	}
+
+	/**
+	 * Gets the key.
+	 *
+	 * @return the key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Gets the value.
+	 *
+	 * @return the value
+	 */
+	public String getValue() {
+		return value;
+	}
+
+	/**
+	 * Checks if every machine has responded.
+	 *
+	 * @return true, if every machine has responded
+	 */
+	public synchronized boolean isAnswered() {
+		return awaitedMachineIPs.isEmpty();
+	}
+
+	/**
+	 * Gets the machine i ps which have inserted the value into the key they already keep.
+	 *
+	 * @return the machine i ps with operation
+	 */
+	public synchronized HashSet<String> getMachineIPsWithOperation() {
+		return new HashSet<String>(machineIPsWithOperation);
+	}
+
+}
@@ -0,0 +1,408 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.CRC32;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class LineOffsetIndex. Keeps the byte offset of every LINE_STRIDE'th line of the dataset file
+ * together with the line number and the checksum of the file. It is written next to the dataset as a
+ * sidecar file and reused on later boots as long as the dataset still matches it. A boot only compares
+ * the size, the modification time and the checksum of a few sampled blocks of the dataset, so it reads
+ * a few kilobytes of it however large it is. The checksum of the whole file is only computed when the
+ * modification time differs, e.g. after a copy, or when the index is built.
+ */
+public class LineOffsetIndex {
+
+	/** The Constant INDEX_FILE_SUFFIX. */
+	public static final String INDEX_FILE_SUFFIX = ".idx";
+
+	/** The Constant MAGIC. */
+	private static final int MAGIC = 0x50494E58;
+
+	/** The Constant VERSION. */
+	private static final int VERSION = 2;
+
+	/** The Constant LINE_STRIDE. */
+	private static final int LINE_STRIDE = 4096;
+
+	/** The Constant MINIMUM_CHUNK_SIZE. */
+	private static final int MINIMUM_CHUNK_SIZE = 1 << 20;
+
+	/** The Constant SAMPLE_NUMBER, the number of blocks the sample checksum is computed over. */
+	private static final int SAMPLE_NUMBER = 8;
+
+	/** The Constant SAMPLE_SIZE. */
+	private static final int SAMPLE_SIZE = 4096;
+
+	/** The file size. */
+	private long fileSize;
+
+	/** The modification time of the file. */
+	private long modifiedTime;
+
+	/** The checksum of the sampled blocks of the file. */
+	private long sampleChecksum;
+
+	/** The checksum. */
+	private long checksum;
+
+	/** The line number. */
+	private int lineNumber;
+
+	/** The offsets of the lines 0, LINE_STRIDE, 2*LINE_STRIDE, ... */
+	private long[] offsets;
+
+	/**
+	 * Instantiates a new line offset index.
+	 *
+	 * @param fileSize the file size
+	 * @param modifiedTime the modified time
+	 * @param sampleChecksum the sample checksum
+	 * @param checksum the checksum
+	 * @param lineNumber the line number
+	 * @param offsets the offsets
+	 */
+	private LineOffsetIndex(long fileSize, long modifiedTime, long sampleChecksum, long checksum, int lineNumber, long[] offsets) {
+		this.fileSize = fileSize;
+		this.modifiedTime = modifiedTime;
+		this.sampleChecksum = sampleChecksum;
+		this.checksum = checksum;
+		this.lineNumber = lineNumber;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Reads the sidecar index of the dataset file if it is still valid, otherwise builds and writes it.
+	 *
+	 * @param dataFileName the data file name
+	 * @param forkJoinPool the fork join pool
+	 * @return the line offset index
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static LineOffsetIndex loadOrBuild(String dataFileName, ForkJoinPool forkJoinPool) throws IOException {
+		File indexFile = new File(dataFileName + INDEX_FILE_SUFFIX);
+		long modifiedTime = new File(dataFileName).lastModified();
+		RandomAccessFile file = new RandomAccessFile(dataFileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long sampleChecksum = computeSampleChecksum(channel);
+			LineOffsetIndex lineOffsetIndex = indexFile.exists() ? read(indexFile) : null;
+			Long checksum = null;
+			if (lineOffsetIndex != null && lineOffsetIndex.fileSize == channel.size() && lineOffsetIndex.sampleChecksum == sampleChecksum) {
+				if (lineOffsetIndex.modifiedTime == modifiedTime) {
+					System.out.println("Using the line offset index "+indexFile.getName());
+					return lineOffsetIndex;
+				}
+				// The dataset has been touched or copied, only its whole checksum tells whether it has changed
+				checksum = computeChecksum(channel);
+				if (lineOffsetIndex.checksum == checksum) {
+					System.out.println("Using the line offset index "+indexFile.getName()+" of the unchanged dataset");
+					lineOffsetIndex.modifiedTime = modifiedTime;
+					writeIndex(lineOffsetIndex, indexFile);
+					return lineOffsetIndex;
+				}
+			}
+			if (checksum == null) {
+				checksum = computeChecksum(channel);
+			}
+			lineOffsetIndex = build(channel, modifiedTime, sampleChecksum, checksum, forkJoinPool);
+			writeIndex(lineOffsetIndex, indexFile);
+			return lineOffsetIndex;
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes the index, which is only reported if it fails, since the index is rebuilt on the next boot then.
+	 *
+	 * @param lineOffsetIndex the line offset index
+	 * @param indexFile the index file
+	 */
+	private static void writeIndex(LineOffsetIndex lineOffsetIndex, File indexFile) {
+		try {
+			lineOffsetIndex.write(indexFile);
+			System.out.println("Wrote the line offset index "+indexFile.getName());
+		} catch (IOException e) {
+			System.out.println("The line offset index couldn't be written: "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Builds the index. The newlines of every chunk are counted in parallel first, and then every chunk
+	 * records the offsets of the indexed lines which start inside it.
+	 *
+	 * @param channel the channel
+	 * @param modifiedTime the modified time
+	 * @param sampleChecksum the sample checksum
+	 * @param checksum the checksum
+	 * @param forkJoinPool the fork join pool
+	 * @return the line offset index
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static LineOffsetIndex build(final FileChannel channel, long modifiedTime, long sampleChecksum, long checksum, ForkJoinPool forkJoinPool) throws IOException {
+		long fileSize = channel.size();
+		final long chunkSize = Math.max(MINIMUM_CHUNK_SIZE, fileSize / (forkJoinPool.getParallelism() * 4) + 1);
+		int chunkNumber = (int) ((fileSize + chunkSize - 1) / chunkSize);
+		ArrayList<ForkJoinTask<Long>> counters = new ArrayList<ForkJoinTask<Long>>();
+		for (int i=0; i<chunkNumber; i++) {
+			final long start = i * chunkSize;
+			final long end = Math.min(fileSize, start + chunkSize);
+			counters.add(forkJoinPool.submit(new RecursiveTask<Long>() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected Long compute() {
+					return scanNewlines(channel, start, end, 0, null);
+				}
+			}));
+		}
+		long[] newlinesBeforeChunk = new long[chunkNumber + 1];
+		for (int i=0; i<chunkNumber; i++) {
+			newlinesBeforeChunk[i+1] = newlinesBeforeChunk[i] + counters.get(i).join();
+		}
+		final long[] offsets = new long[(int) (newlinesBeforeChunk[chunkNumber] / LINE_STRIDE) + 1];
+		ArrayList<ForkJoinTask<Long>> recorders = new ArrayList<ForkJoinTask<Long>>();
+		for (int i=0; i<chunkNumber; i++) {
+			final long start = i * chunkSize;
+			final long end = Math.min(fileSize, start + chunkSize);
+			final long newlinesBefore = newlinesBeforeChunk[i];
+			recorders.add(forkJoinPool.submit(new RecursiveTask<Long>() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected Long compute() {
+					return scanNewlines(channel, start, end, newlinesBefore, offsets);
+				}
+			}));
+		}
+		for (ForkJoinTask<Long> recorder : recorders) {
+			recorder.join();
+		}
+		long lineNumber = newlinesBeforeChunk[chunkNumber];
+		// A last line without a trailing newline is still a line
+		if (fileSize > 0) {
+			ByteBuffer lastByte = ByteBuffer.allocate(1);
+			channel.read(lastByte, fileSize - 1);
+			if (lastByte.get(0) != '\n') {
+				lineNumber++;
+			}
+		}
+		return new LineOffsetIndex(fileSize, modifiedTime, sampleChecksum, checksum, (int) lineNumber, offsets);
+	}
+
+	/**
+	 * Counts the newlines of a chunk, and records the start offsets of the indexed lines if offsets are given.
+	 *
+	 * @param channel the channel
+	 * @param start the start
+	 * @param end the end
+	 * @param newlinesBefore the newline number before the chunk
+	 * @param offsets the offsets
+	 * @return the newline number of the chunk
+	 */
+	private static long scanNewlines(FileChannel channel, long start, long end, long newlinesBefore, long[] offsets) {
+		long count = 0;
+		try {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			byte[] bytes = new byte[(int) (end - start)];
+			buffer.get(bytes);
+			for (int i=0; i<bytes.length; i++) {
+				if (bytes[i] == '\n') {
+					count++;
+					long startingLineNumber = newlinesBefore + count;
+					if (offsets != null && startingLineNumber % LINE_STRIDE == 0) {
+						offsets[(int) (startingLineNumber / LINE_STRIDE)] = start + i + 1;
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return count;
+	}
+
+	/**
+	 * Computes the CRC32 checksum of the whole file.
+	 *
+	 * @param channel the channel
+	 * @return the checksum
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static long computeChecksum(FileChannel channel) throws IOException {
+		CRC32 crc32 = new CRC32();
+		long fileSize = channel.size();
+		for (long start = 0; start < fileSize; start += Integer.MAX_VALUE) {
+			long length = Math.min(Integer.MAX_VALUE, fileSize - start);
+			crc32.update(channel.map(FileChannel.MapMode.READ_ONLY, start, length));
+		}
+		return crc32.getValue();
+	}
+
+	/**
+	 * Computes the CRC32 checksum of SAMPLE_NUMBER blocks spread evenly over the file, the first and the
+	 * last one included, so a change to the beginning or the end of the file, e.g. an appended or a
+	 * truncated line, changes it.
+	 *
+	 * @param channel the channel
+	 * @return the sample checksum
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static long computeSampleChecksum(FileChannel channel) throws IOException {
+		CRC32 crc32 = new CRC32();
+		long fileSize = channel.size();
+		ByteBuffer buffer = ByteBuffer.allocate(SAMPLE_SIZE);
+		long lastStart = Math.max(0, fileSize - SAMPLE_SIZE);
+		for (int i=0; i<SAMPLE_NUMBER; i++) {
+			long start = lastStart * i / (SAMPLE_NUMBER - 1);
+			buffer.clear();
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, start + buffer.position()) <= 0) {
+					break;
+				}
+			}
+			buffer.flip();
+			crc32.update(buffer);
+		}
+		return crc32.getValue();
+	}
+
+	/**
+	 * Read.
+	 *
+	 * @param indexFile the index file
+	 * @return the line offset index, or null if the file isn't a line offset index of this version
+	 */
+	private static LineOffsetIndex read(File indexFile) {
+		DataInputStream dataInputStream = null;
+		try {
+			dataInputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+			if (dataInputStream.readInt() != MAGIC || dataInputStream.readInt() != VERSION || dataInputStream.readInt() != LINE_STRIDE) {
+				return null;
+			}
+			long fileSize = dataInputStream.readLong();
+			long modifiedTime = dataInputStream.readLong();
+			long sampleChecksum = dataInputStream.readLong();
+			long checksum = dataInputStream.readLong();
+			int lineNumber = dataInputStream.readInt();
+			long[] offsets = new long[dataInputStream.readInt()];
+			for (int i=0; i<offsets.length; i++) {
+				offsets[i] = dataInputStream.readLong();
+			}
+			return new LineOffsetIndex(fileSize, modifiedTime, sampleChecksum, checksum, lineNumber, offsets);
+		} catch (IOException e) {
+			return null;
+		} finally {
+			if (dataInputStream != null) {
+				try {
+					dataInputStream.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the index to a temporary file first and then renames it, so a crash never leaves a torn index.
+	 *
+	 * @param indexFile the index file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void write(File indexFile) throws IOException {
+		File temporaryFile = new File(indexFile.getPath() + ".tmp");
+		DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+		try {
+			dataOutputStream.writeInt(MAGIC);
+			dataOutputStream.writeInt(VERSION);
+			dataOutputStream.writeInt(LINE_STRIDE);
+			dataOutputStream.writeLong(fileSize);
+			dataOutputStream.writeLong(modifiedTime);
+			dataOutputStream.writeLong(sampleChecksum);
+			dataOutputStream.writeLong(checksum);
+			dataOutputStream.writeInt(lineNumber);
+			dataOutputStream.writeInt(offsets.length);
+			for (int i=0; i<offsets.length; i++) {
+				dataOutputStream.writeLong(offsets[i]);
+			}
+		} finally {
+			dataOutputStream.close();
+		}
+		if (!temporaryFile.renameTo(indexFile)) {
+			indexFile.delete();
+			if (!temporaryFile.renameTo(indexFile)) {
+				throw new IOException("couldn't rename "+temporaryFile.getName());
+			}
+		}
+	}
+
+	/**
+	 * Gets the byte offset at which the given line starts. The closest indexed line is looked up and at
+	 * most LINE_STRIDE - 1 lines are skipped from there.
+	 *
+	 * @param channel the channel
+	 * @param line the line
+	 * @return the line offset
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public long getLineOffset(FileChannel channel, long line) throws IOException {
+		if (line <= 0) {
+			return 0;
+		}
+		if (line >= lineNumber) {
+			return fileSize;
+		}
+		long offset = offsets[(int) (line / LINE_STRIDE)];
+		int remainingNewlines = (int) (line % LINE_STRIDE);
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		while (remainingNewlines > 0) {
+			buffer.clear();
+			int readBytes = channel.read(buffer, offset);
+			if (readBytes <= 0) {
+				return fileSize;
+			}
+			for (int i=0; i<readBytes; i++) {
+				if (buffer.get(i) == '\n') {
+					remainingNewlines--;
+					if (remainingNewlines == 0) {
+						return offset + i + 1;
+					}
+				}
+			}
+			offset += readBytes;
+		}
+		return offset;
+	}
+
+	/**
+	 * Gets the line number.
+	 *
+	 * @return the line number
+	 */
+	public int getLineNumber() {
+		return lineNumber;
+	}
+
+	/**
+	 * Gets the checksum.
+	 *
+	 * @return the checksum
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+}
@@ -0,0 +1,105 @@
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class LoadMap. The local storage sizes of the machines as last heard of, spread by gossip: every
+ * heartbeat carries the load map of its sender, and the receiver keeps the newer entry of every machine.
+ * An entry is versioned by the heartbeat number of its machine, so an entry taking a longer way around
+ * the ring never overwrites a newer one. The age of an entry is the time since it has last advanced
+ * here, and only entries younger than the maximum staleness are used.
+ */
+public class LoadMap {
+
+	/** The entries by the ip addresses of the machines. */
+	private HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+	/**
+	 * Updates the entry of a machine unless a newer one is already known.
+	 *
+	 * @param IPAddress the iP address
+	 * @param size the local storage size of the machine
+	 * @param version the version
+	 */
+	public synchronized void update(String IPAddress, int size, long version) {
+		Entry entry = entries.get(IPAddress);
+		if (entry == null) {
+			entry = new Entry();
+			entries.put(IPAddress, entry);
+		} else if (entry.version >= version) {
+			return;
+		}
+		entry.size = size;
+		entry.version = version;
+		entry.updateTime = System.currentTimeMillis();
+	}
+
+	/**
+	 * Writes the entries into a query.
+	 *
+	 * @param query the query
+	 */
+	public synchronized void addTo(Query query) {
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			query.updateStorageSize(entry.getKey(), entry.getValue().size);
+			query.getLoadVersions().put(entry.getKey(), entry.getValue().version);
+		}
+	}
+
+	/**
+	 * Merges the entries of a query.
+	 *
+	 * @param query the query
+	 */
+	public void merge(Query query) {
+		HashMap<String, Integer> storageSizes = query.getStorageSizes();
+		for (Map.Entry<String, Long> loadVersion : query.getLoadVersions().entrySet()) {
+			Integer size = storageSizes.get(loadVersion.getKey());
+			if (size != null) {
+				update(loadVersion.getKey(), size, loadVersion.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Gets the least loaded machine.
+	 *
+	 * @param IPAddresses the iP addresses of the machines to choose from
+	 * @param maximumStaleness the maximum staleness in milliseconds
+	 * @return the iP address of the least loaded machine, or null if the entry of a machine is missing or stale
+	 */
+	public synchronized String getLeastLoadedIP(Collection<String> IPAddresses, long maximumStaleness) {
+		long currentTime = System.currentTimeMillis();
+		String leastLoadedIP = null;
+		int leastSize = Integer.MAX_VALUE;
+		for (String IPAddress : IPAddresses) {
+			Entry entry = entries.get(IPAddress);
+			if (entry == null || currentTime - entry.updateTime > maximumStaleness) {
+				return null;
+			}
+			if (entry.size < leastSize) {
+				leastSize = entry.size;
+				leastLoadedIP = IPAddress;
+			}
+		}
+		return leastLoadedIP;
+	}
+
+	/**
+	 * The Class Entry. The local storage size of a machine.
+	 */
+	private static class Entry {
+
+		/** The size. */
+		private int size;
+
+		/** The version. */
+		private long version;
+
+		/** The time the entry has last advanced here. */
+		private long updateTime;
+	}
+
+}
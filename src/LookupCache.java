@@ -0,0 +1,253 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class LookupCache. Caches the local values of the recently looked up keys, including the keys
+ * without any local value, and evicts the least recently used ones once the number of cached values
+ * exceeds the maximum weight. The keys are spread over SEGMENT_NUMBER segments by their hashes, each an
+ * LRU map with its own lock and its share of the maximum weight, so lookups of different keys rarely
+ * wait for each other. An insertion or a deletion invalidates the entry of its key and advances the
+ * generation of its segment, so a lookup which has read the storage before an invalidation can't put its
+ * stale values into the cache afterwards, while the lookups of the keys of the other segments go on
+ * filling the cache.
+ */
+public class LookupCache {
+
+	/** The Constant SEGMENT_NUMBER, a power of two. */
+	private static final int SEGMENT_NUMBER = 16;
+
+	/** The segments. */
+	private Segment[] segments = new Segment[SEGMENT_NUMBER];
+
+	/** The maximum weight. */
+	private long maximumWeight;
+
+	/**
+	 * Instantiates a new lookup cache.
+	 *
+	 * @param maximumWeight the maximum weight
+	 */
+	public LookupCache(long maximumWeight) {
+		this.maximumWeight = maximumWeight;
+		long segmentMaximumWeight = (maximumWeight + SEGMENT_NUMBER - 1) / SEGMENT_NUMBER;
+		for (int i=0; i<SEGMENT_NUMBER; i++) {
+			segments[i] = new Segment(segmentMaximumWeight);
+		}
+	}
+
+	/**
+	 * Gets the segment of a key.
+	 *
+	 * @param key the key
+	 * @return the segment
+	 */
+	private Segment getSegment(String key) {
+		int hash = key.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & (SEGMENT_NUMBER - 1)];
+	}
+
+	/**
+	 * Gets the cached values of a key. The returned list is shared by the cache and must not be modified.
+	 *
+	 * @param key the key
+	 * @return the values, which are empty if the key has no local value, or null if the key isn't cached
+	 */
+	public ArrayList<String> get(String key) {
+		return getSegment(key).get(key);
+	}
+
+	/**
+	 * Gets the generation of the segment of a key, which has to be read before the storage is.
+	 *
+	 * @param key the key
+	 * @return the generation
+	 */
+	public long getGeneration(String key) {
+		return getSegment(key).getGeneration();
+	}
+
+	/**
+	 * Puts the values of a key unless its segment has been invalidated since the given generation.
+	 *
+	 * @param key the key
+	 * @param values the values, which the cache takes over
+	 * @param readGeneration the generation read before the storage
+	 */
+	public void put(String key, ArrayList<String> values, long readGeneration) {
+		getSegment(key).put(key, values, readGeneration);
+	}
+
+	/**
+	 * Invalidates the entry of a key.
+	 *
+	 * @param key the key
+	 */
+	public void invalidate(String key) {
+		getSegment(key).invalidate(key);
+	}
+
+	/**
+	 * Invalidates all the entries.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Gets the weight of an entry.
+	 *
+	 * @param values the values
+	 * @return the weight
+	 */
+	private static long getWeight(ArrayList<String> values) {
+		return values.size() + 1;
+	}
+
+	/**
+	 * Gets the statistics as string.
+	 *
+	 * @return the statistics as string
+	 */
+	public String getStatisticsAsString() {
+		long keyNumber = 0;
+		long weight = 0;
+		long hitNumber = 0;
+		long missNumber = 0;
+		long evictionNumber = 0;
+		long invalidationNumber = 0;
+		for (Segment segment : segments) {
+			synchronized (segment) {
+				keyNumber += segment.entries.size();
+				weight += segment.weight;
+				hitNumber += segment.hitNumber;
+				missNumber += segment.missNumber;
+				evictionNumber += segment.evictionNumber;
+				invalidationNumber += segment.invalidationNumber;
+			}
+		}
+		long lookupNumber = hitNumber + missNumber;
+		long hitRate = lookupNumber == 0 ? 0 : hitNumber * 100 / lookupNumber;
+		return "Lookup Cache = "+keyNumber+" keys, "+weight+"/"+maximumWeight+" weight, "+hitNumber+" hits, "+
+				missNumber+" misses ("+hitRate+"% hit rate), "+evictionNumber+" evictions, "+invalidationNumber+" invalidations\n";
+	}
+
+	/**
+	 * The Class Segment. The entries of the keys of one segment, in access order.
+	 */
+	private static class Segment {
+
+		/** The entries, in access order. */
+		private LinkedHashMap<String, ArrayList<String>> entries = new LinkedHashMap<String, ArrayList<String>>(16, 0.75f, true);
+
+		/** The maximum weight. */
+		private long maximumWeight;
+
+		/** The weight, one per entry and one per cached value. */
+		private long weight;
+
+		/** The generation. */
+		private long generation;
+
+		/** The hit number. */
+		private long hitNumber;
+
+		/** The miss number. */
+		private long missNumber;
+
+		/** The eviction number. */
+		private long evictionNumber;
+
+		/** The invalidation number. */
+		private long invalidationNumber;
+
+		/**
+		 * Instantiates a new segment.
+		 *
+		 * @param maximumWeight the maximum weight
+		 */
+		private Segment(long maximumWeight) {
+			this.maximumWeight = maximumWeight;
+		}
+
+		/**
+		 * Gets the cached values of a key.
+		 *
+		 * @param key the key
+		 * @return the values, or null if the key isn't cached
+		 */
+		private synchronized ArrayList<String> get(String key) {
+			ArrayList<String> values = entries.get(key);
+			if (values == null) {
+				missNumber++;
+			} else {
+				hitNumber++;
+			}
+			return values;
+		}
+
+		/**
+		 * Gets the generation.
+		 *
+		 * @return the generation
+		 */
+		private synchronized long getGeneration() {
+			return generation;
+		}
+
+		/**
+		 * Puts the values of a key unless the segment has been invalidated since the given generation.
+		 *
+		 * @param key the key
+		 * @param values the values
+		 * @param readGeneration the generation read before the storage
+		 */
+		private synchronized void put(String key, ArrayList<String> values, long readGeneration) {
+			long entryWeight = getWeight(values);
+			if (readGeneration != generation || entryWeight > maximumWeight) {
+				return;
+			}
+			ArrayList<String> previousValues = entries.put(key, values);
+			if (previousValues != null) {
+				weight -= getWeight(previousValues);
+			}
+			weight += entryWeight;
+			Iterator<Map.Entry<String, ArrayList<String>>> iterator = entries.entrySet().iterator();
+			while (weight > maximumWeight && iterator.hasNext()) {
+				weight -= getWeight(iterator.next().getValue());
+				iterator.remove();
+				evictionNumber++;
+			}
+		}
+
+		/**
+		 * Invalidates the entry of a key.
+		 *
+		 * @param key the key
+		 */
+		private synchronized void invalidate(String key) {
+			generation++;
+			ArrayList<String> values = entries.remove(key);
+			if (values != null) {
+				weight -= getWeight(values);
+				invalidationNumber++;
+			}
+		}
+
+		/**
+		 * Invalidates all the entries.
+		 */
+		private synchronized void clear() {
+			generation++;
+			invalidationNumber += entries.size();
+			entries.clear();
+			weight = 0;
+		}
+	}
+
+}
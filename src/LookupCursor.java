@@ -0,0 +1,188 @@
+import java.io.Serializable;
+import java.util.HashSet;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class LookupCursor. The position of a paginated lookup, carried around the ring by its query and
+ * kept by the issuing client between the pages. The machines are visited in ring order from the issuing
+ * client, so a page starts with the machine it has stopped at and skips the machines completed before.
+ * A machine walks its local storages in its partition order and the document ids of every storage in
+ * ascending order, so the next title to return is identified by its machine, storage and document id.
+ */
+public class LookupCursor implements Serializable {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = -3177914712539817650L;
+
+	/** The key. */
+	private String key;
+
+	/** The page size. */
+	private int pageSize;
+
+	/** The number of values added to the current page. */
+	private int pageValueNumber;
+
+	/** The machine i ps whose values have all been returned. */
+	private HashSet<String> completedMachineIPs = new HashSet<String>();
+
+	/** The resume machine ip. */
+	private String resumeMachineIP;
+
+	/** The resume storage ip. */
+	private String resumeStorageIP;
+
+	/** The resume document id. */
+	private int resumeDocumentId;
+
+	/**
+	 * Instantiates a new lookup cursor.
+	 *
+	 * @param key the key
+	 * @param pageSize the page size
+	 */
+	public LookupCursor(String key, int pageSize) {
+		this.key = key;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Starts a new page.
+	 */
+	public void startPage() {
+		pageValueNumber = 0;
+	}
+
+	/**
+	 * Gets the key.
+	 *
+	 * @return the key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	/**
+	 * Gets the page size.
+	 *
+	 * @return the page size
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Gets the number of values added to the current page.
+	 *
+	 * @return the page value number
+	 */
+	public int getPageValueNumber() {
+		return pageValueNumber;
+	}
+
+	/**
+	 * Gets the number of values the current page can still take.
+	 *
+	 * @return the remaining page size
+	 */
+	public int getRemainingPageSize() {
+		return pageSize - pageValueNumber;
+	}
+
+	/**
+	 * Adds to the number of values added to the current page.
+	 *
+	 * @param valueNumber the value number
+	 */
+	public void addPageValueNumber(int valueNumber) {
+		pageValueNumber += valueNumber;
+	}
+
+	/**
+	 * Checks if the current page is full, in which case there may be a next page.
+	 *
+	 * @return true, if the page is full
+	 */
+	public boolean isPageFull() {
+		return pageValueNumber >= pageSize;
+	}
+
+	/**
+	 * Checks if the values of a machine have all been returned.
+	 *
+	 * @param IPAddress the iP address
+	 * @return true, if completed
+	 */
+	public boolean isCompleted(String IPAddress) {
+		return completedMachineIPs.contains(IPAddress);
+	}
+
+	/**
+	 * Gets the machine i ps whose values have all been returned.
+	 *
+	 * @return the completed machine i ps
+	 */
+	public HashSet<String> getCompletedMachineIPs() {
+		return completedMachineIPs;
+	}
+
+	/**
+	 * Marks the values of a machine as all returned.
+	 *
+	 * @param IPAddress the iP address
+	 */
+	public void complete(String IPAddress) {
+		completedMachineIPs.add(IPAddress);
+	}
+
+	/**
+	 * Sets the position the next page starts from.
+	 *
+	 * @param machineIP the machine ip
+	 * @param storageIP the storage ip
+	 * @param documentId the document id
+	 */
+	public void setResumePosition(String machineIP, String storageIP, int documentId) {
+		resumeMachineIP = machineIP;
+		resumeStorageIP = storageIP;
+		resumeDocumentId = documentId;
+	}
+
+	/**
+	 * Clears the resume position once the machine has resumed from it.
+	 */
+	public void clearResumePosition() {
+		resumeMachineIP = null;
+		resumeStorageIP = null;
+		resumeDocumentId = 0;
+	}
+
+	/**
+	 * Gets the resume machine ip.
+	 *
+	 * @return the resume machine ip, or null if the next page starts from the first machine not completed
+	 */
+	public String getResumeMachineIP() {
+		return resumeMachineIP;
+	}
+
+	/**
+	 * Gets the resume storage ip.
+	 *
+	 * @return the resume storage ip
+	 */
+	public String getResumeStorageIP() {
+		return resumeStorageIP;
+	}
+
+	/**
+	 * Gets the resume document id.
+	 *
+	 * @return the resume document id
+	 */
+	public int getResumeDocumentId() {
+		return resumeDocumentId;
+	}
+
+}
@@ -0,0 +1,189 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class NGramIndex. Maps every trigram of the keys to the ids of the keys containing it, so the keys
+ * containing a fragment are found by intersecting the key ids of the trigrams of the fragment and verifying
+ * the candidates, instead of scanning every key. The key ids are kept in posting lists, which are compacted
+ * once the index is built. Keys are added by one thread at a time and looked up by any number of threads
+ * without locking: a grown key array is filled before it is published, and a posting list is replaced by
+ * an extended copy instead of being modified. A deleted key stays in the index, so the found keys have to
+ * be checked against the key partitions.
+ */
+public class NGramIndex {
+
+	/** The Constant GRAM_LENGTH. */
+	public static final int GRAM_LENGTH = 3;
+
+	/** The keys, in the order of their key ids. */
+	private volatile String[] keys;
+
+	/** The key number. */
+	private volatile int keyNumber;
+
+	/** The key ids of the keys. */
+	private HashMap<String, Integer> keyIds = new HashMap<String, Integer>();
+
+	/** The posting lists of the key ids of every gram. */
+	private Map<Long, PostingList> gramPostingLists = new HashMap<Long, PostingList>();
+
+	/**
+	 * Instantiates a new n-gram index.
+	 *
+	 * @param keys the keys the storage is built with
+	 */
+	public NGramIndex(Collection<String> keys) {
+		this.keys = new String[Math.max(16, keys.size())];
+		for (String key : keys) {
+			int keyId = keyNumber++;
+			this.keys[keyId] = key;
+			keyIds.put(key, keyId);
+			for (long gram : getGrams(key)) {
+				PostingList postingList = gramPostingLists.get(gram);
+				if (postingList == null) {
+					postingList = new PostingList();
+					gramPostingLists.put(gram, postingList);
+				}
+				postingList.add(keyId);
+			}
+		}
+		for (PostingList postingList : gramPostingLists.values()) {
+			postingList.compact();
+		}
+		gramPostingLists = new ConcurrentHashMap<Long, PostingList>(gramPostingLists);
+	}
+
+	/**
+	 * Adds a key if it isn't indexed yet.
+	 *
+	 * @param key the key
+	 */
+	public synchronized void add(String key) {
+		if (keyIds.containsKey(key)) {
+			return;
+		}
+		String[] currentKeys = keys;
+		if (keyNumber == currentKeys.length) {
+			currentKeys = Arrays.copyOf(currentKeys, currentKeys.length * 2);
+		}
+		int keyId = keyNumber;
+		currentKeys[keyId] = key;
+		keys = currentKeys;
+		keyIds.put(key, keyId);
+		for (long gram : getGrams(key)) {
+			PostingList postingList = gramPostingLists.get(gram);
+			gramPostingLists.put(gram, postingList == null ? new PostingList(new int[] {keyId}) : postingList.copyWith(keyId));
+		}
+		keyNumber = keyId + 1;
+	}
+
+	/**
+	 * Gets the keys containing a fragment. A fragment shorter than a gram is searched in every key.
+	 *
+	 * @param fragment the fragment
+	 * @return the keys, including the deleted ones
+	 */
+	public ArrayList<String> getKeysContaining(String fragment) {
+		ArrayList<String> foundKeys = new ArrayList<String>();
+		int currentKeyNumber = keyNumber;
+		String[] currentKeys = keys;
+		if (fragment.length() < GRAM_LENGTH) {
+			for (int i=0; i<currentKeyNumber; i++) {
+				if (currentKeys[i].contains(fragment)) {
+					foundKeys.add(currentKeys[i]);
+				}
+			}
+			return foundKeys;
+		}
+		// Intersect the grams from the rarest one, which bounds the candidates
+		long[] grams = getGrams(fragment);
+		PostingList[] postingLists = new PostingList[grams.length];
+		for (int i=0; i<grams.length; i++) {
+			postingLists[i] = gramPostingLists.get(grams[i]);
+			if (postingLists[i] == null) {
+				return foundKeys;
+			}
+		}
+		Arrays.sort(postingLists, new java.util.Comparator<PostingList>() {
+			@Override
+			public int compare(PostingList postingList, PostingList otherPostingList) {
+				return Integer.compare(postingList.size(), otherPostingList.size());
+			}
+		});
+		int[] candidates = postingLists.length == 1 ? postingLists[0].toArray() : PostingList.intersect(postingLists[0], postingLists[1]);
+		for (int i=2; i<postingLists.length && candidates.length > 0; i++) {
+			candidates = PostingList.intersect(new PostingList(candidates), postingLists[i]);
+		}
+		for (int keyId : candidates) {
+			if (keyId < currentKeyNumber && currentKeys[keyId].contains(fragment)) {
+				foundKeys.add(currentKeys[keyId]);
+			}
+		}
+		return foundKeys;
+	}
+
+	/**
+	 * Gets the distinct grams of a string, each one packing its characters into a long.
+	 *
+	 * @param string the string
+	 * @return the grams
+	 */
+	private static long[] getGrams(String string) {
+		int gramNumber = Math.max(0, string.length() - GRAM_LENGTH + 1);
+		long[] grams = new long[gramNumber];
+		for (int i=0; i<gramNumber; i++) {
+			long gram = 0;
+			for (int j=0; j<GRAM_LENGTH; j++) {
+				gram = (gram << Character.SIZE) | string.charAt(i + j);
+			}
+			grams[i] = gram;
+		}
+		Arrays.sort(grams);
+		int distinctGramNumber = 0;
+		for (int i=0; i<gramNumber; i++) {
+			if (i == 0 || grams[i] != grams[i-1]) {
+				grams[distinctGramNumber++] = grams[i];
+			}
+		}
+		return Arrays.copyOf(grams, distinctGramNumber);
+	}
+
+	/**
+	 * Gets the gram number.
+	 *
+	 * @return the gram number
+	 */
+	public int getGramNumber() {
+		return gramPostingLists.size();
+	}
+
+	/**
+	 * Gets the key number.
+	 *
+	 * @return the key number
+	 */
+	public int getKeyNumber() {
+		return keyNumber;
+	}
+
+	/**
+	 * Estimates the memory size of the index in bytes, counting the posting lists, the entries of the
+	 * gram and key maps and the key array, but not the keys which are shared with the storage.
+	 *
+	 * @return the memory size
+	 */
+	public long getMemorySize() {
+		long memorySize = (long) keys.length * 4 + (long) keyIds.size() * 48;
+		for (PostingList postingList : gramPostingLists.values()) {
+			memorySize += postingList.getMemorySize() + 96;
+		}
+		return memorySize;
+	}
+
+}
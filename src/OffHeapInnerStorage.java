@@ -0,0 +1,882 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.StampedLock;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class OffHeapInnerStorage. The inner storage kept in direct buffers outside of the heap, so the
+ * garbage collector neither traces nor copies it. It holds four regions: the title arena with the offsets
+ * of the titles, the key arena with a fixed size entry per key, the variable byte gaps of the posting lists,
+ * and the open addressing hash tables of the titles and the keys. A removed key keeps its entry and its
+ * posting block, so the key takes them back when it is inserted again. A posting block which runs out of
+ * capacity moves to the end of the postings region, and the space it leaves behind is only reclaimed by
+ * the next boot from a snapshot. Writes are serialized by a stamped lock, and reads run optimistically
+ * without taking it: a read which overlaps a write is validated and done again under the read lock.
+ */
+public class OffHeapInnerStorage implements InnerStorage {
+
+	/** The Constant UTF_8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The Constant ENTRY_SIZE. */
+	private static final int ENTRY_SIZE = 28;
+
+	/** The Constant KEY_OFFSET, the offset of the key bytes in the key arena. */
+	private static final int KEY_OFFSET = 0;
+
+	/** The Constant KEY_LENGTH. */
+	private static final int KEY_LENGTH = 4;
+
+	/** The Constant POSTING_OFFSET, the offset of the posting block in the postings region. */
+	private static final int POSTING_OFFSET = 8;
+
+	/** The Constant POSTING_LENGTH, the used bytes of the posting block. */
+	private static final int POSTING_LENGTH = 12;
+
+	/** The Constant POSTING_CAPACITY. */
+	private static final int POSTING_CAPACITY = 16;
+
+	/** The Constant POSTING_SIZE, the number of document ids, or -1 for a removed key. */
+	private static final int POSTING_SIZE = 20;
+
+	/** The Constant LAST_DOCUMENT_ID. */
+	private static final int LAST_DOCUMENT_ID = 24;
+
+	/** The lock. */
+	private final StampedLock lock = new StampedLock();
+
+	/** The title arena. */
+	private volatile ByteBuffer titleArena;
+
+	/** The title arena size. */
+	private int titleArenaSize;
+
+	/** The title offsets, the title with document id i is stored between the ints i and i+1. */
+	private volatile ByteBuffer titleOffsets;
+
+	/** The title number. */
+	private volatile int titleNumber;
+
+	/** The title hash table of document ids plus one. */
+	private volatile ByteBuffer titleHashTable;
+
+	/** The key arena. */
+	private volatile ByteBuffer keyArena;
+
+	/** The key arena size. */
+	private int keyArenaSize;
+
+	/** The entries. */
+	private volatile ByteBuffer entries;
+
+	/** The entry number, including the removed keys. */
+	private int entryNumber;
+
+	/** The key number. */
+	private volatile int keyNumber;
+
+	/** The key hash table of entry indexes plus one. */
+	private volatile ByteBuffer keyHashTable;
+
+	/** The postings. */
+	private volatile ByteBuffer postings;
+
+	/** The postings size. */
+	private int postingsSize;
+
+	/**
+	 * Instantiates a new off heap inner storage by copying a heap inner storage built from the dataset
+	 * or read from a snapshot, which can be dropped afterwards.
+	 *
+	 * @param heapInnerStorage the heap inner storage
+	 */
+	public OffHeapInnerStorage(HeapInnerStorage heapInnerStorage) {
+		TitleDictionary titleDictionary = heapInnerStorage.getTitleDictionary();
+		titleNumber = titleDictionary.getTitleNumber();
+		titleArenaSize = titleDictionary.getArenaSize();
+		titleArena = ByteBuffer.allocateDirect(titleArenaSize + (titleArenaSize >> 3) + 16);
+		titleArena.put(titleDictionary.getArena(), 0, titleArenaSize);
+		titleOffsets = ByteBuffer.allocateDirect((titleNumber + (titleNumber >> 3) + 16) * 4);
+		int[] offsets = titleDictionary.getOffsets();
+		for (int i=0; i<=titleNumber; i++) {
+			titleOffsets.putInt(i * 4, offsets[i]);
+		}
+		buildTitleHashTable();
+		int keyCapacity = heapInnerStorage.size() + (heapInnerStorage.size() >> 3) + 16;
+		entries = ByteBuffer.allocateDirect(keyCapacity * ENTRY_SIZE);
+		keyArena = ByteBuffer.allocateDirect(keyCapacity * 8);
+		postings = ByteBuffer.allocateDirect(1 << 16);
+		keyHashTable = ByteBuffer.allocateDirect(getHashTableCapacity(keyCapacity) * 4);
+		for (String key : heapInnerStorage.keySet()) {
+			PostingList postingList = heapInnerStorage.getPostingList(key);
+			byte[] bytes;
+			int byteLength;
+			if (postingList.getFormat() == PostingList.VARIABLE_BYTE) {
+				bytes = postingList.getBytes();
+				byteLength = postingList.getByteLength();
+			} else {
+				bytes = encode(postingList.toArray());
+				byteLength = bytes.length;
+			}
+			int entry = addEntry(key.getBytes(UTF_8));
+			postings = ensureCapacity(postings, postingsSize, postingsSize + byteLength);
+			ByteBuffer target = postings.duplicate();
+			target.position(postingsSize);
+			target.put(bytes, 0, byteLength);
+			setEntryField(entry, POSTING_OFFSET, postingsSize);
+			setEntryField(entry, POSTING_LENGTH, byteLength);
+			setEntryField(entry, POSTING_CAPACITY, byteLength);
+			setEntryField(entry, POSTING_SIZE, postingList.size());
+			setEntryField(entry, LAST_DOCUMENT_ID, postingList.getLastDocumentId());
+			postingsSize += byteLength;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#add(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public boolean add(String key, String value) {
+		long stamp = lock.writeLock();
+		try {
+			return addImpl(key, value);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+	 * Adds a value to a key while holding the write lock.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return true, if the key didn't already have the value
+	 */
+	private boolean addImpl(String key, String value) {
+		int documentId = addTitle(value.getBytes(UTF_8));
+		byte[] keyBytes = key.getBytes(UTF_8);
+		int entry = findEntry(keyBytes);
+		if (entry < 0) {
+			entry = addEntry(keyBytes);
+		} else if (getEntryField(entry, POSTING_SIZE) < 0) {
+			setEntryField(entry, POSTING_SIZE, 0);
+			setEntryField(entry, LAST_DOCUMENT_ID, -1);
+			keyNumber++;
+		}
+		return addDocumentId(entry, documentId);
+	}
+
+	/**
+	 * Adds a document id to the posting block of an entry. A document id larger than the last one is
+	 * appended as its gap; any other is inserted by decoding and encoding the block again.
+	 *
+	 * @param entry the entry
+	 * @param documentId the document id
+	 * @return true, if the entry didn't already have the document id
+	 */
+	private boolean addDocumentId(int entry, int documentId) {
+		int lastDocumentId = getEntryField(entry, LAST_DOCUMENT_ID);
+		int length = getEntryField(entry, POSTING_LENGTH);
+		if (documentId > lastDocumentId) {
+			int gap = documentId - lastDocumentId;
+			int newLength = length + getVariableByteLength(gap);
+			if (newLength > getEntryField(entry, POSTING_CAPACITY)) {
+				relocate(entry, Math.max(newLength, length * 2));
+			}
+			writeVariableByte(postings, getEntryField(entry, POSTING_OFFSET) + length, gap);
+			setEntryField(entry, POSTING_LENGTH, newLength);
+			setEntryField(entry, POSTING_SIZE, getEntryField(entry, POSTING_SIZE) + 1);
+			setEntryField(entry, LAST_DOCUMENT_ID, documentId);
+			return true;
+		}
+		int size = getEntryField(entry, POSTING_SIZE);
+		int[] documentIds = new int[size + 1];
+		PostingIterator iterator = getPostingIterator(entry);
+		for (int i=0; i<size; i++) {
+			documentIds[i] = iterator.nextDocumentId();
+		}
+		int index = Arrays.binarySearch(documentIds, 0, size, documentId);
+		if (index >= 0) {
+			return false;
+		}
+		index = -index - 1;
+		System.arraycopy(documentIds, index, documentIds, index + 1, size - index);
+		documentIds[index] = documentId;
+		byte[] bytes = encode(documentIds);
+		if (bytes.length > getEntryField(entry, POSTING_CAPACITY)) {
+			relocate(entry, bytes.length);
+		}
+		ByteBuffer target = postings.duplicate();
+		target.position(getEntryField(entry, POSTING_OFFSET));
+		target.put(bytes);
+		setEntryField(entry, POSTING_LENGTH, bytes.length);
+		setEntryField(entry, POSTING_SIZE, size + 1);
+		return true;
+	}
+
+	/**
+	 * Moves the posting block of an entry to the end of the postings region with the given capacity, or
+	 * just extends it when it already is at the end.
+	 *
+	 * @param entry the entry
+	 * @param capacity the capacity
+	 */
+	private void relocate(int entry, int capacity) {
+		int offset = getEntryField(entry, POSTING_OFFSET);
+		int oldCapacity = getEntryField(entry, POSTING_CAPACITY);
+		if (offset + oldCapacity == postingsSize) {
+			postings = ensureCapacity(postings, postingsSize, offset + capacity);
+			postingsSize = offset + capacity;
+		} else {
+			postings = ensureCapacity(postings, postingsSize, postingsSize + capacity);
+			ByteBuffer source = postings.duplicate();
+			source.position(offset);
+			source.limit(offset + getEntryField(entry, POSTING_LENGTH));
+			ByteBuffer target = postings.duplicate();
+			target.position(postingsSize);
+			target.put(source);
+			setEntryField(entry, POSTING_OFFSET, postingsSize);
+			postingsSize += capacity;
+		}
+		setEntryField(entry, POSTING_CAPACITY, capacity);
+	}
+
+	/**
+	 * Adds a title unless it is already stored.
+	 *
+	 * @param bytes the UTF-8 bytes of the title
+	 * @return the document id
+	 */
+	private int addTitle(byte[] bytes) {
+		int mask = titleHashTable.capacity() / 4 - 1;
+		int slot = hash(bytes) & mask;
+		while (titleHashTable.getInt(slot * 4) != 0) {
+			int documentId = titleHashTable.getInt(slot * 4) - 1;
+			if (equals(titleArena, getTitleOffset(documentId), getTitleOffset(documentId+1) - getTitleOffset(documentId), bytes)) {
+				return documentId;
+			}
+			slot = (slot + 1) & mask;
+		}
+		titleArena = ensureCapacity(titleArena, titleArenaSize, titleArenaSize + bytes.length);
+		titleOffsets = ensureCapacity(titleOffsets, (titleNumber + 1) * 4, (titleNumber + 2) * 4);
+		ByteBuffer target = titleArena.duplicate();
+		target.position(titleArenaSize);
+		target.put(bytes);
+		titleArenaSize += bytes.length;
+		titleNumber++;
+		titleOffsets.putInt(titleNumber * 4, titleArenaSize);
+		if (titleNumber * 2 > titleHashTable.capacity() / 4) {
+			buildTitleHashTable();
+		} else {
+			titleHashTable.putInt(slot * 4, titleNumber);
+		}
+		return titleNumber - 1;
+	}
+
+	/**
+	 * Builds the title hash table from the stored titles. A title stored twice keeps the first document id it has been given.
+	 */
+	private void buildTitleHashTable() {
+		titleHashTable = ByteBuffer.allocateDirect(getHashTableCapacity(titleNumber) * 4);
+		int mask = titleHashTable.capacity() / 4 - 1;
+		for (int documentId=0; documentId<titleNumber; documentId++) {
+			byte[] bytes = getTitleBytesImpl(documentId);
+			int slot = hash(bytes) & mask;
+			while (titleHashTable.getInt(slot * 4) != 0 && !Arrays.equals(getTitleBytesImpl(titleHashTable.getInt(slot * 4) - 1), bytes)) {
+				slot = (slot + 1) & mask;
+			}
+			if (titleHashTable.getInt(slot * 4) == 0) {
+				titleHashTable.putInt(slot * 4, documentId + 1);
+			}
+		}
+	}
+
+	/**
+	 * Finds the entry of a key, which may be a removed one.
+	 *
+	 * @param keyBytes the key bytes
+	 * @return the entry, or -1 if the key has never been stored
+	 */
+	private int findEntry(byte[] keyBytes) {
+		int mask = keyHashTable.capacity() / 4 - 1;
+		int slot = hash(keyBytes) & mask;
+		while (keyHashTable.getInt(slot * 4) != 0) {
+			int entry = keyHashTable.getInt(slot * 4) - 1;
+			if (equals(keyArena, getEntryField(entry, KEY_OFFSET), getEntryField(entry, KEY_LENGTH), keyBytes)) {
+				return entry;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds the entry of a new key with an empty posting block at the end of the postings region.
+	 *
+	 * @param keyBytes the key bytes
+	 * @return the entry
+	 */
+	private int addEntry(byte[] keyBytes) {
+		keyArena = ensureCapacity(keyArena, keyArenaSize, keyArenaSize + keyBytes.length);
+		entries = ensureCapacity(entries, entryNumber * ENTRY_SIZE, (entryNumber + 1) * ENTRY_SIZE);
+		ByteBuffer target = keyArena.duplicate();
+		target.position(keyArenaSize);
+		target.put(keyBytes);
+		int entry = entryNumber;
+		entryNumber++;
+		keyNumber++;
+		setEntryField(entry, KEY_OFFSET, keyArenaSize);
+		setEntryField(entry, KEY_LENGTH, keyBytes.length);
+		setEntryField(entry, POSTING_OFFSET, postingsSize);
+		setEntryField(entry, POSTING_LENGTH, 0);
+		setEntryField(entry, POSTING_CAPACITY, 0);
+		setEntryField(entry, POSTING_SIZE, 0);
+		setEntryField(entry, LAST_DOCUMENT_ID, -1);
+		keyArenaSize += keyBytes.length;
+		if (entryNumber * 2 > keyHashTable.capacity() / 4) {
+			keyHashTable = ByteBuffer.allocateDirect(getHashTableCapacity(entryNumber) * 4);
+			for (int i=0; i<entryNumber; i++) {
+				addToKeyHashTable(i);
+			}
+		} else {
+			addToKeyHashTable(entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Adds an entry to the key hash table.
+	 *
+	 * @param entry the entry
+	 */
+	private void addToKeyHashTable(int entry) {
+		int mask = keyHashTable.capacity() / 4 - 1;
+		int slot = hash(getKeyBytes(entry)) & mask;
+		while (keyHashTable.getInt(slot * 4) != 0) {
+			slot = (slot + 1) & mask;
+		}
+		keyHashTable.putInt(slot * 4, entry + 1);
+	}
+
+	/**
+	 * Gets the entry of a stored key.
+	 *
+	 * @param key the key
+	 * @return the entry, or -1 if the key doesn't exist
+	 */
+	private int getEntry(String key) {
+		int entry = findEntry(key.getBytes(UTF_8));
+		if (entry < 0 || getEntryField(entry, POSTING_SIZE) < 0) {
+			return -1;
+		}
+		return entry;
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#containsKey(java.lang.String)
+	 */
+	@Override
+	public boolean containsKey(final String key) {
+		return read(new Reader<Boolean>() {
+			@Override
+			public Boolean read() {
+				return getEntry(key) >= 0;
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getPostingIterator(java.lang.String)
+	 */
+	@Override
+	public PostingIterator getPostingIterator(String key) {
+		PostingList postingList = getPostingList(key);
+		return postingList == null ? null : postingList.iterator();
+	}
+
+	/**
+	 * Gets an iterator over the posting block of an entry, which is only valid until the next write.
+	 *
+	 * @param entry the entry
+	 * @return the posting iterator
+	 */
+	private PostingIterator getPostingIterator(int entry) {
+		int offset = getEntryField(entry, POSTING_OFFSET);
+		return new VariableByteIterator(postings, offset, offset + getEntryField(entry, POSTING_LENGTH));
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getPostingList(java.lang.String)
+	 */
+	@Override
+	public PostingList getPostingList(final String key) {
+		return read(new Reader<PostingList>() {
+			@Override
+			public PostingList read() {
+				int entry = getEntry(key);
+				if (entry < 0) {
+					return null;
+				}
+				byte[] bytes = new byte[getEntryField(entry, POSTING_LENGTH)];
+				ByteBuffer source = postings.duplicate();
+				source.position(getEntryField(entry, POSTING_OFFSET));
+				source.get(bytes);
+				return new PostingList(bytes, getEntryField(entry, POSTING_SIZE), getEntryField(entry, LAST_DOCUMENT_ID));
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getValueNumber(java.lang.String)
+	 */
+	@Override
+	public int getValueNumber(final String key) {
+		return read(new Reader<Integer>() {
+			@Override
+			public Integer read() {
+				int entry = getEntry(key);
+				return entry < 0 ? 0 : getEntryField(entry, POSTING_SIZE);
+			}
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#addValuesTo(java.lang.String, java.util.ArrayList)
+	 */
+	@Override
+	public boolean addValuesTo(final String key, ArrayList<String> values) {
+		ArrayList<String> keyValues = read(new Reader<ArrayList<String>>() {
+			@Override
+			public ArrayList<String> read() {
+				int entry = getEntry(key);
+				if (entry < 0) {
+					return null;
+				}
+				ArrayList<String> keyValues = new ArrayList<String>(getEntryField(entry, POSTING_SIZE));
+				PostingIterator iterator = getPostingIterator(entry);
+				for (int documentId = iterator.nextDocumentId(); documentId != PostingIterator.NO_MORE_DOCUMENTS; documentId = iterator.nextDocumentId()) {
+					keyValues.add(new String(getTitleBytesImpl(documentId), UTF_8));
+				}
+				return keyValues;
+			}
+		});
+		if (keyValues == null) {
+			return false;
+		}
+		values.addAll(keyValues);
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#remove(java.lang.String)
+	 */
+	@Override
+	public boolean remove(String key) {
+		long stamp = lock.writeLock();
+		try {
+			int entry = getEntry(key);
+			if (entry < 0) {
+				return false;
+			}
+			setEntryField(entry, POSTING_SIZE, -1);
+			setEntryField(entry, POSTING_LENGTH, 0);
+			keyNumber--;
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#size()
+	 */
+	@Override
+	public int size() {
+		return keyNumber;
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#keySet()
+	 */
+	@Override
+	public Set<String> keySet() {
+		long stamp = lock.readLock();
+		try {
+			return keySetImpl();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/**
+	 * Collects the keys while holding the read lock.
+	 *
+	 * @return the keys
+	 */
+	private Set<String> keySetImpl() {
+		HashSet<String> keys = new HashSet<String>(keyNumber * 4 / 3 + 1);
+		for (int entry=0; entry<entryNumber; entry++) {
+			if (getEntryField(entry, POSTING_SIZE) >= 0) {
+				keys.add(new String(getKeyBytes(entry), UTF_8));
+			}
+		}
+		return keys;
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getTitleNumber()
+	 */
+	@Override
+	public int getTitleNumber() {
+		return titleNumber;
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getTitle(int)
+	 */
+	@Override
+	public String getTitle(int documentId) {
+		return new String(getTitleBytes(documentId), UTF_8);
+	}
+
+	/* (non-Javadoc)
+	 * @see InnerStorage#getTitleBytes(int)
+	 */
+	@Override
+	public byte[] getTitleBytes(final int documentId) {
+		return read(new Reader<byte[]>() {
+			@Override
+			public byte[] read() {
+				return getTitleBytesImpl(documentId);
+			}
+		});
+	}
+
+	/**
+	 * Gets the UTF-8 bytes of the title of a document id without validating them against the writes.
+	 *
+	 * @param documentId the document id
+	 * @return the title bytes
+	 */
+	private byte[] getTitleBytesImpl(int documentId) {
+		int start = getTitleOffset(documentId);
+		byte[] bytes = new byte[getTitleOffset(documentId+1) - start];
+		ByteBuffer source = titleArena.duplicate();
+		source.position(start);
+		source.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Gets the title offset.
+	 *
+	 * @param documentId the document id
+	 * @return the title offset
+	 */
+	private int getTitleOffset(int documentId) {
+		return titleOffsets.getInt(documentId * 4);
+	}
+
+	/**
+	 * Gets the key bytes of an entry.
+	 *
+	 * @param entry the entry
+	 * @return the key bytes
+	 */
+	private byte[] getKeyBytes(int entry) {
+		byte[] bytes = new byte[getEntryField(entry, KEY_LENGTH)];
+		ByteBuffer source = keyArena.duplicate();
+		source.position(getEntryField(entry, KEY_OFFSET));
+		source.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Gets a field of an entry.
+	 *
+	 * @param entry the entry
+	 * @param field the field
+	 * @return the value
+	 */
+	private int getEntryField(int entry, int field) {
+		return entries.getInt(entry * ENTRY_SIZE + field);
+	}
+
+	/**
+	 * Sets a field of an entry.
+	 *
+	 * @param entry the entry
+	 * @param field the field
+	 * @param value the value
+	 */
+	private void setEntryField(int entry, int field, int value) {
+		entries.putInt(entry * ENTRY_SIZE + field, value);
+	}
+
+	/**
+	 * Gets the number of bytes the direct buffers take.
+	 *
+	 * @return the memory size
+	 */
+	public long getMemorySize() {
+		return (long) titleArena.capacity() + titleOffsets.capacity() + titleHashTable.capacity() +
+				keyArena.capacity() + entries.capacity() + keyHashTable.capacity() + postings.capacity();
+	}
+
+	/**
+	 * Makes sure a direct buffer can hold the given number of bytes, moving its used bytes to a buffer
+	 * with one and a half times the capacity otherwise.
+	 *
+	 * @param buffer the buffer
+	 * @param usedSize the used size
+	 * @param requiredSize the required size
+	 * @return the buffer
+	 */
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int usedSize, int requiredSize) {
+		if (requiredSize <= buffer.capacity()) {
+			return buffer;
+		}
+		ByteBuffer newBuffer = ByteBuffer.allocateDirect(Math.max(requiredSize, buffer.capacity() + (buffer.capacity() >> 1)));
+		ByteBuffer source = buffer.duplicate();
+		source.position(0);
+		source.limit(usedSize);
+		newBuffer.put(source);
+		return newBuffer;
+	}
+
+	/**
+	 * Gets the hash table capacity for the given number of elements, which keeps the table at most half full.
+	 *
+	 * @param elementNumber the element number
+	 * @return the hash table capacity
+	 */
+	private static int getHashTableCapacity(int elementNumber) {
+		int capacity = 16;
+		while (capacity < elementNumber * 2) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Hash.
+	 *
+	 * @param bytes the bytes
+	 * @return the hash
+	 */
+	private static int hash(byte[] bytes) {
+		int hash = 1;
+		for (int i=0; i<bytes.length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Checks whether the bytes stored at the given offset of a buffer are equal to the given bytes.
+	 *
+	 * @param buffer the buffer
+	 * @param offset the offset
+	 * @param length the length
+	 * @param bytes the bytes
+	 * @return true, if equal
+	 */
+	private static boolean equals(ByteBuffer buffer, int offset, int length, byte[] bytes) {
+		if (length != bytes.length) {
+			return false;
+		}
+		for (int i=0; i<length; i++) {
+			if (buffer.get(offset+i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Encodes ascending document ids as variable byte gaps.
+	 *
+	 * @param documentIds the document ids
+	 * @return the bytes
+	 */
+	private static byte[] encode(int[] documentIds) {
+		int length = 0;
+		int previousDocumentId = -1;
+		for (int i=0; i<documentIds.length; i++) {
+			length += getVariableByteLength(documentIds[i] - previousDocumentId);
+			previousDocumentId = documentIds[i];
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		int offset = 0;
+		previousDocumentId = -1;
+		for (int i=0; i<documentIds.length; i++) {
+			offset = writeVariableByte(buffer, offset, documentIds[i] - previousDocumentId);
+			previousDocumentId = documentIds[i];
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Gets the length of a value as a variable byte integer.
+	 *
+	 * @param value the value
+	 * @return the variable byte length
+	 */
+	private static int getVariableByteLength(int value) {
+		int length = 1;
+		while ((value >>>= 7) != 0) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Writes a value as a variable byte integer in the format of PostingList.
+	 *
+	 * @param buffer the buffer
+	 * @param offset the offset
+	 * @param value the value
+	 * @return the offset after the value
+	 */
+	private static int writeVariableByte(ByteBuffer buffer, int offset, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put(offset++, (byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put(offset++, (byte) value);
+		return offset;
+	}
+
+	/**
+	 * Runs a read optimistically and runs it again under the read lock if a write overlapped it. An
+	 * overlapping write may have moved the buffers under the read, so its exceptions are dropped as well.
+	 *
+	 * @param <T> the generic type
+	 * @param reader the reader
+	 * @return the result of the read
+	 */
+	private <T> T read(Reader<T> reader) {
+		long stamp = lock.tryOptimisticRead();
+		if (stamp != 0) {
+			try {
+				T result = reader.read();
+				if (lock.validate(stamp)) {
+					return result;
+				}
+			} catch (RuntimeException e) {
+				if (lock.validate(stamp)) {
+					throw e;
+				}
+			}
+		}
+		stamp = lock.readLock();
+		try {
+			return reader.read();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder stringBuilder = new StringBuilder("{");
+		boolean isFirst = true;
+		for (String key : keySet()) {
+			if (!isFirst) {
+				stringBuilder.append(", ");
+			}
+			isFirst = false;
+			ArrayList<String> values = new ArrayList<String>();
+			addValuesTo(key, values);
+			stringBuilder.append(key).append('=').append(values);
+		}
+		return stringBuilder.append('}').toString();
+	}
+
+	/**
+	 * The Interface Reader. A read of the storage run by read(Reader).
+	 *
+	 * @param <T> the generic type
+	 */
+	private interface Reader<T> {
+
+		/**
+		 * Reads.
+		 *
+		 * @return the result
+		 */
+		T read();
+	}
+
+	/**
+	 * The Class VariableByteIterator. Iterates over a posting block in a direct buffer.
+	 */
+	private static class VariableByteIterator implements PostingIterator {
+
+		/** The buffer. */
+		private ByteBuffer buffer;
+
+		/** The offset. */
+		private int offset;
+
+		/** The end offset. */
+		private int endOffset;
+
+		/** The document id. */
+		private int documentId = -1;
+
+		/**
+		 * Instantiates a new variable byte iterator.
+		 *
+		 * @param buffer the buffer
+		 * @param offset the offset
+		 * @param endOffset the end offset
+		 */
+		public VariableByteIterator(ByteBuffer buffer, int offset, int endOffset) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.endOffset = endOffset;
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#nextDocumentId()
+		 */
+		@Override
+		public int nextDocumentId() {
+			if (offset >= endOffset) {
+				documentId = NO_MORE_DOCUMENTS;
+				return documentId;
+			}
+			int gap = 0;
+			int shift = 0;
+			byte currentByte;
+			do {
+				currentByte = buffer.get(offset++);
+				gap |= (currentByte & 0x7F) << shift;
+				shift += 7;
+			} while (currentByte < 0);
+			documentId += gap;
+			return documentId;
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#advance(int)
+		 */
+		@Override
+		public int advance(int target) {
+			while (documentId < target) {
+				nextDocumentId();
+			}
+			return documentId;
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+import java.util.HashSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class PendingRequests. The requests of this machine waiting for their responses, by their request
+ * ids, so many requests can be in flight at once and every response is matched to its request. A request
+ * gathers the values and the machines with operation of its responses, and its future is completed with
+ * them once every awaited response has arrived, or completed exceptionally with a TimeoutException once
+ * its timeout passes. A response arriving after that, or to a request id never registered, isn't taken.
+ */
+public class PendingRequests {
+
+	/** The pending requests by their request ids. */
+	private ConcurrentHashMap<Long, PendingRequest> pendingRequests = new ConcurrentHashMap<Long, PendingRequest>();
+
+	/** The timeout scheduler. */
+	private ScheduledExecutorService timeoutScheduler;
+
+	/**
+	 * Instantiates new pending requests.
+	 *
+	 * @param timeoutScheduler the timeout scheduler
+	 */
+	public PendingRequests(ScheduledExecutorService timeoutScheduler) {
+		this.timeoutScheduler = timeoutScheduler;
+	}
+
+	/**
+	 * Registers a request awaiting a single response until it is told otherwise.
+	 *
+	 * @param requestId the request id
+	 * @param query the query gathering the responses
+	 * @param timeout the timeout in milliseconds
+	 * @return the future completed with the query gathering the responses
+	 */
+	public CompletableFuture<Query> register(final long requestId, Query query, final long timeout) {
+		final PendingRequest pendingRequest = new PendingRequest(query);
+		pendingRequests.put(requestId, pendingRequest);
+		pendingRequest.timeoutTask = timeoutScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (pendingRequests.remove(requestId, pendingRequest)) {
+					pendingRequest.future.completeExceptionally(new TimeoutException("The request "+requestId+" hasn't been answered in "+timeout+" ms."));
+				}
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+		return pendingRequest.future;
+	}
+
+	/**
+	 * Sets the number of responses a request awaits, completing it if it awaits none.
+	 *
+	 * @param requestId the request id
+	 * @param awaitedResponseNumber the awaited response number
+	 */
+	public void setAwaitedResponseNumber(long requestId, int awaitedResponseNumber) {
+		PendingRequest pendingRequest = pendingRequests.get(requestId);
+		if (pendingRequest == null) {
+			return;
+		}
+		synchronized (pendingRequest) {
+			pendingRequest.awaitedResponseNumber = awaitedResponseNumber;
+		}
+		if (awaitedResponseNumber <= 0) {
+			complete(requestId, pendingRequest);
+		}
+	}
+
+	/**
+	 * Adds a response to its request.
+	 *
+	 * @param response the response, carrying the request id of its request
+	 * @return true, if the response has been taken by a pending request
+	 */
+	public boolean addResponse(Query response) {
+		long requestId = response.getRequestId();
+		PendingRequest pendingRequest = requestId == 0 ? null : pendingRequests.get(requestId);
+		if (pendingRequest == null) {
+			return false;
+		}
+		boolean isCompleted;
+		synchronized (pendingRequest) {
+			Query query = pendingRequest.query;
+			query.getValues().putAll(response.getValues());
+			HashSet<String> machineIPsWithOperation = response.getMachineIPsWithOperation();
+			if (machineIPsWithOperation != null) {
+				for (String IPAddress : machineIPsWithOperation) {
+					query.addMachineIPWithOperation(IPAddress);
+				}
+			}
+			isCompleted = --pendingRequest.awaitedResponseNumber <= 0;
+		}
+		if (isCompleted) {
+			complete(requestId, pendingRequest);
+		}
+		return true;
+	}
+
+	/**
+	 * Completes a request with the query gathering its responses.
+	 *
+	 * @param requestId the request id
+	 * @param pendingRequest the pending request
+	 */
+	private void complete(long requestId, PendingRequest pendingRequest) {
+		if (pendingRequests.remove(requestId, pendingRequest)) {
+			pendingRequest.timeoutTask.cancel(false);
+			pendingRequest.future.complete(pendingRequest.query);
+		}
+	}
+
+	/**
+	 * Gets the number of pending requests.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return pendingRequests.size();
+	}
+
+	/**
+	 * The Class PendingRequest. A request waiting for its responses.
+	 */
+	private static class PendingRequest {
+
+		/** The query gathering the responses. */
+		private Query query;
+
+		/** The future. */
+		private CompletableFuture<Query> future = new CompletableFuture<Query>();
+
+		/** The awaited response number. */
+		private int awaitedResponseNumber = 1;
+
+		/** The timeout task. */
+		private ScheduledFuture<?> timeoutTask;
+
+		/**
+		 * Instantiates a new pending request.
+		 *
+		 * @param query the query
+		 */
+		private PendingRequest(Query query) {
+			this.query = query;
+		}
+	}
+
+}
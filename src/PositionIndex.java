@@ -0,0 +1,167 @@
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class PositionIndex. The positions of the keywords of the titles of an inner storage, kept as the
+ * hashes of the keywords of every title in their order, packed into a single array and identified by the
+ * document id of the title. A phrase can't occur in a title unless the hashes of its keywords occur there
+ * consecutively, so the candidates of a phrase lookup are filtered without resolving their titles. The
+ * keywords are split at spaces like the dataset is. Titles are indexed by one thread at a time and checked
+ * by any number of threads without locking: a grown array is filled before it is published.
+ */
+public class PositionIndex {
+
+	/** The Constant UTF_8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The keyword hashes. */
+	private volatile int[] keywordHashes = new int[1 << 10];
+
+	/** The keyword number. */
+	private int keywordNumber;
+
+	/** The offsets, the keywords of the title with document id i are stored between offsets[i] and offsets[i+1]. */
+	private volatile int[] offsets = new int[1 << 8];
+
+	/** The title number. */
+	private volatile int titleNumber;
+
+	/**
+	 * Indexes the titles of an inner storage added since the last update.
+	 *
+	 * @param innerStorage the inner storage
+	 */
+	public void update(InnerStorage innerStorage) {
+		if (titleNumber == innerStorage.getTitleNumber()) {
+			return;
+		}
+		synchronized (this) {
+			int storageTitleNumber = innerStorage.getTitleNumber();
+			for (int documentId = titleNumber; documentId < storageTitleNumber; documentId++) {
+				append(innerStorage.getTitleBytes(documentId));
+			}
+		}
+	}
+
+	/**
+	 * Appends the keyword hashes of the next title.
+	 *
+	 * @param title the UTF-8 bytes of the title
+	 */
+	private void append(byte[] title) {
+		int[] currentKeywordHashes = keywordHashes;
+		if (keywordNumber + title.length + 1 > currentKeywordHashes.length) {
+			currentKeywordHashes = Arrays.copyOf(currentKeywordHashes, Math.max(currentKeywordHashes.length * 2, keywordNumber + title.length + 1));
+		}
+		// The trailing spaces are dropped and an empty title has one empty keyword, like String.split(" ") does
+		int keywordsEnd = title.length;
+		while (keywordsEnd > 0 && title[keywordsEnd-1] == ' ') {
+			keywordsEnd--;
+		}
+		if (keywordsEnd > 0 || title.length == 0) {
+			int keywordStart = 0;
+			for (int i=0; i<=keywordsEnd; i++) {
+				if (i == keywordsEnd || title[i] == ' ') {
+					currentKeywordHashes[keywordNumber++] = hash(title, keywordStart, i);
+					keywordStart = i + 1;
+				}
+			}
+		}
+		int[] currentOffsets = offsets;
+		if (titleNumber + 2 > currentOffsets.length) {
+			currentOffsets = Arrays.copyOf(currentOffsets, currentOffsets.length * 2);
+		}
+		currentOffsets[titleNumber+1] = keywordNumber;
+		keywordHashes = currentKeywordHashes;
+		offsets = currentOffsets;
+		titleNumber++;
+	}
+
+	/**
+	 * Gets the hashes of the keywords of a phrase.
+	 *
+	 * @param keywords the keywords
+	 * @return the keyword hashes
+	 */
+	public static int[] getKeywordHashes(String[] keywords) {
+		int[] hashes = new int[keywords.length];
+		for (int i=0; i<keywords.length; i++) {
+			byte[] bytes = keywords[i].getBytes(UTF_8);
+			hashes[i] = hash(bytes, 0, bytes.length);
+		}
+		return hashes;
+	}
+
+	/**
+	 * Checks if a title may contain the keywords of a phrase consecutively. A title which hasn't been
+	 * indexed yet may contain any phrase.
+	 *
+	 * @param documentId the document id
+	 * @param phraseHashes the hashes of the keywords of the phrase
+	 * @return false, if the title doesn't contain the phrase
+	 */
+	public boolean mayContain(int documentId, int[] phraseHashes) {
+		if (documentId >= titleNumber) {
+			return true;
+		}
+		int[] currentOffsets = offsets;
+		int[] currentKeywordHashes = keywordHashes;
+		int end = currentOffsets[documentId+1] - phraseHashes.length;
+		for (int start = currentOffsets[documentId]; start <= end; start++) {
+			int i = 0;
+			while (i < phraseHashes.length && currentKeywordHashes[start+i] == phraseHashes[i]) {
+				i++;
+			}
+			if (i == phraseHashes.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Hashes the bytes of a keyword.
+	 *
+	 * @param bytes the bytes
+	 * @param start the start
+	 * @param end the end
+	 * @return the hash
+	 */
+	private static int hash(byte[] bytes, int start, int end) {
+		int hash = 0x811c9dc5;
+		for (int i=start; i<end; i++) {
+			hash = (hash ^ (bytes[i] & 0xff)) * 0x01000193;
+		}
+		return hash;
+	}
+
+	/**
+	 * Gets the title number.
+	 *
+	 * @return the title number
+	 */
+	public int getTitleNumber() {
+		return titleNumber;
+	}
+
+	/**
+	 * Gets the keyword number.
+	 *
+	 * @return the keyword number
+	 */
+	public synchronized int getKeywordNumber() {
+		return keywordNumber;
+	}
+
+	/**
+	 * Gets the number of bytes the index takes.
+	 *
+	 * @return the memory size
+	 */
+	public long getMemorySize() {
+		return (keywordHashes.length + offsets.length) * 4L;
+	}
+
+}
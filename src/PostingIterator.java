@@ -0,0 +1,26 @@
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Interface PostingIterator. Iterates over document ids in ascending order.
+ */
+public interface PostingIterator {
+
+	/** The Constant NO_MORE_DOCUMENTS. */
+	int NO_MORE_DOCUMENTS = Integer.MAX_VALUE;
+
+	/**
+	 * Moves to the next document id.
+	 *
+	 * @return the next document id, or NO_MORE_DOCUMENTS at the end
+	 */
+	int nextDocumentId();
+
+	/**
+	 * Moves to the first document id not smaller than the target.
+	 *
+	 * @param target the target, larger than the current document id
+	 * @return the document id, or NO_MORE_DOCUMENTS if there is none
+	 */
+	int advance(int target);
+
+}
@@ -0,0 +1,751 @@
+import java.util.Arrays;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class PostingList. Holds the document ids of the titles of a key in ascending order. While an
+ * inner storage is built the ids are kept in a plain array; once it is built every list is compacted
+ * into the smaller of two formats: the gaps between the ids as variable length integers for the sparse
+ * lists, or a bitmap of the range of the ids for the dense ones such as the lists of "The" or "(2005)".
+ */
+public class PostingList {
+
+	/** The Constant ARRAY. */
+	public static final byte ARRAY = 0;
+
+	/** The Constant VARIABLE_BYTE. */
+	public static final byte VARIABLE_BYTE = 1;
+
+	/** The Constant BITMAP. */
+	public static final byte BITMAP = 2;
+
+	/** The Constant MAXIMUM_SCANNED_SIZE, the longest variable byte list looked up by scanning it. */
+	private static final int MAXIMUM_SCANNED_SIZE = 32;
+
+	/** The format. */
+	private byte format = ARRAY;
+
+	/** The document ids of the array format. */
+	private int[] documentIds;
+
+	/** The gaps between the document ids of the variable byte format. */
+	private byte[] bytes;
+
+	/** The used length of the bytes. */
+	private int byteLength;
+
+	/** The words of the bitmap format. */
+	private long[] words;
+
+	/** The document id of the first bit of the bitmap, always a multiple of 64. */
+	private int bitmapBase;
+
+	/** The size. */
+	private int size;
+
+	/** The last document id. */
+	private int lastDocumentId = -1;
+
+	/** The hash set of the document ids plus one, built for the first lookup of a long variable byte list. */
+	private volatile int[] documentIdSet;
+
+	/**
+	 * Instantiates a new posting list.
+	 */
+	public PostingList() {
+		documentIds = new int[2];
+	}
+
+	/**
+	 * Instantiates a new posting list over existing document ids.
+	 *
+	 * @param documentIds the document ids in ascending order
+	 */
+	public PostingList(int[] documentIds) {
+		this.documentIds = documentIds;
+		this.size = documentIds.length;
+		if (size > 0) {
+			lastDocumentId = documentIds[size-1];
+		}
+	}
+
+	/**
+	 * Instantiates a new posting list in the variable byte format.
+	 *
+	 * @param bytes the bytes
+	 * @param size the size
+	 * @param lastDocumentId the last document id
+	 */
+	public PostingList(byte[] bytes, int size, int lastDocumentId) {
+		this.format = VARIABLE_BYTE;
+		this.bytes = bytes;
+		this.byteLength = bytes.length;
+		this.size = size;
+		this.lastDocumentId = lastDocumentId;
+	}
+
+	/**
+	 * Instantiates a new posting list in the bitmap format.
+	 *
+	 * @param words the words
+	 * @param bitmapBase the bitmap base
+	 * @param size the size
+	 * @param lastDocumentId the last document id
+	 */
+	public PostingList(long[] words, int bitmapBase, int size, int lastDocumentId) {
+		this.format = BITMAP;
+		this.words = words;
+		this.bitmapBase = bitmapBase;
+		this.size = size;
+		this.lastDocumentId = lastDocumentId;
+	}
+
+	/**
+	 * Copies the list, so the copy can be modified while the list is read by other threads.
+	 *
+	 * @return the posting list
+	 */
+	public PostingList copy() {
+		if (format == VARIABLE_BYTE) {
+			return new PostingList(Arrays.copyOf(bytes, byteLength), size, lastDocumentId);
+		}
+		if (format == BITMAP) {
+			return new PostingList(words.clone(), bitmapBase, size, lastDocumentId);
+		}
+		return new PostingList(Arrays.copyOf(documentIds, size));
+	}
+
+	/**
+	 * Gets a list with a document id added, leaving this list as it is for the threads reading it. The
+	 * list itself is returned when it already contains the document id. A document id larger than the last
+	 * one is appended to a list sharing the arrays and the hash set of this one: it only writes past the
+	 * ids this list reads, which is safe as long as only the newest list of a key is added to.
+	 *
+	 * @param documentId the document id
+	 * @return the posting list
+	 */
+	public PostingList copyWith(int documentId) {
+		if (contains(documentId)) {
+			return this;
+		}
+		PostingList postingList;
+		if (documentId > lastDocumentId) {
+			postingList = new PostingList();
+			postingList.format = format;
+			postingList.documentIds = documentIds;
+			postingList.bytes = bytes;
+			postingList.byteLength = byteLength;
+			postingList.words = words;
+			postingList.bitmapBase = bitmapBase;
+			postingList.size = size;
+			postingList.lastDocumentId = lastDocumentId;
+			postingList.documentIdSet = documentIdSet;
+		} else {
+			postingList = copy();
+		}
+		postingList.add(documentId);
+		return postingList;
+	}
+
+	/**
+	 * Adds a document id, keeping the ids in ascending order. The titles of the dataset and most of the
+	 * inserted titles get the largest document id yet, so adding them is an append in every format.
+	 *
+	 * @param documentId the document id
+	 * @return true, if the document id wasn't already in the list
+	 */
+	public boolean add(int documentId) {
+		if (documentId > lastDocumentId) {
+			append(documentId);
+			return true;
+		}
+		if (contains(documentId)) {
+			return false;
+		}
+		if (format == BITMAP && documentId >= bitmapBase) {
+			words[(documentId - bitmapBase) >>> 6] |= 1L << documentId;
+			size++;
+			return true;
+		}
+		// Adding in the middle is only done for a title inserted again under another key
+		int[] allDocumentIds = toArray();
+		int index = -Arrays.binarySearch(allDocumentIds, documentId) - 1;
+		int[] newDocumentIds = new int[size + 1];
+		System.arraycopy(allDocumentIds, 0, newDocumentIds, 0, index);
+		newDocumentIds[index] = documentId;
+		System.arraycopy(allDocumentIds, index, newDocumentIds, index + 1, size - index);
+		boolean isCompacted = format != ARRAY;
+		setArray(newDocumentIds);
+		if (isCompacted) {
+			compact();
+		}
+		return true;
+	}
+
+	/**
+	 * Appends a document id larger than the last one.
+	 *
+	 * @param documentId the document id
+	 */
+	private void append(int documentId) {
+		if (format == ARRAY) {
+			if (size == documentIds.length) {
+				documentIds = Arrays.copyOf(documentIds, size + (size >> 1) + 1);
+			}
+			documentIds[size] = documentId;
+		} else if (format == VARIABLE_BYTE) {
+			if (byteLength + 5 > bytes.length) {
+				bytes = Arrays.copyOf(bytes, byteLength + (byteLength >> 1) + 5);
+			}
+			byteLength = writeVariableByte(bytes, byteLength, documentId - lastDocumentId);
+			int[] currentDocumentIdSet = documentIdSet;
+			if (currentDocumentIdSet != null) {
+				if ((size + 1) * 2 > currentDocumentIdSet.length) {
+					documentIdSet = null;
+				} else {
+					addToSet(currentDocumentIdSet, documentId);
+				}
+			}
+		} else {
+			int wordIndex = (documentId - bitmapBase) >>> 6;
+			if (wordIndex >= words.length) {
+				// A bitmap growing larger than the array of its ids is not worth keeping
+				if ((wordIndex + 1) * 8L > (size + 1) * 4L) {
+					int[] allDocumentIds = Arrays.copyOf(toArray(), size + 1);
+					allDocumentIds[size] = documentId;
+					setArray(allDocumentIds);
+					compact();
+					return;
+				}
+				words = Arrays.copyOf(words, Math.max(wordIndex + 1, words.length + (words.length >> 2) + 1));
+			}
+			words[wordIndex] |= 1L << documentId;
+		}
+		size++;
+		lastDocumentId = documentId;
+	}
+
+	/**
+	 * Sets the array.
+	 *
+	 * @param newDocumentIds the new document ids
+	 */
+	private void setArray(int[] newDocumentIds) {
+		documentIdSet = null;
+		format = ARRAY;
+		documentIds = newDocumentIds;
+		size = newDocumentIds.length;
+		lastDocumentId = size > 0 ? newDocumentIds[size-1] : -1;
+		bytes = null;
+		byteLength = 0;
+		words = null;
+	}
+
+	/**
+	 * Appends the document ids of another list shifted by the given amount, which must make them larger
+	 * than the ids of this list. Both lists are in the array format while a storage is built.
+	 *
+	 * @param postingList the posting list
+	 * @param shift the shift
+	 */
+	public void appendAll(PostingList postingList, int shift) {
+		int[] otherDocumentIds = postingList.toArray();
+		if (format != ARRAY) {
+			setArray(toArray());
+		}
+		if (size + otherDocumentIds.length > documentIds.length) {
+			documentIds = Arrays.copyOf(documentIds, size + otherDocumentIds.length);
+		}
+		for (int i=0; i<otherDocumentIds.length; i++) {
+			documentIds[size+i] = otherDocumentIds[i] + shift;
+		}
+		size += otherDocumentIds.length;
+		if (size > 0) {
+			lastDocumentId = documentIds[size-1];
+		}
+	}
+
+	/**
+	 * Compacts the list into the variable byte or the bitmap format, whichever is smaller.
+	 */
+	public void compact() {
+		int[] allDocumentIds = toArray();
+		if (size == 0) {
+			setArray(new int[0]);
+			return;
+		}
+		int variableByteLength = 0;
+		int previousDocumentId = -1;
+		for (int i=0; i<size; i++) {
+			variableByteLength += getVariableByteLength(allDocumentIds[i] - previousDocumentId);
+			previousDocumentId = allDocumentIds[i];
+		}
+		int base = allDocumentIds[0] & ~63;
+		int wordNumber = ((lastDocumentId - base) >>> 6) + 1;
+		if (wordNumber * 8L < variableByteLength) {
+			long[] newWords = new long[wordNumber];
+			for (int i=0; i<size; i++) {
+				newWords[(allDocumentIds[i] - base) >>> 6] |= 1L << allDocumentIds[i];
+			}
+			documentIdSet = null;
+			format = BITMAP;
+			words = newWords;
+			bitmapBase = base;
+			documentIds = null;
+			bytes = null;
+			byteLength = 0;
+		} else {
+			byte[] newBytes = new byte[variableByteLength];
+			int length = 0;
+			previousDocumentId = -1;
+			for (int i=0; i<size; i++) {
+				length = writeVariableByte(newBytes, length, allDocumentIds[i] - previousDocumentId);
+				previousDocumentId = allDocumentIds[i];
+			}
+			documentIdSet = null;
+			format = VARIABLE_BYTE;
+			bytes = newBytes;
+			byteLength = length;
+			documentIds = null;
+			words = null;
+		}
+	}
+
+	/**
+	 * Checks whether the list contains a document id.
+	 *
+	 * @param documentId the document id
+	 * @return true, if successful
+	 */
+	public boolean contains(int documentId) {
+		if (documentId > lastDocumentId || documentId < 0) {
+			return false;
+		}
+		if (format == ARRAY) {
+			return Arrays.binarySearch(documentIds, 0, size, documentId) >= 0;
+		}
+		if (format == BITMAP) {
+			return documentId >= bitmapBase && (words[(documentId - bitmapBase) >>> 6] & (1L << documentId)) != 0;
+		}
+		if (size <= MAXIMUM_SCANNED_SIZE) {
+			return iterator().advance(documentId) == documentId;
+		}
+		int[] currentDocumentIdSet = documentIdSet;
+		if (currentDocumentIdSet == null) {
+			currentDocumentIdSet = new int[getSetCapacity(size)];
+			PostingIterator iterator = iterator();
+			for (int id = iterator.nextDocumentId(); id != PostingIterator.NO_MORE_DOCUMENTS; id = iterator.nextDocumentId()) {
+				addToSet(currentDocumentIdSet, id);
+			}
+			documentIdSet = currentDocumentIdSet;
+		}
+		int mask = currentDocumentIdSet.length - 1;
+		for (int slot = hash(documentId) & mask; currentDocumentIdSet[slot] != 0; slot = (slot + 1) & mask) {
+			if (currentDocumentIdSet[slot] == documentId + 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Gets the capacity of a hash set for the given number of document ids, which keeps it at most half full
+	 * and leaves room for the following appends.
+	 *
+	 * @param size the size
+	 * @return the set capacity
+	 */
+	private static int getSetCapacity(int size) {
+		int capacity = 16;
+		while (capacity < size * 3) {
+			capacity *= 2;
+		}
+		return capacity;
+	}
+
+	/**
+	 * Adds a document id to a hash set.
+	 *
+	 * @param set the set
+	 * @param documentId the document id
+	 */
+	private static void addToSet(int[] set, int documentId) {
+		int mask = set.length - 1;
+		int slot = hash(documentId) & mask;
+		while (set[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		set[slot] = documentId + 1;
+	}
+
+	/**
+	 * Hash.
+	 *
+	 * @param documentId the document id
+	 * @return the hash
+	 */
+	private static int hash(int documentId) {
+		int hash = documentId * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Gets an iterator over the document ids.
+	 *
+	 * @return the posting iterator
+	 */
+	public PostingIterator iterator() {
+		if (format == VARIABLE_BYTE) {
+			return new VariableByteIterator(bytes, byteLength);
+		}
+		if (format == BITMAP) {
+			return new BitmapIterator(words, bitmapBase, lastDocumentId);
+		}
+		return new ArrayIterator(documentIds, size);
+	}
+
+	/**
+	 * Copies the document ids into an array.
+	 *
+	 * @return the array
+	 */
+	public int[] toArray() {
+		if (format == ARRAY) {
+			return documentIds.length == size ? documentIds : Arrays.copyOf(documentIds, size);
+		}
+		int[] allDocumentIds = new int[size];
+		PostingIterator iterator = iterator();
+		for (int i=0; i<size; i++) {
+			allDocumentIds[i] = iterator.nextDocumentId();
+		}
+		return allDocumentIds;
+	}
+
+	/**
+	 * Intersects two posting lists. A bitmap is probed for every document id of the other list, and two
+	 * variable byte or array lists are merged by advancing the one behind.
+	 *
+	 * @param postingList the posting list
+	 * @param otherPostingList the other posting list
+	 * @return the document ids in both lists
+	 */
+	public static int[] intersect(PostingList postingList, PostingList otherPostingList) {
+		if (postingList.format == BITMAP && otherPostingList.format != BITMAP ||
+				postingList.format == otherPostingList.format && postingList.size > otherPostingList.size) {
+			PostingList swap = postingList;
+			postingList = otherPostingList;
+			otherPostingList = swap;
+		}
+		int[] documentIds = new int[Math.min(postingList.size, otherPostingList.size)];
+		int count = 0;
+		PostingIterator iterator = postingList.iterator();
+		if (otherPostingList.format == BITMAP) {
+			for (int documentId = iterator.nextDocumentId(); documentId != PostingIterator.NO_MORE_DOCUMENTS; documentId = iterator.nextDocumentId()) {
+				if (otherPostingList.contains(documentId)) {
+					documentIds[count++] = documentId;
+				}
+			}
+			return Arrays.copyOf(documentIds, count);
+		}
+		PostingIterator otherIterator = otherPostingList.iterator();
+		int documentId = iterator.nextDocumentId();
+		int otherDocumentId = otherIterator.nextDocumentId();
+		while (documentId != PostingIterator.NO_MORE_DOCUMENTS && otherDocumentId != PostingIterator.NO_MORE_DOCUMENTS) {
+			if (documentId == otherDocumentId) {
+				documentIds[count++] = documentId;
+				documentId = iterator.nextDocumentId();
+				otherDocumentId = otherIterator.nextDocumentId();
+			} else if (documentId < otherDocumentId) {
+				documentId = iterator.advance(otherDocumentId);
+			} else {
+				otherDocumentId = otherIterator.advance(documentId);
+			}
+		}
+		return Arrays.copyOf(documentIds, count);
+	}
+
+	/**
+	 * Gets the size.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the format.
+	 *
+	 * @return the format
+	 */
+	public byte getFormat() {
+		return format;
+	}
+
+	/**
+	 * Gets the bytes of the variable byte format.
+	 *
+	 * @return the bytes, of which only the first getByteLength() are used
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the byte length.
+	 *
+	 * @return the byte length
+	 */
+	public int getByteLength() {
+		return byteLength;
+	}
+
+	/**
+	 * Gets the words of the bitmap format.
+	 *
+	 * @return the words
+	 */
+	public long[] getWords() {
+		return words;
+	}
+
+	/**
+	 * Gets the bitmap base.
+	 *
+	 * @return the bitmap base
+	 */
+	public int getBitmapBase() {
+		return bitmapBase;
+	}
+
+	/**
+	 * Gets the last document id.
+	 *
+	 * @return the last document id
+	 */
+	public int getLastDocumentId() {
+		return lastDocumentId;
+	}
+
+	/**
+	 * Gets the number of bytes the document ids take.
+	 *
+	 * @return the memory size
+	 */
+	public long getMemorySize() {
+		if (format == VARIABLE_BYTE) {
+			return bytes.length;
+		}
+		if (format == BITMAP) {
+			return words.length * 8L;
+		}
+		return documentIds.length * 4L;
+	}
+
+	/**
+	 * Gets the length of a value as a variable byte integer.
+	 *
+	 * @param value the value
+	 * @return the variable byte length
+	 */
+	private static int getVariableByteLength(int value) {
+		int length = 1;
+		while ((value >>>= 7) != 0) {
+			length++;
+		}
+		return length;
+	}
+
+	/**
+	 * Writes a value as a variable byte integer, seven bits per byte with the high bit set on all but the last byte.
+	 *
+	 * @param target the target
+	 * @param offset the offset
+	 * @param value the value
+	 * @return the offset after the value
+	 */
+	private static int writeVariableByte(byte[] target, int offset, int value) {
+		while ((value & ~0x7F) != 0) {
+			target[offset++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		target[offset++] = (byte) value;
+		return offset;
+	}
+
+	/**
+	 * The Class ArrayIterator.
+	 */
+	private static class ArrayIterator implements PostingIterator {
+
+		/** The document ids. */
+		private int[] documentIds;
+
+		/** The size. */
+		private int size;
+
+		/** The index. */
+		private int index = -1;
+
+		/**
+		 * Instantiates a new array iterator.
+		 *
+		 * @param documentIds the document ids
+		 * @param size the size
+		 */
+		public ArrayIterator(int[] documentIds, int size) {
+			this.documentIds = documentIds;
+			this.size = size;
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#nextDocumentId()
+		 */
+		@Override
+		public int nextDocumentId() {
+			index++;
+			return index < size ? documentIds[index] : NO_MORE_DOCUMENTS;
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#advance(int)
+		 */
+		@Override
+		public int advance(int target) {
+			int found = Arrays.binarySearch(documentIds, index + 1, size, target);
+			index = found >= 0 ? found : -found - 1;
+			return index < size ? documentIds[index] : NO_MORE_DOCUMENTS;
+		}
+	}
+
+	/**
+	 * The Class VariableByteIterator.
+	 */
+	private static class VariableByteIterator implements PostingIterator {
+
+		/** The bytes. */
+		private byte[] bytes;
+
+		/** The byte length. */
+		private int byteLength;
+
+		/** The offset. */
+		private int offset;
+
+		/** The document id. */
+		private int documentId = -1;
+
+		/**
+		 * Instantiates a new variable byte iterator.
+		 *
+		 * @param bytes the bytes
+		 * @param byteLength the byte length
+		 */
+		public VariableByteIterator(byte[] bytes, int byteLength) {
+			this.bytes = bytes;
+			this.byteLength = byteLength;
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#nextDocumentId()
+		 */
+		@Override
+		public int nextDocumentId() {
+			if (offset >= byteLength) {
+				documentId = NO_MORE_DOCUMENTS;
+				return documentId;
+			}
+			int gap = 0;
+			int shift = 0;
+			byte currentByte;
+			do {
+				currentByte = bytes[offset++];
+				gap |= (currentByte & 0x7F) << shift;
+				shift += 7;
+			} while (currentByte < 0);
+			documentId += gap;
+			return documentId;
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#advance(int)
+		 */
+		@Override
+		public int advance(int target) {
+			while (documentId < target) {
+				nextDocumentId();
+			}
+			return documentId;
+		}
+	}
+
+	/**
+	 * The Class BitmapIterator.
+	 */
+	private static class BitmapIterator implements PostingIterator {
+
+		/** The words. */
+		private long[] words;
+
+		/** The bitmap base. */
+		private int bitmapBase;
+
+		/** The last document id. */
+		private int lastDocumentId;
+
+		/** The document id. */
+		private int documentId = -1;
+
+		/**
+		 * Instantiates a new bitmap iterator.
+		 *
+		 * @param words the words
+		 * @param bitmapBase the bitmap base
+		 * @param lastDocumentId the last document id
+		 */
+		public BitmapIterator(long[] words, int bitmapBase, int lastDocumentId) {
+			this.words = words;
+			this.bitmapBase = bitmapBase;
+			this.lastDocumentId = lastDocumentId;
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#nextDocumentId()
+		 */
+		@Override
+		public int nextDocumentId() {
+			return advance(documentId + 1);
+		}
+
+		/* (non-Javadoc)
+		 * @see PostingIterator#advance(int)
+		 */
+		@Override
+		public int advance(int target) {
+			if (documentId == NO_MORE_DOCUMENTS) {
+				return documentId;
+			}
+			int position = Math.max(target, bitmapBase) - bitmapBase;
+			int wordIndex = position >>> 6;
+			if (target > lastDocumentId || wordIndex >= words.length) {
+				documentId = NO_MORE_DOCUMENTS;
+				return documentId;
+			}
+			long word = words[wordIndex] & (-1L << position);
+			while (word == 0) {
+				wordIndex++;
+				if (wordIndex >= words.length) {
+					documentId = NO_MORE_DOCUMENTS;
+					return documentId;
+				}
+				word = words[wordIndex];
+			}
+			documentId = bitmapBase + (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+			if (documentId > lastDocumentId) {
+				documentId = NO_MORE_DOCUMENTS;
+			}
+			return documentId;
+		}
+	}
+
+}
@@ -47,6 +47,27 @@ public class Query implements Serializable {
 	/** The current system ip list. */
 	private ArrayList<String> currentSystemIPList;
 	
+	/** The lookup cursor of a paginated lookup. */
+	private LookupCursor lookupCursor;
+	
+	/** The boolean expression of a boolean lookup. */
+	private BooleanExpression booleanExpression;
+	
+	/** The value limit of a limited lookup. */
+	private int valueLimit;
+	
+	/** The value counts of a count lookup, the number of values found at every machine. */
+	private HashMap<String, Integer> valueCounts = new HashMap<String, Integer>();
+	
+	/** The request id, matching the responses of a request sent to many machines to the request. */
+	private long requestId;
+	
+	/** The load versions, the version of the storage size of every machine gossiped with a heartbeat. */
+	private HashMap<String, Long> loadVersions = new HashMap<String, Long>();
+	
+	/** The operations of a batch query. */
+	private ArrayList<BatchOperation> batchOperations;
+	
 	/**
 	 * Instantiates a new query.
 	 *
@@ -166,6 +187,15 @@ public class Query implements Serializable {
 		}
 	}
 	
+	/**
+	 * Gets the storage sizes. The map is modified while synchronized on it.
+	 *
+	 * @return the storage sizes
+	 */
+	public HashMap<String, Integer> getStorageSizes() {
+		return storageSizes;
+	}
+	
 	/**
 	 * Adds the machine ip with operation.
 	 *
@@ -178,6 +208,15 @@ public class Query implements Serializable {
 		machineIPsWithOperation.add(machineIPWithOperation);
 	}
 	
+	/**
+	 * Sets the machine i ps with operation.
+	 *
+	 * @param machineIPsWithOperation the new machine i ps with operation
+	 */
+	public void setMachineIPsWithOperation(HashSet<String> machineIPsWithOperation) {
+		this.machineIPsWithOperation = machineIPsWithOperation;
+	}
+	
 	/**
 	 * Gets the machine i ps with operation.
 	 *
@@ -304,5 +343,136 @@ public class Query implements Serializable {
 		return currentSystemIPList;
 	}
 	
+	/**
+	 * Gets the lookup cursor.
+	 *
+	 * @return the lookup cursor
+	 */
+	public LookupCursor getLookupCursor() {
+		return lookupCursor;
+	}
+	
+	/**
+	 * Sets the lookup cursor.
+	 *
+	 * @param lookupCursor the new lookup cursor
+	 */
+	public void setLookupCursor(LookupCursor lookupCursor) {
+		this.lookupCursor = lookupCursor;
+	}
+	
+	/**
+	 * Gets the boolean expression.
+	 *
+	 * @return the boolean expression
+	 */
+	public BooleanExpression getBooleanExpression() {
+		return booleanExpression;
+	}
+	
+	/**
+	 * Sets the boolean expression.
+	 *
+	 * @param booleanExpression the new boolean expression
+	 */
+	public void setBooleanExpression(BooleanExpression booleanExpression) {
+		this.booleanExpression = booleanExpression;
+	}
+	
+	/**
+	 * Gets the value limit.
+	 *
+	 * @return the value limit
+	 */
+	public int getValueLimit() {
+		return valueLimit;
+	}
+	
+	/**
+	 * Sets the value limit.
+	 *
+	 * @param valueLimit the new value limit
+	 */
+	public void setValueLimit(int valueLimit) {
+		this.valueLimit = valueLimit;
+	}
+	
+	/**
+	 * Gets the number of values added to the query.
+	 *
+	 * @return the value number
+	 */
+	public int getValueNumber() {
+		int valueNumber = 0;
+		for (ArrayList<String> values : valuesMap.values()) {
+			valueNumber += values.size();
+		}
+		return valueNumber;
+	}
+	
+	/**
+	 * Adds the number of values found at a machine.
+	 *
+	 * @param IPAddress the iP address
+	 * @param valueCount the value count
+	 */
+	public void addValueCount(String IPAddress, int valueCount) {
+		valueCounts.put(IPAddress, valueCount);
+	}
+	
+	/**
+	 * Gets the value counts.
+	 *
+	 * @return the value counts
+	 */
+	public HashMap<String, Integer> getValueCounts() {
+		return valueCounts;
+	}
+	
+	/**
+	 * Gets the request id.
+	 *
+	 * @return the request id
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+	
+	/**
+	 * Sets the request id.
+	 *
+	 * @param requestId the new request id
+	 */
+	public void setRequestId(long requestId) {
+		this.requestId = requestId;
+	}
+	
+	/**
+	 * Gets the load versions.
+	 *
+	 * @return the load versions
+	 */
+	public HashMap<String, Long> getLoadVersions() {
+		return loadVersions;
+	}
+	
+	/**
+	 * Gets the batch operations.
+	 *
+	 * @return the batch operations, or null if this isn't a batch query
+	 */
+	public ArrayList<BatchOperation> getBatchOperations() {
+		return batchOperations;
+	}
+	
+	/**
+	 * Sets the batch operations.
+	 *
+	 * @param batchOperations the new batch operations
+	 */
+	public void setBatchOperations(ArrayList<BatchOperation> batchOperations) {
+		this.batchOperations = batchOperations;
+	}
+	
 
 }
\ No newline at end of file
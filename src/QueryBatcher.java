@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class QueryBatcher. Queues the insertions, lookups and deletions of a client and sends them around
+ * the ring together as a batch query, so the operations share the hops and the encoding of one query. A
+ * batch is sent once it holds batchSize operations or its first operation has waited lingerTime
+ * milliseconds, whichever comes first. A batch carries at most one operation per key: the insertion of a
+ * new key is only done in the second lap, so a later operation on the key in the same batch would miss
+ * it. An operation on a key already queued sends the queued batch first, and starts the next one.
+ */
+public class QueryBatcher {
+
+	/** The query handler sending the batches. */
+	private QueryHandler queryHandler;
+
+	/** The batch size. */
+	private int batchSize;
+
+	/** The linger time. */
+	private long lingerTime;
+
+	/** The linger scheduler. */
+	private ScheduledExecutorService lingerScheduler;
+
+	/** The queued operations. */
+	private ArrayList<BatchOperation> operations = new ArrayList<BatchOperation>();
+
+	/** The keys of the queued operations. */
+	private HashSet<String> keys = new HashSet<String>();
+
+	/** The flush of the queued operations once their linger time has passed. */
+	private ScheduledFuture<?> lingerFlush;
+
+	/**
+	 * Instantiates a new query batcher.
+	 *
+	 * @param queryHandler the query handler
+	 * @param batchSize the batch size
+	 * @param lingerTime the linger time
+	 * @param lingerScheduler the linger scheduler
+	 */
+	public QueryBatcher(QueryHandler queryHandler, int batchSize, long lingerTime, ScheduledExecutorService lingerScheduler) {
+		this.queryHandler = queryHandler;
+		this.batchSize = Math.max(1, batchSize);
+		this.lingerTime = Math.max(0, lingerTime);
+		this.lingerScheduler = lingerScheduler;
+	}
+
+	/**
+	 * Queues an operation, sending the batch if it is full now, or first if it already has an operation on
+	 * the key.
+	 *
+	 * @param operation the operation
+	 */
+	public void add(BatchOperation operation) {
+		ArrayList<BatchOperation> sameKeyBatch = null;
+		ArrayList<BatchOperation> fullBatch = null;
+		synchronized (this) {
+			if (keys.contains(operation.getKey())) {
+				sameKeyBatch = takeOperations();
+			}
+			operations.add(operation);
+			keys.add(operation.getKey());
+			if (operations.size() >= batchSize) {
+				fullBatch = takeOperations();
+			} else if (operations.size() == 1) {
+				lingerFlush = lingerScheduler.schedule(new Runnable() {
+					@Override
+					public void run() {
+						flush();
+					}
+				}, lingerTime, TimeUnit.MILLISECONDS);
+			}
+		}
+		// The batches are sent outside the lock, so the other clients can keep queuing meanwhile
+		if (sameKeyBatch != null) {
+			queryHandler.startBatch(sameKeyBatch);
+		}
+		if (fullBatch != null) {
+			queryHandler.startBatch(fullBatch);
+		}
+	}
+
+	/**
+	 * Sends the queued operations right away.
+	 */
+	public void flush() {
+		ArrayList<BatchOperation> batch;
+		synchronized (this) {
+			if (operations.isEmpty()) {
+				return;
+			}
+			batch = takeOperations();
+		}
+		queryHandler.startBatch(batch);
+	}
+
+	/**
+	 * Takes the queued operations and cancels their linger flush.
+	 *
+	 * @return the operations
+	 */
+	private ArrayList<BatchOperation> takeOperations() {
+		if (lingerFlush != null) {
+			lingerFlush.cancel(false);
+			lingerFlush = null;
+		}
+		ArrayList<BatchOperation> batch = operations;
+		operations = new ArrayList<BatchOperation>();
+		keys.clear();
+		return batch;
+	}
+
+}
@@ -0,0 +1,799 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class QueryCodec. Encodes a query into the bytes sent at every hop and decodes it back, following a
+ * fixed schema instead of Java serialization, which writes the class descriptors of the query and of all
+ * of its collections into every frame. An encoded query starts with the codec version and its query type,
+ * followed by a bit mask of the fields which are set and the set fields in schema order. Numbers are
+ * written as variable-length integers, strings as their UTF-8 length followed by their bytes and the ip
+ * addresses of the machines as 4 bytes, so a query mostly costs the keys and values it carries. A frame of
+ * another codec version is rejected, the version has to be increased whenever the schema changes, e.g.
+ * when a field or a query type is added.
+ */
+public class QueryCodec {
+
+	/** The Constant VERSION. */
+	public static final int VERSION = 5;
+
+	/** The Constant UTF_8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The Constant STORAGE_SIZES. */
+	private static final int STORAGE_SIZES = 1;
+
+	/** The Constant QUERY_ORIGIN_MACHINE_IP. */
+	private static final int QUERY_ORIGIN_MACHINE_IP = 1 << 1;
+
+	/** The Constant MACHINE_IPS_WITH_OPERATION. */
+	private static final int MACHINE_IPS_WITH_OPERATION = 1 << 2;
+
+	/** The Constant KEY. */
+	private static final int KEY = 1 << 3;
+
+	/** The Constant VALUE. */
+	private static final int VALUE = 1 << 4;
+
+	/** The Constant VALUES_MAP. */
+	private static final int VALUES_MAP = 1 << 5;
+
+	/** The Constant ALIVE_NEIGHBOR_IP. */
+	private static final int ALIVE_NEIGHBOR_IP = 1 << 6;
+
+	/** The Constant FAILED_MACHINES. */
+	private static final int FAILED_MACHINES = 1 << 7;
+
+	/** The Constant REJOINED_MACHINE. */
+	private static final int REJOINED_MACHINE = 1 << 8;
+
+	/** The Constant CURRENT_SYSTEM_IP_LIST. */
+	private static final int CURRENT_SYSTEM_IP_LIST = 1 << 9;
+
+	/** The Constant LOOKUP_CURSOR. */
+	private static final int LOOKUP_CURSOR = 1 << 10;
+
+	/** The Constant BOOLEAN_EXPRESSION. */
+	private static final int BOOLEAN_EXPRESSION = 1 << 11;
+
+	/** The Constant VALUE_LIMIT. */
+	private static final int VALUE_LIMIT = 1 << 12;
+
+	/** The Constant VALUE_COUNTS. */
+	private static final int VALUE_COUNTS = 1 << 13;
+
+	/** The Constant REQUEST_ID. */
+	private static final int REQUEST_ID = 1 << 14;
+
+	/** The Constant LOAD_VERSIONS. */
+	private static final int LOAD_VERSIONS = 1 << 15;
+
+	/** The Constant BATCH_OPERATIONS. */
+	private static final int BATCH_OPERATIONS = 1 << 16;
+
+	/** The Constant OPERATION_VALUE, the presence bit of the value of a batch operation. */
+	private static final int OPERATION_VALUE = 1;
+
+	/** The Constant OPERATION_STORAGE_IP, the presence bit of the storage ip of a batch operation. */
+	private static final int OPERATION_STORAGE_IP = 1 << 1;
+
+	/** The Constant NULL_IP, the tag of a missing ip address. */
+	private static final int NULL_IP = 0;
+
+	/** The Constant IPV4, the tag of an ip address written as 4 bytes. */
+	private static final int IPV4 = 1;
+
+	/** The Constant NAME_IP, the tag of an ip address, e.g. a host name, written as a string. */
+	private static final int NAME_IP = 2;
+
+	/** The Constant QUERY_TYPES. */
+	private static final QueryType[] QUERY_TYPES = QueryType.values();
+
+	/** The Constant BOOLEAN_OPERATORS. */
+	private static final BooleanOperator[] BOOLEAN_OPERATORS = BooleanOperator.values();
+
+	/** The Constant BATCH_OPERATION_TYPES. */
+	private static final BatchOperationType[] BATCH_OPERATION_TYPES = BatchOperationType.values();
+
+	/**
+	 * Encodes a query.
+	 *
+	 * @param query the query
+	 * @return the bytes
+	 */
+	public static byte[] encode(Query query) {
+		Encoder encoder = new Encoder();
+		encoder.writeByte(VERSION);
+		encoder.writeByte(query.getQueryType().ordinal());
+		HashMap<String, Integer> storageSizes = query.getStorageSizes();
+		HashSet<String> machineIPsWithOperation = query.getMachineIPsWithOperation();
+		HashMap<String, ArrayList<String>> valuesMap = query.getValues();
+		HashSet<String> failedMachines = query.getFailedMachines();
+		ArrayList<String> currentSystemIPList = query.getCurrentSystemIPList();
+		LookupCursor lookupCursor = query.getLookupCursor();
+		BooleanExpression booleanExpression = query.getBooleanExpression();
+		HashMap<String, Integer> valueCounts = query.getValueCounts();
+		HashMap<String, Long> loadVersions = query.getLoadVersions();
+		ArrayList<BatchOperation> batchOperations = query.getBatchOperations();
+		int fields = 0;
+		fields |= storageSizes.isEmpty() ? 0 : STORAGE_SIZES;
+		fields |= query.getQueryOriginMachineIP() == null ? 0 : QUERY_ORIGIN_MACHINE_IP;
+		fields |= machineIPsWithOperation == null ? 0 : MACHINE_IPS_WITH_OPERATION;
+		fields |= query.getKey() == null ? 0 : KEY;
+		fields |= query.getValue() == null ? 0 : VALUE;
+		fields |= valuesMap.isEmpty() ? 0 : VALUES_MAP;
+		fields |= query.getAliveNeighborIP() == null ? 0 : ALIVE_NEIGHBOR_IP;
+		fields |= failedMachines.isEmpty() ? 0 : FAILED_MACHINES;
+		fields |= query.getRejoinedMachine() == null ? 0 : REJOINED_MACHINE;
+		fields |= currentSystemIPList == null ? 0 : CURRENT_SYSTEM_IP_LIST;
+		fields |= lookupCursor == null ? 0 : LOOKUP_CURSOR;
+		fields |= booleanExpression == null ? 0 : BOOLEAN_EXPRESSION;
+		fields |= query.getValueLimit() == 0 ? 0 : VALUE_LIMIT;
+		fields |= valueCounts.isEmpty() ? 0 : VALUE_COUNTS;
+		fields |= query.getRequestId() == 0 ? 0 : REQUEST_ID;
+		fields |= loadVersions.isEmpty() ? 0 : LOAD_VERSIONS;
+		fields |= batchOperations == null ? 0 : BATCH_OPERATIONS;
+		encoder.writeVarint(fields);
+		if ((fields & STORAGE_SIZES) != 0) {
+			synchronized (storageSizes) {
+				encoder.writeIPCounts(storageSizes);
+			}
+		}
+		if ((fields & QUERY_ORIGIN_MACHINE_IP) != 0) {
+			encoder.writeIP(query.getQueryOriginMachineIP());
+		}
+		if ((fields & MACHINE_IPS_WITH_OPERATION) != 0) {
+			encoder.writeIPs(machineIPsWithOperation);
+		}
+		if ((fields & KEY) != 0) {
+			encoder.writeString(query.getKey());
+		}
+		if ((fields & VALUE) != 0) {
+			encoder.writeString(query.getValue());
+		}
+		if ((fields & VALUES_MAP) != 0) {
+			encoder.writeValuesMap(valuesMap);
+		}
+		if ((fields & ALIVE_NEIGHBOR_IP) != 0) {
+			encoder.writeIP(query.getAliveNeighborIP());
+		}
+		if ((fields & FAILED_MACHINES) != 0) {
+			encoder.writeIPs(failedMachines);
+		}
+		if ((fields & REJOINED_MACHINE) != 0) {
+			encoder.writeIP(query.getRejoinedMachine());
+		}
+		if ((fields & CURRENT_SYSTEM_IP_LIST) != 0) {
+			encoder.writeIPs(currentSystemIPList);
+		}
+		if ((fields & LOOKUP_CURSOR) != 0) {
+			encoder.writeString(lookupCursor.getKey());
+			encoder.writeVarint(lookupCursor.getPageSize());
+			encoder.writeVarint(lookupCursor.getPageValueNumber());
+			encoder.writeIPs(lookupCursor.getCompletedMachineIPs());
+			encoder.writeIP(lookupCursor.getResumeMachineIP());
+			encoder.writeIP(lookupCursor.getResumeStorageIP());
+			encoder.writeVarint(lookupCursor.getResumeDocumentId());
+		}
+		if ((fields & BOOLEAN_EXPRESSION) != 0) {
+			encoder.writeBooleanExpression(booleanExpression);
+		}
+		if ((fields & VALUE_LIMIT) != 0) {
+			encoder.writeVarint(query.getValueLimit());
+		}
+		if ((fields & VALUE_COUNTS) != 0) {
+			encoder.writeIPCounts(valueCounts);
+		}
+		if ((fields & REQUEST_ID) != 0) {
+			encoder.writeVarlong(query.getRequestId());
+		}
+		if ((fields & LOAD_VERSIONS) != 0) {
+			encoder.writeIPVersions(loadVersions);
+		}
+		if ((fields & BATCH_OPERATIONS) != 0) {
+			encoder.writeVarint(batchOperations.size());
+			for (BatchOperation batchOperation : batchOperations) {
+				encoder.writeBatchOperation(batchOperation);
+			}
+		}
+		return encoder.toByteArray();
+	}
+
+	/**
+	 * Reads the query type of an encoded query without decoding the rest.
+	 *
+	 * @param bytes the bytes
+	 * @return the query type, or null if the bytes aren't a query of this codec version
+	 */
+	public static QueryType peekQueryType(byte[] bytes) {
+		if (bytes.length < 2 || (bytes[0] & 0xFF) != VERSION || (bytes[1] & 0xFF) >= QUERY_TYPES.length) {
+			return null;
+		}
+		return QUERY_TYPES[bytes[1] & 0xFF];
+	}
+
+	/**
+	 * Decodes a query.
+	 *
+	 * @param bytes the bytes
+	 * @return the query
+	 * @throws IOException Signals that the bytes aren't a query of this codec version.
+	 */
+	public static Query decode(byte[] bytes) throws IOException {
+		Decoder decoder = new Decoder(bytes);
+		int version = decoder.readByte();
+		if (version != VERSION) {
+			throw new IOException("Unsupported query codec version: "+version);
+		}
+		int queryTypeOrdinal = decoder.readByte();
+		if (queryTypeOrdinal >= QUERY_TYPES.length) {
+			throw new IOException("Unknown query type: "+queryTypeOrdinal);
+		}
+		int fields = decoder.readVarint();
+		// The key is read ahead of the query, which takes it in its constructor
+		HashMap<String, Integer> storageSizes = (fields & STORAGE_SIZES) != 0 ? decoder.readIPCounts() : null;
+		String queryOriginMachineIP = (fields & QUERY_ORIGIN_MACHINE_IP) != 0 ? decoder.readIP() : null;
+		ArrayList<String> machineIPsWithOperation = (fields & MACHINE_IPS_WITH_OPERATION) != 0 ? decoder.readIPs() : null;
+		String key = (fields & KEY) != 0 ? decoder.readString() : null;
+		Query query = new Query(QUERY_TYPES[queryTypeOrdinal], key);
+		if (storageSizes != null) {
+			for (Map.Entry<String, Integer> entry : storageSizes.entrySet()) {
+				query.updateStorageSize(entry.getKey(), entry.getValue());
+			}
+		}
+		query.setQueryOriginMachineIP(queryOriginMachineIP);
+		if (machineIPsWithOperation != null) {
+			query.setMachineIPsWithOperation(new HashSet<String>(machineIPsWithOperation));
+		}
+		if ((fields & VALUE) != 0) {
+			query.setValue(decoder.readString());
+		}
+		if ((fields & VALUES_MAP) != 0) {
+			query.getValues().putAll(decoder.readValuesMap());
+		}
+		if ((fields & ALIVE_NEIGHBOR_IP) != 0) {
+			query.setAliveNeighborIP(decoder.readIP());
+		}
+		if ((fields & FAILED_MACHINES) != 0) {
+			query.getFailedMachines().addAll(decoder.readIPs());
+		}
+		if ((fields & REJOINED_MACHINE) != 0) {
+			query.setRejoinedMachine(decoder.readIP());
+		}
+		if ((fields & CURRENT_SYSTEM_IP_LIST) != 0) {
+			query.setCurrentSystemIPList(decoder.readIPs());
+		}
+		if ((fields & LOOKUP_CURSOR) != 0) {
+			LookupCursor lookupCursor = new LookupCursor(decoder.readString(), decoder.readVarint());
+			lookupCursor.addPageValueNumber(decoder.readVarint());
+			for (String IPAddress : decoder.readIPs()) {
+				lookupCursor.complete(IPAddress);
+			}
+			String resumeMachineIP = decoder.readIP();
+			String resumeStorageIP = decoder.readIP();
+			int resumeDocumentId = decoder.readVarint();
+			if (resumeMachineIP != null) {
+				lookupCursor.setResumePosition(resumeMachineIP, resumeStorageIP, resumeDocumentId);
+			}
+			query.setLookupCursor(lookupCursor);
+		}
+		if ((fields & BOOLEAN_EXPRESSION) != 0) {
+			query.setBooleanExpression(decoder.readBooleanExpression());
+		}
+		if ((fields & VALUE_LIMIT) != 0) {
+			query.setValueLimit(decoder.readVarint());
+		}
+		if ((fields & VALUE_COUNTS) != 0) {
+			query.getValueCounts().putAll(decoder.readIPCounts());
+		}
+		if ((fields & REQUEST_ID) != 0) {
+			query.setRequestId(decoder.readVarlong());
+		}
+		if ((fields & LOAD_VERSIONS) != 0) {
+			query.getLoadVersions().putAll(decoder.readIPVersions());
+		}
+		if ((fields & BATCH_OPERATIONS) != 0) {
+			int operationNumber = decoder.readLength();
+			ArrayList<BatchOperation> batchOperations = new ArrayList<BatchOperation>(operationNumber);
+			for (int i=0; i<operationNumber; i++) {
+				batchOperations.add(decoder.readBatchOperation());
+			}
+			query.setBatchOperations(batchOperations);
+		}
+		if (decoder.remaining() != 0) {
+			throw new IOException("Trailing bytes after the query: "+decoder.remaining());
+		}
+		return query;
+	}
+
+	/**
+	 * Parses the 4 bytes of an IPv4 address in dotted decimal notation.
+	 *
+	 * @param IPAddress the iP address
+	 * @return the bytes, or null if the address isn't in dotted decimal notation
+	 */
+	private static byte[] parseIPv4(String IPAddress) {
+		byte[] bytes = new byte[4];
+		int byteNumber = 0;
+		int number = -1;
+		for (int i=0; i<=IPAddress.length(); i++) {
+			char character = i < IPAddress.length() ? IPAddress.charAt(i) : '.';
+			if (character == '.') {
+				if (number < 0 || byteNumber == 4) {
+					return null;
+				}
+				bytes[byteNumber++] = (byte) number;
+				number = -1;
+			} else if (character >= '0' && character <= '9') {
+				// A leading zero isn't written back, so such an address is kept as a string
+				if (number == 0) {
+					return null;
+				}
+				number = (number < 0 ? 0 : number * 10) + (character - '0');
+				if (number > 255) {
+					return null;
+				}
+			} else {
+				return null;
+			}
+		}
+		return byteNumber == 4 ? bytes : null;
+	}
+
+	/**
+	 * The Class Encoder. Writes the fields of a query into a growing byte array.
+	 */
+	private static class Encoder {
+
+		/** The bytes. */
+		private byte[] bytes = new byte[256];
+
+		/** The length. */
+		private int length;
+
+		/**
+		 * Ensures the byte array can take more bytes.
+		 *
+		 * @param byteNumber the number of bytes to add
+		 */
+		private void ensureCapacity(int byteNumber) {
+			if (length + byteNumber > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + byteNumber));
+			}
+		}
+
+		/**
+		 * Writes a byte.
+		 *
+		 * @param value the value
+		 */
+		public void writeByte(int value) {
+			ensureCapacity(1);
+			bytes[length++] = (byte) value;
+		}
+
+		/**
+		 * Writes an int as a variable-length integer, 7 bits per byte with the high bit set on all but the
+		 * last byte, so a small number takes a single byte.
+		 *
+		 * @param value the value
+		 */
+		public void writeVarint(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7F) != 0) {
+				bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		/**
+		 * Writes a long as a variable-length integer.
+		 *
+		 * @param value the value
+		 */
+		public void writeVarlong(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		/**
+		 * Writes a string as its UTF-8 length followed by its UTF-8 bytes.
+		 *
+		 * @param string the string
+		 */
+		public void writeString(String string) {
+			byte[] stringBytes = string.getBytes(UTF_8);
+			writeVarint(stringBytes.length);
+			ensureCapacity(stringBytes.length);
+			System.arraycopy(stringBytes, 0, bytes, length, stringBytes.length);
+			length += stringBytes.length;
+		}
+
+		/**
+		 * Writes an ip address, which may be null.
+		 *
+		 * @param IPAddress the iP address
+		 */
+		public void writeIP(String IPAddress) {
+			if (IPAddress == null) {
+				writeByte(NULL_IP);
+				return;
+			}
+			byte[] IPv4Bytes = parseIPv4(IPAddress);
+			if (IPv4Bytes == null) {
+				writeByte(NAME_IP);
+				writeString(IPAddress);
+				return;
+			}
+			ensureCapacity(5);
+			bytes[length++] = IPV4;
+			System.arraycopy(IPv4Bytes, 0, bytes, length, 4);
+			length += 4;
+		}
+
+		/**
+		 * Writes ip addresses.
+		 *
+		 * @param IPAddresses the iP addresses
+		 */
+		public void writeIPs(Collection<String> IPAddresses) {
+			writeVarint(IPAddresses.size());
+			for (String IPAddress : IPAddresses) {
+				writeIP(IPAddress);
+			}
+		}
+
+		/**
+		 * Writes a count of every ip address.
+		 *
+		 * @param IPCounts the counts by the ip addresses
+		 */
+		public void writeIPCounts(HashMap<String, Integer> IPCounts) {
+			writeVarint(IPCounts.size());
+			for (Map.Entry<String, Integer> entry : IPCounts.entrySet()) {
+				writeIP(entry.getKey());
+				writeVarint(entry.getValue());
+			}
+		}
+
+		/**
+		 * Writes a version of every ip address.
+		 *
+		 * @param IPVersions the versions by the ip addresses
+		 */
+		public void writeIPVersions(HashMap<String, Long> IPVersions) {
+			writeVarint(IPVersions.size());
+			for (Map.Entry<String, Long> entry : IPVersions.entrySet()) {
+				writeIP(entry.getKey());
+				writeVarlong(entry.getValue());
+			}
+		}
+
+		/**
+		 * Writes the values of every ip address.
+		 *
+		 * @param valuesMap the values by the ip addresses
+		 */
+		public void writeValuesMap(HashMap<String, ArrayList<String>> valuesMap) {
+			writeVarint(valuesMap.size());
+			for (Map.Entry<String, ArrayList<String>> entry : valuesMap.entrySet()) {
+				writeIP(entry.getKey());
+				writeVarint(entry.getValue().size());
+				for (String value : entry.getValue()) {
+					writeString(value);
+				}
+			}
+		}
+
+		/**
+		 * Writes a batch operation, its type, the presence bits of its optional fields and its fields.
+		 *
+		 * @param batchOperation the batch operation
+		 */
+		public void writeBatchOperation(BatchOperation batchOperation) {
+			writeByte(batchOperation.getOperationType().ordinal());
+			int operationFields = 0;
+			operationFields |= batchOperation.getValue() == null ? 0 : OPERATION_VALUE;
+			operationFields |= batchOperation.getStorageIP() == null ? 0 : OPERATION_STORAGE_IP;
+			writeByte(operationFields);
+			writeString(batchOperation.getKey());
+			if ((operationFields & OPERATION_VALUE) != 0) {
+				writeString(batchOperation.getValue());
+			}
+			if ((operationFields & OPERATION_STORAGE_IP) != 0) {
+				writeIP(batchOperation.getStorageIP());
+			}
+			writeValuesMap(batchOperation.getValues());
+			writeIPs(batchOperation.getMachineIPsWithOperation());
+		}
+
+		/**
+		 * Writes a boolean expression, its operator followed by its key or by its operands.
+		 *
+		 * @param booleanExpression the boolean expression
+		 */
+		public void writeBooleanExpression(BooleanExpression booleanExpression) {
+			writeByte(booleanExpression.getOperator().ordinal());
+			if (booleanExpression.getOperator() == BooleanOperator.KEY) {
+				writeString(booleanExpression.getKey());
+				return;
+			}
+			writeVarint(booleanExpression.getOperands().size());
+			for (BooleanExpression operand : booleanExpression.getOperands()) {
+				writeBooleanExpression(operand);
+			}
+		}
+
+		/**
+		 * Gets the written bytes.
+		 *
+		 * @return the bytes
+		 */
+		public byte[] toByteArray() {
+			return Arrays.copyOf(bytes, length);
+		}
+	}
+
+	/**
+	 * The Class Decoder. Reads the fields of a query from a byte array.
+	 */
+	private static class Decoder {
+
+		/** The bytes. */
+		private byte[] bytes;
+
+		/** The position. */
+		private int position;
+
+		/**
+		 * Instantiates a new decoder.
+		 *
+		 * @param bytes the bytes
+		 */
+		public Decoder(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		/**
+		 * Gets the number of bytes left to read.
+		 *
+		 * @return the remaining byte number
+		 */
+		public int remaining() {
+			return bytes.length - position;
+		}
+
+		/**
+		 * Reads a byte.
+		 *
+		 * @return the value
+		 * @throws IOException Signals that the bytes have ended.
+		 */
+		public int readByte() throws IOException {
+			if (position == bytes.length) {
+				throw new IOException("Truncated query");
+			}
+			return bytes[position++] & 0xFF;
+		}
+
+		/**
+		 * Reads a variable-length integer.
+		 *
+		 * @return the value
+		 * @throws IOException Signals that the bytes have ended or the integer is too long.
+		 */
+		public int readVarint() throws IOException {
+			int value = 0;
+			for (int shift=0; shift<32; shift+=7) {
+				int currentByte = readByte();
+				value |= (currentByte & 0x7F) << shift;
+				if ((currentByte & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Malformed varint");
+		}
+
+		/**
+		 * Reads a long written as a variable-length integer.
+		 *
+		 * @return the value
+		 * @throws IOException Signals that the bytes have ended or the integer is too long.
+		 */
+		public long readVarlong() throws IOException {
+			long value = 0;
+			for (int shift=0; shift<64; shift+=7) {
+				int currentByte = readByte();
+				value |= (long) (currentByte & 0x7F) << shift;
+				if ((currentByte & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Malformed varint");
+		}
+
+		/**
+		 * Reads a length, which can't be longer than the bytes left.
+		 *
+		 * @return the length
+		 * @throws IOException Signals that the length is invalid.
+		 */
+		private int readLength() throws IOException {
+			int length = readVarint();
+			if (length < 0 || length > remaining()) {
+				throw new IOException("Invalid length: "+length);
+			}
+			return length;
+		}
+
+		/**
+		 * Reads a string.
+		 *
+		 * @return the string
+		 * @throws IOException Signals that the bytes have ended.
+		 */
+		public String readString() throws IOException {
+			int length = readLength();
+			String string = new String(bytes, position, length, UTF_8);
+			position += length;
+			return string;
+		}
+
+		/**
+		 * Reads an ip address.
+		 *
+		 * @return the iP address, or null if it is missing
+		 * @throws IOException Signals that the bytes have ended or the tag is unknown.
+		 */
+		public String readIP() throws IOException {
+			int tag = readByte();
+			if (tag == NULL_IP) {
+				return null;
+			}
+			if (tag == NAME_IP) {
+				return readString();
+			}
+			if (tag != IPV4) {
+				throw new IOException("Unknown ip address tag: "+tag);
+			}
+			return readByte()+"."+readByte()+"."+readByte()+"."+readByte();
+		}
+
+		/**
+		 * Reads ip addresses.
+		 *
+		 * @return the iP addresses
+		 * @throws IOException Signals that the bytes have ended.
+		 */
+		public ArrayList<String> readIPs() throws IOException {
+			int IPNumber = readLength();
+			ArrayList<String> IPAddresses = new ArrayList<String>(IPNumber);
+			for (int i=0; i<IPNumber; i++) {
+				IPAddresses.add(readIP());
+			}
+			return IPAddresses;
+		}
+
+		/**
+		 * Reads a count of every ip address.
+		 *
+		 * @return the counts by the ip addresses
+		 * @throws IOException Signals that the bytes have ended.
+		 */
+		public HashMap<String, Integer> readIPCounts() throws IOException {
+			int IPNumber = readLength();
+			HashMap<String, Integer> IPCounts = new HashMap<String, Integer>();
+			for (int i=0; i<IPNumber; i++) {
+				String IPAddress = readIP();
+				IPCounts.put(IPAddress, readVarint());
+			}
+			return IPCounts;
+		}
+
+		/**
+		 * Reads a version of every ip address.
+		 *
+		 * @return the versions by the ip addresses
+		 * @throws IOException Signals that the bytes have ended.
+		 */
+		public HashMap<String, Long> readIPVersions() throws IOException {
+			int IPNumber = readLength();
+			HashMap<String, Long> IPVersions = new HashMap<String, Long>();
+			for (int i=0; i<IPNumber; i++) {
+				String IPAddress = readIP();
+				IPVersions.put(IPAddress, readVarlong());
+			}
+			return IPVersions;
+		}
+
+		/**
+		 * Reads the values of every ip address.
+		 *
+		 * @return the values by the ip addresses
+		 * @throws IOException Signals that the bytes have ended.
+		 */
+		public HashMap<String, ArrayList<String>> readValuesMap() throws IOException {
+			int IPNumber = readLength();
+			HashMap<String, ArrayList<String>> valuesMap = new HashMap<String, ArrayList<String>>();
+			for (int i=0; i<IPNumber; i++) {
+				String IPAddress = readIP();
+				int valueNumber = readLength();
+				ArrayList<String> values = new ArrayList<String>(valueNumber);
+				for (int j=0; j<valueNumber; j++) {
+					values.add(readString());
+				}
+				valuesMap.put(IPAddress, values);
+			}
+			return valuesMap;
+		}
+
+		/**
+		 * Reads a batch operation.
+		 *
+		 * @return the batch operation
+		 * @throws IOException Signals that the bytes have ended or the operation type is unknown.
+		 */
+		public BatchOperation readBatchOperation() throws IOException {
+			int operationTypeOrdinal = readByte();
+			if (operationTypeOrdinal >= BATCH_OPERATION_TYPES.length) {
+				throw new IOException("Unknown batch operation type: "+operationTypeOrdinal);
+			}
+			int operationFields = readByte();
+			String key = readString();
+			String value = (operationFields & OPERATION_VALUE) != 0 ? readString() : null;
+			BatchOperation batchOperation = new BatchOperation(BATCH_OPERATION_TYPES[operationTypeOrdinal], key, value);
+			if ((operationFields & OPERATION_STORAGE_IP) != 0) {
+				batchOperation.setStorageIP(readIP());
+			}
+			batchOperation.getValues().putAll(readValuesMap());
+			batchOperation.getMachineIPsWithOperation().addAll(readIPs());
+			return batchOperation;
+		}
+
+		/**
+		 * Reads a boolean expression.
+		 *
+		 * @return the boolean expression
+		 * @throws IOException Signals that the bytes have ended or the operator is unknown.
+		 */
+		public BooleanExpression readBooleanExpression() throws IOException {
+			int operatorOrdinal = readByte();
+			if (operatorOrdinal >= BOOLEAN_OPERATORS.length) {
+				throw new IOException("Unknown boolean operator: "+operatorOrdinal);
+			}
+			BooleanOperator operator = BOOLEAN_OPERATORS[operatorOrdinal];
+			if (operator == BooleanOperator.KEY) {
+				return BooleanExpression.key(readString());
+			}
+			int operandNumber = readLength();
+			BooleanExpression[] operands = new BooleanExpression[operandNumber];
+			for (int i=0; i<operandNumber; i++) {
+				operands[i] = readBooleanExpression();
+			}
+			switch (operator) {
+			case AND:
+				return BooleanExpression.and(operands);
+			case OR:
+				return BooleanExpression.or(operands);
+			default:
+				if (operandNumber != 1) {
+					throw new IOException("Invalid operand number of NOT: "+operandNumber);
+				}
+				return BooleanExpression.not(operands[0]);
+			}
+		}
+	}
+
+}
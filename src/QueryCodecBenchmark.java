@@ -0,0 +1,216 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class QueryCodecBenchmark. Compares the query codec with the Java serialization the queries were
+ * sent with before, on queries like the ones sent at every hop: the bytes of a query and the time to
+ * encode and decode it. Every query is also decoded and encoded again to check that the codec keeps it.
+ * Takes the number of iterations as its optional argument.
+ */
+public class QueryCodecBenchmark {
+
+	/** The Constant DEFAULT_ITERATION_NUMBER. */
+	private static final int DEFAULT_ITERATION_NUMBER = 20000;
+
+	/** The Constant IP_ADDRESSES. */
+	private static final String[] IP_ADDRESSES = {"192.168.1.230", "192.168.1.231", "192.168.1.232", "192.168.1.233"};
+
+	/** A sink for the results of the benchmarked calls, so they can't be optimized away. */
+	private static long sink;
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 * @throws Exception the exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int iterationNumber = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ITERATION_NUMBER;
+		String[] names = {"heartbeat", "is neighbor alive", "insert round 1", "insert round 2", "lookup (10 values)", "lookup (1000 values)", "lookup page", "boolean lookup"};
+		Query[] queries = {createHeartbeat(), createIsNeighborAlive(), createInsertRound1(), createInsertRound2(), createLookup(10), createLookup(1000), createLookupPage(), createBooleanLookup()};
+		System.out.println(String.format("%-22s %12s %12s %14s %14s %14s %14s %10s", "Query", "Java bytes", "Codec bytes", "Java enc ns", "Codec enc ns", "Java dec ns", "Codec dec ns", "Round trip"));
+		for (int i=0; i<queries.length; i++) {
+			Query query = queries[i];
+			byte[] serializedBytes = serialize(query);
+			byte[] encodedBytes = QueryCodec.encode(query);
+			boolean roundTrip = Arrays.equals(encodedBytes, QueryCodec.encode(QueryCodec.decode(encodedBytes)));
+			int queryIterationNumber = Math.max(1, iterationNumber / Math.max(1, encodedBytes.length / 256));
+			// The first run warms up
+			measure(query, serializedBytes, encodedBytes, queryIterationNumber);
+			long[] times = measure(query, serializedBytes, encodedBytes, queryIterationNumber);
+			System.out.println(String.format("%-22s %12d %12d %14d %14d %14d %14d %10s", names[i], serializedBytes.length, encodedBytes.length, times[0], times[1], times[2], times[3], roundTrip ? "ok" : "MISMATCH"));
+		}
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	/**
+	 * Measures the average times to encode and decode a query with both formats.
+	 *
+	 * @param query the query
+	 * @param serializedBytes the bytes of the query in Java serialization
+	 * @param encodedBytes the bytes of the query in the codec
+	 * @param iterationNumber the iteration number
+	 * @return the nanoseconds to serialize, encode, deserialize and decode the query
+	 * @throws Exception the exception
+	 */
+	private static long[] measure(Query query, byte[] serializedBytes, byte[] encodedBytes, int iterationNumber) throws Exception {
+		long[] times = new long[4];
+		long start = System.nanoTime();
+		for (int i=0; i<iterationNumber; i++) {
+			sink += serialize(query).length;
+		}
+		times[0] = (System.nanoTime() - start) / iterationNumber;
+		start = System.nanoTime();
+		for (int i=0; i<iterationNumber; i++) {
+			sink += QueryCodec.encode(query).length;
+		}
+		times[1] = (System.nanoTime() - start) / iterationNumber;
+		start = System.nanoTime();
+		for (int i=0; i<iterationNumber; i++) {
+			sink += deserialize(serializedBytes).getValues().size();
+		}
+		times[2] = (System.nanoTime() - start) / iterationNumber;
+		start = System.nanoTime();
+		for (int i=0; i<iterationNumber; i++) {
+			sink += QueryCodec.decode(encodedBytes).getValues().size();
+		}
+		times[3] = (System.nanoTime() - start) / iterationNumber;
+		return times;
+	}
+
+	/**
+	 * Serializes a query with Java serialization.
+	 *
+	 * @param query the query
+	 * @return the bytes
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static byte[] serialize(Query query) throws IOException {
+		ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+		ObjectOutputStream objectOutputStream = new ObjectOutputStream(byteArrayOutputStream);
+		objectOutputStream.writeObject(query);
+		objectOutputStream.close();
+		return byteArrayOutputStream.toByteArray();
+	}
+
+	/**
+	 * Deserializes a query with Java serialization.
+	 *
+	 * @param bytes the bytes
+	 * @return the query
+	 * @throws Exception the exception
+	 */
+	private static Query deserialize(byte[] bytes) throws Exception {
+		ObjectInputStream objectInputStream = new ObjectInputStream(new ByteArrayInputStream(bytes));
+		return (Query) objectInputStream.readObject();
+	}
+
+	/**
+	 * Creates a heartbeat.
+	 *
+	 * @return the query
+	 */
+	private static Query createHeartbeat() {
+		Query query = new Query(QueryType.HEARTBEAT);
+		query.setQueryOriginMachineIP(IP_ADDRESSES[0]);
+		return query;
+	}
+
+	/**
+	 * Creates a neighbor check after a failure.
+	 *
+	 * @return the query
+	 */
+	private static Query createIsNeighborAlive() {
+		Query query = new Query(QueryType.IS_NEIGHBOR_ALIVE);
+		query.setQueryOriginMachineIP(IP_ADDRESSES[0]);
+		query.setAliveNeighborIP(IP_ADDRESSES[2]);
+		query.addFailedMachine(IP_ADDRESSES[1]);
+		query.setCurrentSystemIPList(new ArrayList<String>(Arrays.asList(IP_ADDRESSES[0], IP_ADDRESSES[2], IP_ADDRESSES[3])));
+		return query;
+	}
+
+	/**
+	 * Creates the first round of an insert, back at its origin.
+	 *
+	 * @return the query
+	 */
+	private static Query createInsertRound1() {
+		Query query = new Query(QueryType.INSERT_ROUND_1, "distributed", "A distributed inverted index for titles");
+		query.setQueryOriginMachineIP(IP_ADDRESSES[0]);
+		for (int i=0; i<IP_ADDRESSES.length; i++) {
+			query.updateStorageSize(IP_ADDRESSES[i], 250000 + i * 1000);
+		}
+		return query;
+	}
+
+	/**
+	 * Creates the second round of an insert.
+	 *
+	 * @return the query
+	 */
+	private static Query createInsertRound2() {
+		Query query = new Query(QueryType.INSERT_ROUND_2, "distributed", "A distributed inverted index for titles");
+		query.setQueryOriginMachineIP(IP_ADDRESSES[0]);
+		query.addMachineIPWithOperation(IP_ADDRESSES[2]);
+		return query;
+	}
+
+	/**
+	 * Creates a lookup, back at its origin with the values of every machine.
+	 *
+	 * @param valueNumber the number of values
+	 * @return the query
+	 */
+	private static Query createLookup(int valueNumber) {
+		Query query = new Query(QueryType.LOOKUP, "index");
+		query.setQueryOriginMachineIP(IP_ADDRESSES[0]);
+		for (int i=0; i<IP_ADDRESSES.length; i++) {
+			ArrayList<String> values = new ArrayList<String>();
+			for (int j=i; j<valueNumber; j+=IP_ADDRESSES.length) {
+				values.add("An index of the titles of volume "+j+" of the collection");
+			}
+			query.addValues(IP_ADDRESSES[i], values);
+		}
+		return query;
+	}
+
+	/**
+	 * Creates a page of a paginated lookup.
+	 *
+	 * @return the query
+	 */
+	private static Query createLookupPage() {
+		Query query = createLookup(20);
+		query.setQueryType(QueryType.LOOKUP_PAGE);
+		LookupCursor lookupCursor = new LookupCursor("index", 20);
+		lookupCursor.addPageValueNumber(20);
+		lookupCursor.complete(IP_ADDRESSES[0]);
+		lookupCursor.setResumePosition(IP_ADDRESSES[1], IP_ADDRESSES[1], 1234);
+		query.setLookupCursor(lookupCursor);
+		return query;
+	}
+
+	/**
+	 * Creates a boolean lookup on its way around the ring.
+	 *
+	 * @return the query
+	 */
+	private static Query createBooleanLookup() {
+		Query query = new Query(QueryType.BOOLEAN_LOOKUP);
+		query.setQueryOriginMachineIP(IP_ADDRESSES[0]);
+		query.setBooleanExpression(BooleanExpression.parse("distributed AND (index OR search) AND NOT database"));
+		query.addMachineIPWithOperation(IP_ADDRESSES[0]);
+		return query;
+	}
+
+}
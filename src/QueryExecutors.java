@@ -0,0 +1,79 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class QueryExecutors. Creates the executor the received queries are handled by. With platform threads
+ * it is a bounded pool: once its threads are busy and its queue is full, a query is dropped by the dropping
+ * policy, so the i/o threads never stop reading the connections. With virtual threads
+ * every query gets a thread of its own, which costs little while it blocks on sending the query on, so
+ * any number of queries can be in flight. Virtual threads are looked up by reflection, so the program
+ * still runs on Java versions without them and falls back to platform threads there.
+ */
+public class QueryExecutors {
+
+	/** The Constant PLATFORM. */
+	public static final String PLATFORM = "platform";
+
+	/** The Constant VIRTUAL. */
+	public static final String VIRTUAL = "virtual";
+
+	/**
+	 * Creates the query executor of the configured thread mode.
+	 *
+	 * @return the executor service
+	 */
+	public static ExecutorService create() {
+		return create(Configuration.getThreadMode());
+	}
+
+	/**
+	 * Creates a query executor.
+	 *
+	 * @param threadMode the thread mode, "platform" or "virtual"
+	 * @return the executor service
+	 */
+	public static ExecutorService create(String threadMode) {
+		if (VIRTUAL.equals(threadMode)) {
+			ExecutorService virtualThreadExecutor = createVirtualThreadPerTaskExecutor();
+			if (virtualThreadExecutor != null) {
+				return virtualThreadExecutor;
+			}
+			System.out.println("Virtual threads aren't supported by this Java version, the queries are handled by platform threads.");
+		} else if (!PLATFORM.equals(threadMode)) {
+			throw new IllegalArgumentException("Unknown thread mode: "+threadMode);
+		}
+		return createPlatformThreadPool();
+	}
+
+	/**
+	 * Creates the bounded pool of platform threads.
+	 *
+	 * @return the executor service
+	 */
+	public static ExecutorService createPlatformThreadPool() {
+		int threadNumber = Configuration.getServerWorkerThreadNumber();
+		return new ThreadPoolExecutor(threadNumber, threadNumber, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Configuration.getServerWorkerQueueSize()), new DroppingPolicy());
+	}
+
+	/**
+	 * Creates an executor starting a virtual thread for every task.
+	 *
+	 * @return the executor service, or null if virtual threads aren't supported
+	 */
+	public static ExecutorService createVirtualThreadPerTaskExecutor() {
+		try {
+			Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) method.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+}
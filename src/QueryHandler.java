@@ -1,14 +1,19 @@
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 import javax.sql.ConnectionEvent;
 
@@ -19,7 +24,7 @@ import javax.sql.ConnectionEvent;
  *
  * @see ConnectionEvent
  */
-public class QueryHandler implements Runnable {
+public class QueryHandler implements QueryReceiver {
 	
 	/** The Constant HEARTBEAT_RECEIVER_WAIT_PERIOD. */
 	private static final int HEARTBEAT_RECEIVER_WAIT_PERIOD = 10000;
@@ -27,11 +32,20 @@ public class QueryHandler implements Runnable {
 	/** The Constant HEARTBEAT_SENDER_WAIT_PERIOD. */
 	private static final int HEARTBEAT_SENDER_WAIT_PERIOD = 1000;
 	
+	/** The Constant FAILURE_CHECKER_WAIT_PERIOD. */
+	private static final int FAILURE_CHECKER_WAIT_PERIOD = 1000;
+	
 	/** The failure detector. */
 	private FailureDetector failureDetector;
 	
-	/** The server socket. */
-	private ServerSocket serverSocket;
+	/** The query server the queries are received by. */
+	private QueryServer queryServer;
+	
+	/** The connection pool the queries are sent through. */
+	private ConnectionPool connectionPool;
+	
+	/** The query executor, handling the received queries. */
+	private ExecutorService queryExecutor = QueryExecutors.create();
 	
 	/** The next neighbor ip address. */
 	private String nextNeighborIPAddress;
@@ -57,6 +71,36 @@ public class QueryHandler implements Runnable {
 	/** The known failed machines. */
 	private HashSet<String> knownFailedMachines = new HashSet<String>();
 	
+	/** The failure tasks, run by the failure checker: the failures and rejoins told by the liveness messages, and the answers to them. */
+	private LinkedBlockingQueue<Runnable> failureTasks = new LinkedBlockingQueue<Runnable>();
+	
+	/** The cursor of the last paginated lookup, kept for its next page. */
+	private LookupCursor lastLookupCursor;
+	
+	/** The last request id. */
+	private AtomicLong lastRequestId = new AtomicLong();
+	
+	/** The scatter lookups waiting for the responses of the machines, by their request ids. */
+	private ConcurrentHashMap<Long, ScatterLookup> scatterLookups = new ConcurrentHashMap<Long, ScatterLookup>();
+	
+	/** The deadline scheduler, completing the scatter lookups whose machines haven't all responded in time. */
+	private ScheduledExecutorService deadlineScheduler = Executors.newSingleThreadScheduledExecutor();
+	
+	/** The insertion probes waiting for the responses of the machines, by their request ids. */
+	private ConcurrentHashMap<Long, InsertionProbe> insertionProbes = new ConcurrentHashMap<Long, InsertionProbe>();
+	
+	/** The load map, the storage sizes of the machines gossiped with the heartbeats. */
+	private LoadMap loadMap = new LoadMap();
+	
+	/** The heartbeat number, versioning the storage size of this machine in the load map. */
+	private long heartbeatNumber;
+	
+	/** The query batcher, queuing the operations sent together as batch queries. */
+	private QueryBatcher queryBatcher = new QueryBatcher(this, Configuration.getBatchSize(), Configuration.getBatchLingerTime(), deadlineScheduler);
+	
+	/** The pending requests of the futures returned to the application, by their request ids. */
+	private PendingRequests pendingRequests = new PendingRequests(deadlineScheduler);
+	
 	
 	/**
 	 * Instantiates a new query handler.
@@ -69,13 +113,14 @@ public class QueryHandler implements Runnable {
 	 */
 	public QueryHandler(int port, String dataFileName, String ownIPAddress, int concurrentFailureNumber, ArrayList<String> systemIPList) {
 		try {
-			serverSocket = new ServerSocket(port);
+			queryServer = new QueryServer(port, Configuration.getServerIOThreadNumber(), queryExecutor, this);
 		} catch (IOException e) {
 			System.out.println("The port number is invalid and the listening socket couldn't be established. " +
 					"Quiting the program.");
 			System.exit(1);		
 		}
 		this.port = port;
+		this.connectionPool = new ConnectionPool(port);
 		this.ownIPAddress = ownIPAddress;
 		for (String IPAddress : systemIPList) {
 			initialSystemIPList.add(IPAddress);
@@ -93,42 +138,46 @@ public class QueryHandler implements Runnable {
 	 */
 	private void initialize(String dataFileName) {
 		failureDetector = new FailureDetector(HEARTBEAT_RECEIVER_WAIT_PERIOD);
-		Thread queryHandlerThread = new Thread(this);
-		queryHandlerThread.start();	
+		queryServer.start();
+		Thread failureChecker = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				checkFailures();
+			}
+		});
+		failureChecker.setDaemon(true);
+		failureChecker.start();
 		storage = new Storage(dataFileName, currentSystemIPList, ownIPAddress, concurrentFailureNumber);
 	}
 
-	/* (non-Javadoc)
-	 * @see java.lang.Runnable#run()
+	/**
+	 * Checks the failures of the machines periodically, no matter how often queries are received, and runs
+	 * the failure tasks in between. Handling a failure waits for the neighbors to answer, so it is kept off
+	 * the threads receiving the queries, which must go on receiving the answers meanwhile.
 	 */
-	@Override
-	public void run() {
+	private void checkFailures() {
 		while (true) {
-			final Socket receiverSocket = listenConnections();
-			if (receiverSocket != null) {
-				Thread queryReceiver = new Thread(new Runnable() {			
-					@Override
-					public void run() {
-						receiveQuery(receiverSocket);		
-					}
-				});
-				queryReceiver.start();
-			}	
-			Thread detectedFailedMachinesHandler = new Thread(new Runnable() {		
-				@Override
-				public void run() {
-					final HashSet<String> detectedFailedMachines = failureDetector.checkFailures();
-					if (detectedFailedMachines.size() > 0) {
-						if(!isPredecessorFailure(detectedFailedMachines)) {
-							failureDetector.stopCheckingMachines(detectedFailedMachines);
-							return;
-						}
-						System.out.println("The process with IPs: "+detectedFailedMachines+" has failed.");
-						handleDetectedFailedMachines(detectedFailedMachines);						
+			HashSet<String> detectedFailedMachines = failureDetector.checkFailures();
+			if (detectedFailedMachines.size() > 0) {
+				if(!isPredecessorFailure(detectedFailedMachines)) {
+					failureDetector.stopCheckingMachines(detectedFailedMachines);
+				} else {
+					System.out.println("The process with IPs: "+detectedFailedMachines+" has failed.");
+					handleDetectedFailedMachines(detectedFailedMachines);
+				}
+			}
+			try {
+				long nextCheckTime = System.currentTimeMillis() + FAILURE_CHECKER_WAIT_PERIOD;
+				long waitTime;
+				while ((waitTime = nextCheckTime - System.currentTimeMillis()) > 0) {
+					Runnable failureTask = failureTasks.poll(waitTime, TimeUnit.MILLISECONDS);
+					if (failureTask != null) {
+						failureTask.run();
 					}
 				}
-			});
-			detectedFailedMachinesHandler.start();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 	
@@ -153,6 +202,9 @@ public class QueryHandler implements Runnable {
 			QueryType queryType = QueryType.HEARTBEAT;
 			Query query = new Query(queryType);
 			query.setQueryOriginMachineIP(ownIPAddress);
+			// Piggyback the load map, with the current storage size of this machine, on the heartbeat
+			loadMap.update(ownIPAddress, storage.getLocalStorageSize(), ++heartbeatNumber);
+			loadMap.addTo(query);
 			int neighborNumberToSendQuery = concurrentFailureNumber > currentSystemIPList.size() - 1 ? 
 					currentSystemIPList.size() - 1 : concurrentFailureNumber;
 			sendQueryToMultipleMachines(query, neighborNumberToSendQuery);
@@ -164,52 +216,88 @@ public class QueryHandler implements Runnable {
 		}
  	}
 
-	/**
-	 * Listen connections.
-	 *
-	 * @return the socket
+	/* (non-Javadoc)
+	 * @see QueryReceiver#isReceivedInline(QueryType)
 	 */
-	private Socket listenConnections() {
-		Socket receiverSocket = null;
-		try {
-			receiverSocket = serverSocket.accept();
-		} catch (IOException e) {
-			e.printStackTrace();		
-		}	
-		return receiverSocket;
+	@Override
+	public boolean isReceivedInline(QueryType queryType) {
+		// The liveness messages only update the failure detector, handing everything else to the failure checker
+		return queryType == QueryType.HEARTBEAT || queryType == QueryType.IS_NEIGHBOR_ALIVE;
 	}
-	
-	/**
-	 * Receive query.
-	 *
-	 * @param receiverSocket the receiver socket
+
+	/* (non-Javadoc)
+	 * @see QueryReceiver#receiveQuery(Query)
 	 */
-	private void receiveQuery(Socket receiverSocket) {
-		try {
-			ObjectInputStream objectInputStream = new ObjectInputStream(receiverSocket.getInputStream());
-			Query query = (Query) objectInputStream.readObject();
-			if (query.getQueryType() == QueryType.INSERT_ROUND_1) {
-				handleInsertRound1Query(query);
-			}
-			else if (query.getQueryType() == QueryType.INSERT_ROUND_2) {
-				handleInsertRound2Query(query);
-			}
-			else if (query.getQueryType() == QueryType.LOOKUP) {
-				handleLookupQuery(query);
-			}
-			else if (query.getQueryType() == QueryType.DELETE) {
-				handleDeleteQuery(query);
-			}
-			else if (query.getQueryType() == QueryType.HEARTBEAT) {
-				handleHeartbeatQuery(query);
-			}
-			else if (query.getQueryType() == QueryType.IS_NEIGHBOR_ALIVE) {
-				handleIsNeighborAliveQuery(query);
-			}
-		} catch (IOException e) {
-			return;
-		} catch (ClassNotFoundException e) {
-			return;
+	@Override
+	public void receiveQuery(Query query) {
+		if (query.getQueryType() == QueryType.INSERT_ROUND_1) {
+			handleInsertRound1Query(query);
+		}
+		else if (query.getQueryType() == QueryType.INSERT_ROUND_2) {
+			handleInsertRound2Query(query);
+		}
+		else if (query.getQueryType() == QueryType.INSERT_DIRECT) {
+			handleInsertDirectQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.INSERT_PROBE) {
+			handleInsertProbeQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.INSERT_PROBE_RESPONSE) {
+			handleInsertProbeResponseQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.LOOKUP) {
+			handleLookupQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.LOOKUP_COUNT) {
+			handleLookupCountQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.LOOKUP_LIMIT) {
+			handleLookupLimitQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.LOOKUP_PAGE) {
+			handleLookupPageQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.BOOLEAN_LOOKUP) {
+			handleBooleanLookupQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.PREFIX_LOOKUP) {
+			handlePrefixLookupQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.SUBSTRING_LOOKUP) {
+			handleSubstringLookupQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.PHRASE_LOOKUP) {
+			handlePhraseLookupQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.SCATTER_LOOKUP) {
+			handleScatterLookupQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.SCATTER_LOOKUP_RESPONSE) {
+			handleScatterLookupResponseQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.TERM_INSERT) {
+			handleTermInsertQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.TERM_LOOKUP) {
+			handleTermLookupQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.TERM_DELETE) {
+			handleTermDeleteQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.DELETE) {
+			handleDeleteQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.BATCH_ROUND_1) {
+			handleBatchRound1Query(query);
+		}
+		else if (query.getQueryType() == QueryType.BATCH_ROUND_2) {
+			handleBatchRound2Query(query);
+		}
+		else if (query.getQueryType() == QueryType.HEARTBEAT) {
+			handleHeartbeatQuery(query);
+		}
+		else if (query.getQueryType() == QueryType.IS_NEIGHBOR_ALIVE) {
+			handleIsNeighborAliveQuery(query);
 		}
 	}
 	
@@ -243,10 +331,11 @@ public class QueryHandler implements Runnable {
 	private void handleHeartbeatQuery(Query query) {
 		String IPAddress = query.getQueryOriginMachineIP();
 		failureDetector.updateLiveness(IPAddress);
+		loadMap.merge(query);
 		// If a neighbor has just rejoined
 		if (!currentSystemIPList.contains(IPAddress)) {
 			System.out.println("The process with IP: "+IPAddress+" has rejoined.");
-			handleDetectedRejoinedMachine(IPAddress, null);
+			handleDetectedRejoinedMachineLater(IPAddress, null);
 		}
 	}
 	
@@ -257,19 +346,46 @@ public class QueryHandler implements Runnable {
 	 */
 	private void handleIsNeighborAliveQuery(Query query) {
 		if (!query.getQueryOriginMachineIP().equals(ownIPAddress)) {
-			query.setAliveNeighborIP(ownIPAddress);
-			sendQuery(query, query.getQueryOriginMachineIP());
-			HashSet<String> detectedFailedMachines = query.getFailedMachines();
+			final Query answer = query;
+			// Answer on the failure checker, before handling the failure the query tells
+			failureTasks.add(new Runnable() {
+				@Override
+				public void run() {
+					answer.setAliveNeighborIP(ownIPAddress);
+					sendQuery(answer, answer.getQueryOriginMachineIP());
+				}
+			});
+			final HashSet<String> detectedFailedMachines = query.getFailedMachines();
 			if (query.getRejoinedMachine() != null) {
-				handleDetectedRejoinedMachine(query.getRejoinedMachine(), query.getFailedMachines());
+				handleDetectedRejoinedMachineLater(query.getRejoinedMachine(), detectedFailedMachines);
 			} else {
-				handleDetectedFailedMachines(detectedFailedMachines);
+				failureTasks.add(new Runnable() {
+					@Override
+					public void run() {
+						handleDetectedFailedMachines(detectedFailedMachines);
+					}
+				});
 			}
 		} else {
 			failureDetector.addAliveNeighbor(query.getAliveNeighborIP());
 		}
 	}
 	
+	/**
+	 * Hands a detected rejoined machine to the failure checker.
+	 *
+	 * @param rejoinedIPAddress the rejoined ip address
+	 * @param detectedFailedMachines the detected failed machines
+	 */
+	private void handleDetectedRejoinedMachineLater(final String rejoinedIPAddress, final HashSet<String> detectedFailedMachines) {
+		failureTasks.add(new Runnable() {
+			@Override
+			public void run() {
+				handleDetectedRejoinedMachine(rejoinedIPAddress, detectedFailedMachines);
+			}
+		});
+	}
+	
 	/**
 	 * Handle detected rejoined machine.
 	 *
@@ -312,6 +428,9 @@ public class QueryHandler implements Runnable {
 			}
 		}
 		if (newFailedMachineDetected) {
+			for (String IPAddress : detectedFailedMachines) {
+				connectionPool.close(IPAddress);
+			}
 			reconstructNeighbors(null);
 			for (String IPAddress : detectedFailedMachines) {
 				storage.changeIsLocalStorage(IPAddress, true);
@@ -382,188 +501,1155 @@ public class QueryHandler implements Runnable {
 	 * @param value the value
 	 */
 	public void startInsertion(String key, String value) {
-		ArrayList<String> allValues = storage.lookup(key);
-		ArrayList<String> localValues = storage.lookupLocal(key);
-		// If the key exists in this machine
-		if (allValues != null) {
-			// If this machine contains the key but not the value, it inserts the value 
-			if (!allValues.contains(value)) {
-				storage.insert(key, value);
-			}	
-			if (localValues != null) {
-				System.out.println("The key-value pair <"+key+", "+value+"> has been inserted at the machine with IP: "+ownIPAddress);
-			}
-		}
-		QueryType queryType = QueryType.INSERT_ROUND_1;
-		Query query = new Query(queryType, key, value);
-		query.setQueryOriginMachineIP(ownIPAddress);
-		query.updateStorageSize(ownIPAddress, storage.getLocalStorageSize());
-		sendQuery(query, nextNeighborIPAddress);
+		startInsertion(key, value, 0);
 	}
 
 	/**
-	 * Start lookup.
+	 * Start insertion.
 	 *
 	 * @param key the key
+	 * @param value the value
+	 * @param requestId the request id of a pending request, or 0 to announce the result
 	 */
-	public void startLookup(String key) {
-		ArrayList<String> localValues = storage.lookupLocal(key);
-		QueryType queryType = QueryType.LOOKUP;
-		Query query = new Query(queryType, key);
-		query.setQueryOriginMachineIP(ownIPAddress);
-		if (localValues != null) {
-			query.addValues(ownIPAddress, localValues);
+	private void startInsertion(String key, String value, long requestId) {
+		if (storage.isTermPartitioned()) {
+			startTermInsertion(key, value, requestId);
+			return;
 		}
-		sendQuery(query, nextNeighborIPAddress);
+		// If this machine contains the key, it inserts the value unless it is already there
+		InsertResult insertResult = storage.insertIfPresent(key, value);
+		// If the key is new here and the load map is fresh, ask the other machines whether they keep the key
+		// all at once, instead of going around the ring twice
+		long maximumLoadStaleness = Configuration.getMaximumLoadStaleness();
+		if (insertResult == InsertResult.KEY_NOT_FOUND && maximumLoadStaleness > 0 &&
+				loadMap.getLeastLoadedIP(currentSystemIPList, maximumLoadStaleness) != null) {
+			startInsertionProbe(key, value, requestId);
+			return;
+		}
+		startRoundInsertion(key, value, insertResult, requestId);
 	}
 
 	/**
-	 * Start deletion.
+	 * Start the insertion rounds around the ring.
 	 *
 	 * @param key the key
+	 * @param value the value
+	 * @param insertResult where this machine has found the key
+	 * @param requestId the request id
 	 */
-	public void startDeletion(String key) {
-		ArrayList<String> allValues = storage.lookup(key);
-		ArrayList<String> localValues = storage.lookupLocal(key);
-		QueryType queryType = QueryType.DELETE;
-		Query query = new Query(queryType, key);
+	private void startRoundInsertion(String key, String value, InsertResult insertResult, long requestId) {
+		QueryType queryType = QueryType.INSERT_ROUND_1;
+		Query query = new Query(queryType, key, value);
 		query.setQueryOriginMachineIP(ownIPAddress);
-		if (allValues != null) {
-			storage.delete(key);
-			if (localValues != null) {
-				query.addValues(ownIPAddress, localValues);
-			}
+		query.setRequestId(requestId);
+		// Like any other machine having the key, this machine ends the insertion after the first round
+		if (insertResult == InsertResult.KEY_FOUND_IN_LOCAL) {
+			query.addMachineIPWithOperation(ownIPAddress);
 		}
+		query.updateStorageSize(ownIPAddress, storage.getLocalStorageSize());
 		sendQuery(query, nextNeighborIPAddress);
 	}
 
 	/**
-	 * Handle insert round1 query.
+	 * Start an insertion probe, sending the insertion to every other machine, which inserts the value if it
+	 * already keeps the key, like in the first round. The key is placed at the least loaded machine only
+	 * once every machine has answered that it doesn't keep the key, so a key is never placed twice.
 	 *
-	 * @param query the query
+	 * @param key the key
+	 * @param value the value
+	 * @param pendingRequestId the request id of a pending request, or 0 to announce the result
 	 */
-	private void handleInsertRound1Query(Query query) {
-		// If we are the issuing client
-		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
-			HashSet<String> machineIPsWithOperation = query.getMachineIPsWithOperation();
-			// If a machine in the system detected that it already has the given key and so it inserted the new value
-			if (machineIPsWithOperation != null) {
-				String key = query.getKey();
-				String value = query.getValue();
-				for (String IPAddress : machineIPsWithOperation) {
-					System.out.println("The key-value pair <"+key+", "+value+"> has been inserted at the machine with IP: "+IPAddress);
-				}
-				return;
-			}
-			// If this machine contains a local or replica storage with lowest load, insert
-			if (storage.getStorageKeyIPs().contains(query.getIPWithMininumSize())) {
-				String key = query.getKey();
-				String value = query.getValue();
-				storage.insert(key, value);
-				// If the machine having the lowest load is a local storage in this machine
-				if (storage.getLocalStorageIPs().contains(query.getIPWithMininumSize())) {
-					System.out.println("The key-value pair <"+key+", "+value+"> has been inserted at the machine with IP: "+ownIPAddress);
-				}
-			}
-			// Start Round 2
-			query.setQueryType(QueryType.INSERT_ROUND_2);
-			sendQuery(query, nextNeighborIPAddress);
-			return;
+	private void startInsertionProbe(String key, String value, long pendingRequestId) {
+		final long requestId = pendingRequestId != 0 ? pendingRequestId : lastRequestId.incrementAndGet();
+		Query query = new Query(QueryType.INSERT_PROBE, key, value);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setRequestId(requestId);
+		ArrayList<String> machineIPs = new ArrayList<String>(currentSystemIPList);
+		machineIPs.remove(ownIPAddress);
+		insertionProbes.put(requestId, new InsertionProbe(key, value, machineIPs));
+		for (String IPAddress : machineIPs) {
+			sendQuery(query, IPAddress);
 		}
-		String key = query.getKey();
-		String value = query.getValue();
-		ArrayList<String> allValues = storage.lookup(key);
-		ArrayList<String> localValues = storage.lookupLocal(key);
-		// If the key exists in this machine
-		if (allValues != null) {
-			// If the key exists in this machine but not the value, insert
-			if (!allValues.contains(value)) {
-				storage.insert(key, value);
-			}		
-			if (localValues != null) {
-				query.addMachineIPWithOperation(ownIPAddress);
-			}
-			sendQuery(query, nextNeighborIPAddress);
+		if (machineIPs.isEmpty()) {
+			completeInsertionProbe(requestId);
 			return;
 		}
-		// If not, write the storage load and pass the query
-		query.updateStorageSize(ownIPAddress, storage.getLocalStorageSize());
-		sendQuery(query, nextNeighborIPAddress);
+		deadlineScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				completeInsertionProbe(requestId);
+			}
+		}, Configuration.getLookupDeadline(), TimeUnit.MILLISECONDS);
 	}
 
 	/**
-	 * Handle insert round2 query.
+	 * Completes an insertion probe. If a machine keeps the key, the insertion is announced. If every machine
+	 * has answered that it doesn't, the key is inserted at the least loaded machine. If a machine hasn't
+	 * answered in time, the insertion goes around the ring instead, which inserts the value only where it
+	 * isn't already.
 	 *
-	 * @param query the query
+	 * @param requestId the request id
 	 */
-	private void handleInsertRound2Query(Query query) {
-		// If we are the issuing client, announce the machines in which the key-value pair has been inserted
-		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
-			HashSet<String> machineIPsWithOperation = query.getMachineIPsWithOperation();
-			// If a machine in the system detected that it already has the given key and so it inserted the new value
-			if (machineIPsWithOperation != null) {
-				String key = query.getKey();
-				String value = query.getValue();
-				for (String IPAddress : machineIPsWithOperation) {
-					System.out.println("The key-value pair <"+key+", "+value+"> has been inserted at the machine with IP: "+IPAddress);
-				}
-			}
+	private void completeInsertionProbe(long requestId) {
+		InsertionProbe insertionProbe = insertionProbes.remove(requestId);
+		if (insertionProbe == null || !insertionProbe.complete()) {
 			return;
 		}
-		// If this machine contains a local or replica storage with lowest load, insert, write it to the query and pass it
-		if (storage.getStorageKeyIPs().contains(query.getIPWithMininumSize())) {
-			String key = query.getKey();
-			String value = query.getValue();
-			storage.insert(key, value);
-			// If the machine having the lowest load is a local storage in this machine
-			if (storage.getLocalStorageIPs().contains(query.getIPWithMininumSize())) {
-				query.addMachineIPWithOperation(ownIPAddress);
-			}
-			sendQuery(query, nextNeighborIPAddress);
+		String key = insertionProbe.getKey();
+		String value = insertionProbe.getValue();
+		HashSet<String> machineIPsWithOperation = insertionProbe.getMachineIPsWithOperation();
+		if (machineIPsWithOperation.size() > 0) {
+			Query response = new Query(QueryType.INSERT_PROBE_RESPONSE, key, value);
+			response.setRequestId(requestId);
+			response.setMachineIPsWithOperation(machineIPsWithOperation);
+			announceInsertion(response);
 			return;
 		}
-		// Otherwise, pass the query
-		sendQuery(query, nextNeighborIPAddress);
+		String leastLoadedIPAddress = loadMap.getLeastLoadedIP(currentSystemIPList, Configuration.getMaximumLoadStaleness());
+		if (!insertionProbe.isAnswered() || leastLoadedIPAddress == null) {
+			startRoundInsertion(key, value, InsertResult.KEY_NOT_FOUND, requestId);
+			return;
+		}
+		startDirectInsertion(key, value, leastLoadedIPAddress, requestId);
 	}
-	
+
 	/**
-	 * Handle lookup query.
+	 * Start direct insertion, sending the insertion to the least loaded machine and to the machines keeping
+	 * its replicas, which are its successors in the initial system.
 	 *
-	 * @param query the query
+	 * @param key the key
+	 * @param value the value
+	 * @param leastLoadedIPAddress the least loaded ip address
+	 * @param requestId the request id
 	 */
-	private void handleLookupQuery(Query query) {
-		String key = query.getKey();
-		ArrayList<String> localValues = storage.lookupLocal(key);
-		// If we are the issuing client, and if there is a value found for the given key, announce it
-		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
-			HashMap<String, ArrayList<String>> valuesMap = query.getValues();
-			Set<String> machineIPsWithOperation = valuesMap.keySet();
-			if (machineIPsWithOperation.size() > 0) {
-				for (String machineIPWithOperation : machineIPsWithOperation) {
-					ArrayList<String> foundValues = valuesMap.get(machineIPWithOperation);
-					System.out.println("The following values for the key "+key+" has been found at the machine with IP: "+machineIPWithOperation);
-					for (String foundValue : foundValues) {
-						System.out.println(foundValue);
-					}
+	private void startDirectInsertion(String key, String value, String leastLoadedIPAddress, long requestId) {
+		QueryType queryType = QueryType.INSERT_DIRECT;
+		Query query = new Query(queryType, key, value);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setRequestId(requestId);
+		query.updateStorageSize(leastLoadedIPAddress, 0);
+		int index = initialSystemIPList.indexOf(leastLoadedIPAddress);
+		int holderNumber = Math.min(concurrentFailureNumber + 1, initialSystemIPList.size());
+		for (int i=0; i<holderNumber; i++) {
+			String IPAddress = initialSystemIPList.get((index + i) % initialSystemIPList.size());
+			if (IPAddress.equals(ownIPAddress)) {
+				// The insertion is answered here if the least loaded machine is this one
+				if (insertDirectly(query)) {
+					Query response = new Query(queryType, key, value);
+					response.setRequestId(requestId);
+					response.addMachineIPWithOperation(ownIPAddress);
+					announceInsertion(response);
 				}
-			} else {
-				System.out.println("A value does not exist in the system for the key: "+key);
+			} else if (currentSystemIPList.contains(IPAddress)) {
+				sendQuery(query, IPAddress);
 			}
+		}
+	}
+
+	/**
+	 * Start lookup.
+	 *
+	 * @param key the key
+	 */
+	public void startLookup(String key) {
+		startLookup(key, 0);
+	}
+
+	/**
+	 * Start lookup.
+	 *
+	 * @param key the key
+	 * @param requestId the request id of a pending request, or 0 to announce the result
+	 */
+	private void startLookup(String key, long requestId) {
+		if (storage.isTermPartitioned()) {
+			startTermLookup(key, requestId);
 			return;
 		}
-		// If this machine has the value for the given key, write it to the query and pass it
+		if ("scatter".equals(Configuration.getLookupMode())) {
+			startScatterLookup(key, requestId);
+			return;
+		}
+		ArrayList<String> localValues = storage.lookupLocal(key);
+		QueryType queryType = QueryType.LOOKUP;
+		Query query = new Query(queryType, key);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setRequestId(requestId);
 		if (localValues != null) {
 			query.addValues(ownIPAddress, localValues);
-			sendQuery(query, nextNeighborIPAddress);
-			return;
 		}
 		sendQuery(query, nextNeighborIPAddress);
 	}
+
+	/**
+	 * Gets the machines keeping a key partitioned by term which are alive, its owner first.
+	 *
+	 * @param key the key
+	 * @return the alive key owner i ps
+	 */
+	private ArrayList<String> getAliveKeyOwners(String key) {
+		ArrayList<String> aliveKeyOwners = new ArrayList<String>();
+		for (String IPAddress : storage.getKeyOwners(key)) {
+			if (currentSystemIPList.contains(IPAddress)) {
+				aliveKeyOwners.add(IPAddress);
+			}
+		}
+		return aliveKeyOwners;
+	}
 	
 	/**
-	 * Handle delete query.
+	 * Start an insertion sent straight to the alive machines keeping the key partitioned by term, instead of
+	 * the two rounds around the ring looking for the key and the least loaded machine.
 	 *
-	 * @param query the query
+	 * @param key the key
+	 * @param value the value
+	 * @param requestId the request id
+	 */
+	private void startTermInsertion(String key, String value, long requestId) {
+		Query query = new Query(QueryType.TERM_INSERT, key, value);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setRequestId(requestId);
+		ArrayList<String> aliveKeyOwners = getAliveKeyOwners(key);
+		pendingRequests.setAwaitedResponseNumber(requestId, aliveKeyOwners.size());
+		for (String IPAddress : aliveKeyOwners) {
+			if (IPAddress.equals(ownIPAddress)) {
+				storage.insertIntoOwnerStorage(key, value);
+				Query response = new Query(QueryType.TERM_INSERT, key, value);
+				response.setRequestId(requestId);
+				response.addMachineIPWithOperation(ownIPAddress);
+				announceInsertion(response);
+			} else {
+				sendQuery(query, IPAddress);
+			}
+		}
+	}
+	
+	/**
+	 * Start a lookup sent straight to the first alive machine keeping the key partitioned by term, which
+	 * sends its values straight back, instead of around the ring.
+	 *
+	 * @param key the key
+	 * @param requestId the request id
+	 */
+	private void startTermLookup(String key, long requestId) {
+		Query query = new Query(QueryType.TERM_LOOKUP, key);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setRequestId(requestId);
+		ArrayList<String> aliveKeyOwners = getAliveKeyOwners(key);
+		if (aliveKeyOwners.isEmpty() || aliveKeyOwners.get(0).equals(ownIPAddress)) {
+			ArrayList<String> values = storage.lookup(key);
+			if (values != null) {
+				query.addValues(ownIPAddress, values);
+			}
+			announceLookup(query);
+			return;
+		}
+		sendQuery(query, aliveKeyOwners.get(0));
+	}
+	
+	/**
+	 * Start a deletion sent straight to the alive machines keeping the key partitioned by term.
+	 *
+	 * @param key the key
+	 * @param requestId the request id
+	 */
+	private void startTermDeletion(String key, long requestId) {
+		Query query = new Query(QueryType.TERM_DELETE, key);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setRequestId(requestId);
+		ArrayList<String> aliveKeyOwners = getAliveKeyOwners(key);
+		pendingRequests.setAwaitedResponseNumber(requestId, aliveKeyOwners.size());
+		for (String IPAddress : aliveKeyOwners) {
+			if (IPAddress.equals(ownIPAddress)) {
+				ArrayList<String> values = storage.lookup(key);
+				storage.deleteFromOwnerStorage(key);
+				Query response = new Query(QueryType.TERM_DELETE, key);
+				response.setRequestId(requestId);
+				response.addMachineIPWithOperation(ownIPAddress);
+				if (values != null) {
+					response.addValues(ownIPAddress, values);
+				}
+				announceTermDeletion(response);
+			} else {
+				sendQuery(query, IPAddress);
+			}
+		}
+	}
+	
+	/**
+	 * Start a lookup sent to every machine at once instead of around the ring, so it takes a single round
+	 * trip however many machines there are, and a slow machine only delays its own values. The lookup is
+	 * announced once every machine has responded, or with the values gathered so far once its deadline passes.
+	 *
+	 * @param key the key
+	 * @param pendingRequestId the request id of a pending request, or 0 to announce the result
+	 */
+	private void startScatterLookup(String key, long pendingRequestId) {
+		final long requestId = pendingRequestId != 0 ? pendingRequestId : lastRequestId.incrementAndGet();
+		Query query = new Query(QueryType.SCATTER_LOOKUP, key);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setRequestId(requestId);
+		ArrayList<String> machineIPs = new ArrayList<String>(currentSystemIPList);
+		machineIPs.remove(ownIPAddress);
+		ScatterLookup scatterLookup = new ScatterLookup(new Query(QueryType.LOOKUP, key), machineIPs);
+		ArrayList<String> localValues = storage.lookupLocal(key);
+		if (localValues != null) {
+			scatterLookup.getQuery().addValues(ownIPAddress, localValues);
+		}
+		scatterLookups.put(requestId, scatterLookup);
+		for (String IPAddress : machineIPs) {
+			sendQuery(query, IPAddress);
+		}
+		if (machineIPs.isEmpty()) {
+			completeScatterLookup(requestId);
+			return;
+		}
+		deadlineScheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				completeScatterLookup(requestId);
+			}
+		}, Configuration.getLookupDeadline(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Completes a scatter lookup, announcing its values and the machines which haven't responded in time.
+	 *
+	 * @param requestId the request id
+	 */
+	private void completeScatterLookup(long requestId) {
+		ScatterLookup scatterLookup = scatterLookups.remove(requestId);
+		if (scatterLookup == null || !scatterLookup.complete()) {
+			return;
+		}
+		Query query = scatterLookup.getQuery();
+		query.setRequestId(requestId);
+		if (pendingRequests.addResponse(query)) {
+			return;
+		}
+		announceLookupValues("the key", query.getKey(), query.getValues());
+		HashSet<String> awaitedMachineIPs = scatterLookup.getAwaitedMachineIPs();
+		if (awaitedMachineIPs.size() > 0) {
+			System.out.println("The machines with IPs: "+awaitedMachineIPs+" haven't responded to the lookup of the key "+query.getKey()+" in time.");
+		}
+	}
+
+	/**
+	 * Start the lookup of the titles matched by a boolean expression of keys.
+	 *
+	 * @param expression the expression
+	 */
+	public void startBooleanLookup(BooleanExpression expression) {
+		expression.checkMatchable();
+		ArrayList<String> localValues = storage.lookupLocal(expression);
+		Query query = new Query(QueryType.BOOLEAN_LOOKUP, expression.toString());
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setBooleanExpression(expression);
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Start the lookup of the titles of the keys starting with a prefix.
+	 *
+	 * @param prefix the prefix
+	 */
+	public void startPrefixLookup(String prefix) {
+		ArrayList<String> localValues = storage.lookupLocalPrefix(prefix);
+		Query query = new Query(QueryType.PREFIX_LOOKUP, prefix);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Start the lookup of the titles of the keys containing a fragment.
+	 *
+	 * @param fragment the fragment
+	 */
+	public void startSubstringLookup(String fragment) {
+		ArrayList<String> localValues = storage.lookupLocalSubstring(fragment);
+		Query query = new Query(QueryType.SUBSTRING_LOOKUP, fragment);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Start the lookup of the titles containing a phrase.
+	 *
+	 * @param phrase the phrase
+	 */
+	public void startPhraseLookup(String phrase) {
+		ArrayList<String> localValues = storage.lookupLocalPhrase(phrase);
+		Query query = new Query(QueryType.PHRASE_LOOKUP, phrase);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Start the lookup of the number of values of a key.
+	 *
+	 * @param key the key
+	 */
+	public void startLookupCount(String key) {
+		int localValueCount = storage.countLocal(key);
+		Query query = new Query(QueryType.LOOKUP_COUNT, key);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		if (localValueCount > 0) {
+			query.addValueCount(ownIPAddress, localValueCount);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Start the lookup of at most the given number of values of a key.
+	 *
+	 * @param key the key
+	 * @param valueLimit the value limit
+	 */
+	public void startLookupLimit(String key, int valueLimit) {
+		ArrayList<String> localValues = storage.lookupLocal(key, valueLimit);
+		Query query = new Query(QueryType.LOOKUP_LIMIT, key);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setValueLimit(valueLimit);
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		// If the limit is already met here, the query doesn't go around the ring at all
+		if (query.getValueNumber() >= valueLimit) {
+			handleLookupLimitQuery(query);
+			return;
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Start a paginated lookup, returning the first page of the values of the key.
+	 *
+	 * @param key the key
+	 * @param pageSize the page size
+	 */
+	public void startLookupPage(String key, int pageSize) {
+		startLookupPage(new LookupCursor(key, pageSize));
+	}
+	
+	/**
+	 * Start the lookup of the next page of the last paginated lookup.
+	 */
+	public void startLookupNextPage() {
+		LookupCursor lookupCursor = lastLookupCursor;
+		if (lookupCursor == null || !lookupCursor.isPageFull()) {
+			System.out.println("There isn't a next page to look up.");
+			return;
+		}
+		lastLookupCursor = null;
+		startLookupPage(lookupCursor);
+	}
+	
+	/**
+	 * Start the lookup of a page.
+	 *
+	 * @param lookupCursor the lookup cursor
+	 */
+	private void startLookupPage(LookupCursor lookupCursor) {
+		String key = lookupCursor.getKey();
+		lookupCursor.startPage();
+		ArrayList<String> localValues = new ArrayList<String>();
+		storage.lookupLocalPage(key, lookupCursor, localValues);
+		Query query = new Query(QueryType.LOOKUP_PAGE, key);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setLookupCursor(lookupCursor);
+		if (localValues.size() > 0) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		if (lookupCursor.isPageFull()) {
+			handleLookupPageQuery(query);
+			return;
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Start deletion.
+	 *
+	 * @param key the key
+	 */
+	public void startDeletion(String key) {
+		startDeletion(key, 0);
+	}
+
+	/**
+	 * Start deletion.
+	 *
+	 * @param key the key
+	 * @param requestId the request id of a pending request, or 0 to announce the result
+	 */
+	private void startDeletion(String key, long requestId) {
+		if (storage.isTermPartitioned()) {
+			startTermDeletion(key, requestId);
+			return;
+		}
+		ArrayList<String> allValues = storage.lookup(key);
+		ArrayList<String> localValues = storage.lookupLocal(key);
+		QueryType queryType = QueryType.DELETE;
+		Query query = new Query(queryType, key);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setRequestId(requestId);
+		if (allValues != null) {
+			storage.delete(key);
+			if (localValues != null) {
+				query.addValues(ownIPAddress, localValues);
+			}
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Inserts a key-value pair without waiting for the insertion, so many requests can be in flight at once.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the future of the machines the pair has been inserted at
+	 */
+	public CompletableFuture<HashSet<String>> insertAsync(String key, String value) {
+		long requestId = lastRequestId.incrementAndGet();
+		CompletableFuture<Query> response = pendingRequests.register(requestId, new Query(QueryType.INSERT_ROUND_1, key, value), Configuration.getRequestTimeout());
+		startInsertion(key, value, requestId);
+		return response.thenApply(new Function<Query, HashSet<String>>() {
+			@Override
+			public HashSet<String> apply(Query query) {
+				HashSet<String> machineIPsWithOperation = query.getMachineIPsWithOperation();
+				return machineIPsWithOperation != null ? machineIPsWithOperation : new HashSet<String>();
+			}
+		});
+	}
+
+	/**
+	 * Looks up a key without waiting for the lookup, so many requests can be in flight at once.
+	 *
+	 * @param key the key
+	 * @return the future of the values found at every machine
+	 */
+	public CompletableFuture<HashMap<String, ArrayList<String>>> lookupAsync(String key) {
+		long requestId = lastRequestId.incrementAndGet();
+		CompletableFuture<Query> response = pendingRequests.register(requestId, new Query(QueryType.LOOKUP, key), Configuration.getRequestTimeout());
+		startLookup(key, requestId);
+		return response.thenApply(new Function<Query, HashMap<String, ArrayList<String>>>() {
+			@Override
+			public HashMap<String, ArrayList<String>> apply(Query query) {
+				return query.getValues();
+			}
+		});
+	}
+
+	/**
+	 * Deletes a key without waiting for the deletion, so many requests can be in flight at once.
+	 *
+	 * @param key the key
+	 * @return the future of the values deleted at every machine
+	 */
+	public CompletableFuture<HashMap<String, ArrayList<String>>> deleteAsync(String key) {
+		long requestId = lastRequestId.incrementAndGet();
+		CompletableFuture<Query> response = pendingRequests.register(requestId, new Query(QueryType.DELETE, key), Configuration.getRequestTimeout());
+		startDeletion(key, requestId);
+		return response.thenApply(new Function<Query, HashMap<String, ArrayList<String>>>() {
+			@Override
+			public HashMap<String, ArrayList<String>> apply(Query query) {
+				return query.getValues();
+			}
+		});
+	}
+
+	/**
+	 * Gets the number of asynchronous requests waiting for their responses.
+	 *
+	 * @return the pending request number
+	 */
+	public int getPendingRequestNumber() {
+		return pendingRequests.size();
+	}
+
+	/**
+	 * Queues an insertion to be sent with the next batch.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void queueInsertion(String key, String value) {
+		queryBatcher.add(new BatchOperation(BatchOperationType.INSERT, key, value));
+	}
+
+	/**
+	 * Queues a lookup to be sent with the next batch.
+	 *
+	 * @param key the key
+	 */
+	public void queueLookup(String key) {
+		queryBatcher.add(new BatchOperation(BatchOperationType.LOOKUP, key, null));
+	}
+
+	/**
+	 * Queues a deletion to be sent with the next batch.
+	 *
+	 * @param key the key
+	 */
+	public void queueDeletion(String key) {
+		queryBatcher.add(new BatchOperation(BatchOperationType.DELETE, key, null));
+	}
+
+	/**
+	 * Sends the queued operations right away.
+	 */
+	public void flushBatch() {
+		queryBatcher.flush();
+	}
+
+	/**
+	 * Start batch, sending the operations around the ring in one query. Every machine does all of them in
+	 * one pass. The insertions of keys no machine has are done in a second lap, into the storages the
+	 * issuing client chooses by the storage sizes gathered in the first one. A batch can't carry two
+	 * operations on the same key, since an operation following the insertion of a new key would be done
+	 * before the key is there.
+	 *
+	 * @param batchOperations the batch operations
+	 * @throws IllegalArgumentException if two operations are on the same key
+	 */
+	public void startBatch(ArrayList<BatchOperation> batchOperations) {
+		HashSet<String> keys = new HashSet<String>();
+		for (BatchOperation batchOperation : batchOperations) {
+			if (!keys.add(batchOperation.getKey())) {
+				throw new IllegalArgumentException("The batch has more than one operation on the key "+batchOperation.getKey()+".");
+			}
+		}
+		// The keys partitioned by term are sent straight to their machines anyway
+		if (storage.isTermPartitioned()) {
+			for (BatchOperation batchOperation : batchOperations) {
+				if (batchOperation.getOperationType() == BatchOperationType.INSERT) {
+					startTermInsertion(batchOperation.getKey(), batchOperation.getValue(), 0);
+				} else if (batchOperation.getOperationType() == BatchOperationType.LOOKUP) {
+					startTermLookup(batchOperation.getKey(), 0);
+				} else {
+					startTermDeletion(batchOperation.getKey(), 0);
+				}
+			}
+			return;
+		}
+		QueryType queryType = QueryType.BATCH_ROUND_1;
+		Query query = new Query(queryType);
+		query.setQueryOriginMachineIP(ownIPAddress);
+		query.setBatchOperations(batchOperations);
+		applyBatchOperations(query);
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Handle insert round1 query.
+	 *
+	 * @param query the query
+	 */
+	private void handleInsertRound1Query(Query query) {
+		// If we are the issuing client
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			// If a machine in the system detected that it already has the given key and so it inserted the new value
+			if (query.getMachineIPsWithOperation() != null) {
+				announceInsertion(query);
+				return;
+			}
+			// If this machine contains a local or replica storage with lowest load, insert
+			if (storage.getStorageKeyIPs().contains(query.getIPWithMininumSize())) {
+				String key = query.getKey();
+				String value = query.getValue();
+				storage.insert(key, value, query.getIPWithMininumSize());
+				// If the machine having the lowest load is a local storage in this machine, it is announced after round 2
+				if (storage.getLocalStorageIPs().contains(query.getIPWithMininumSize())) {
+					query.addMachineIPWithOperation(ownIPAddress);
+				}
+			}
+			// Start Round 2
+			query.setQueryType(QueryType.INSERT_ROUND_2);
+			sendQuery(query, nextNeighborIPAddress);
+			return;
+		}
+		String key = query.getKey();
+		String value = query.getValue();
+		// If the key exists in this machine, insert the value unless it is already there
+		InsertResult insertResult = storage.insertIfPresent(key, value);
+		if (insertResult != InsertResult.KEY_NOT_FOUND) {
+			if (insertResult == InsertResult.KEY_FOUND_IN_LOCAL) {
+				query.addMachineIPWithOperation(ownIPAddress);
+			}
+			sendQuery(query, nextNeighborIPAddress);
+			return;
+		}
+		// If not, write the storage load and pass the query
+		query.updateStorageSize(ownIPAddress, storage.getLocalStorageSize());
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Handle insert round2 query.
+	 *
+	 * @param query the query
+	 */
+	private void handleInsertRound2Query(Query query) {
+		// If we are the issuing client, announce the machines in which the key-value pair has been inserted
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceInsertion(query);
+			return;
+		}
+		// If this machine contains a local or replica storage with lowest load, insert, write it to the query and pass it
+		if (storage.getStorageKeyIPs().contains(query.getIPWithMininumSize())) {
+			String key = query.getKey();
+			String value = query.getValue();
+			storage.insert(key, value, query.getIPWithMininumSize());
+			// If the machine having the lowest load is a local storage in this machine
+			if (storage.getLocalStorageIPs().contains(query.getIPWithMininumSize())) {
+				query.addMachineIPWithOperation(ownIPAddress);
+			}
+			sendQuery(query, nextNeighborIPAddress);
+			return;
+		}
+		// Otherwise, pass the query
+		sendQuery(query, nextNeighborIPAddress);
+	}
+	
+	/**
+	 * Handle insert direct query.
+	 *
+	 * @param query the query
+	 */
+	private void handleInsertDirectQuery(Query query) {
+		// If we are the issuing client, announce the machine in which the key-value pair has been inserted
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceInsertion(query);
+			return;
+		}
+		// Only the machine keeping the least loaded storage as a local storage answers
+		if (insertDirectly(query)) {
+			query.addMachineIPWithOperation(ownIPAddress);
+			sendQuery(query, query.getQueryOriginMachineIP());
+		}
+	}
+
+	/**
+	 * Handle insert probe query, inserting the value if this machine already keeps the key and answering
+	 * the issuing client straight back.
+	 *
+	 * @param query the query
+	 */
+	private void handleInsertProbeQuery(Query query) {
+		Query response = new Query(QueryType.INSERT_PROBE_RESPONSE, query.getKey(), query.getValue());
+		response.setQueryOriginMachineIP(query.getQueryOriginMachineIP());
+		response.setRequestId(query.getRequestId());
+		response.updateStorageSize(ownIPAddress, storage.getLocalStorageSize());
+		if (storage.insertIfPresent(query.getKey(), query.getValue()) == InsertResult.KEY_FOUND_IN_LOCAL) {
+			response.addMachineIPWithOperation(ownIPAddress);
+		}
+		sendQuery(response, query.getQueryOriginMachineIP());
+	}
+	
+	/**
+	 * Handle insert probe response query, completing the probe once every machine has responded. A
+	 * response arriving after the deadline is dropped.
+	 *
+	 * @param query the query
+	 */
+	private void handleInsertProbeResponseQuery(Query query) {
+		InsertionProbe insertionProbe = insertionProbes.get(query.getRequestId());
+		if (insertionProbe == null) {
+			return;
+		}
+		HashSet<String> machineIPsWithOperation = query.getMachineIPsWithOperation();
+		for (String IPAddress : query.getStorageSizes().keySet()) {
+			boolean isKeyFound = machineIPsWithOperation != null && machineIPsWithOperation.contains(IPAddress);
+			if (insertionProbe.addResponse(IPAddress, isKeyFound)) {
+				completeInsertionProbe(query.getRequestId());
+			}
+		}
+	}
+	
+	/**
+	 * Inserts the key-value pair of a direct insertion if this machine contains the least loaded storage.
+	 *
+	 * @param query the query
+	 * @return true, if the least loaded storage is a local storage in this machine
+	 */
+	private boolean insertDirectly(Query query) {
+		if (!storage.getStorageKeyIPs().contains(query.getIPWithMininumSize())) {
+			return false;
+		}
+		storage.insert(query.getKey(), query.getValue(), query.getIPWithMininumSize());
+		return storage.getLocalStorageIPs().contains(query.getIPWithMininumSize());
+	}
+
+	/**
+	 * Announces the machines a key-value pair has been inserted at, unless the insertion is a pending request
+	 * whose future takes them.
+	 *
+	 * @param query the query
+	 */
+	private void announceInsertion(Query query) {
+		if (pendingRequests.addResponse(query)) {
+			return;
+		}
+		HashSet<String> machineIPsWithOperation = query.getMachineIPsWithOperation();
+		if (machineIPsWithOperation != null) {
+			for (String IPAddress : machineIPsWithOperation) {
+				System.out.println("The key-value pair <"+query.getKey()+", "+query.getValue()+"> has been inserted at the machine with IP: "+IPAddress);
+			}
+		}
+	}
+
+	/**
+	 * Handle lookup query.
+	 *
+	 * @param query the query
+	 */
+	private void handleLookupQuery(Query query) {
+		String key = query.getKey();
+		ArrayList<String> localValues = storage.lookupLocal(key);
+		// If we are the issuing client, and if there is a value found for the given key, announce it
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceLookup(query);
+			return;
+		}
+		// If this machine has the value for the given key, write it to the query and pass it
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+			sendQuery(query, nextNeighborIPAddress);
+			return;
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+	
+	/**
+	 * Announce the values found by a lookup.
+	 *
+	 * @param description the description of what has been looked up, e.g. "the key"
+	 * @param key the key, or the expression, prefix, fragment or phrase looked up
+	 * @param valuesMap the values by the machines they have been found at
+	 */
+	private void announceLookupValues(String description, String key, HashMap<String, ArrayList<String>> valuesMap) {
+		Set<String> machineIPsWithOperation = valuesMap.keySet();
+		if (machineIPsWithOperation.size() > 0) {
+			for (String machineIPWithOperation : machineIPsWithOperation) {
+				ArrayList<String> foundValues = valuesMap.get(machineIPWithOperation);
+				System.out.println("The following values for "+description+" "+key+" has been found at the machine with IP: "+machineIPWithOperation);
+				for (String foundValue : foundValues) {
+					System.out.println(foundValue);
+				}
+			}
+		} else {
+			System.out.println("A value does not exist in the system for "+description+": "+key);
+		}
+	}
+	
+	/**
+	 * Announces the values of a lookup, unless the lookup is a pending request whose future takes them.
+	 *
+	 * @param query the query
+	 */
+	private void announceLookup(Query query) {
+		if (!pendingRequests.addResponse(query)) {
+			announceLookupValues("the key", query.getKey(), query.getValues());
+		}
+	}
+	
+	/**
+	 * Handle scatter lookup query, sending the local values straight back to the issuing client.
+	 *
+	 * @param query the query
+	 */
+	private void handleScatterLookupQuery(Query query) {
+		Query response = new Query(QueryType.SCATTER_LOOKUP_RESPONSE, query.getKey());
+		response.setQueryOriginMachineIP(query.getQueryOriginMachineIP());
+		response.setRequestId(query.getRequestId());
+		response.addMachineIPWithOperation(ownIPAddress);
+		ArrayList<String> localValues = storage.lookupLocal(query.getKey());
+		if (localValues != null) {
+			response.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(response, query.getQueryOriginMachineIP());
+	}
+	
+	/**
+	 * Handle scatter lookup response query, completing the lookup once every machine has responded.
+	 * A response arriving after the deadline is dropped.
+	 *
+	 * @param query the query
+	 */
+	private void handleScatterLookupResponseQuery(Query query) {
+		ScatterLookup scatterLookup = scatterLookups.get(query.getRequestId());
+		if (scatterLookup == null) {
+			return;
+		}
+		for (String IPAddress : query.getMachineIPsWithOperation()) {
+			if (scatterLookup.addResponse(IPAddress, query.getValues().get(IPAddress))) {
+				completeScatterLookup(query.getRequestId());
+			}
+		}
+	}
+	
+	/**
+	 * Handle term insert query, inserting the pair and sending the query straight back to the issuing client.
+	 *
+	 * @param query the query
+	 */
+	private void handleTermInsertQuery(Query query) {
+		String key = query.getKey();
+		String value = query.getValue();
+		// If we are the issuing client, announce the machine the pair has been inserted at
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceInsertion(query);
+			return;
+		}
+		if (storage.insertIntoOwnerStorage(key, value)) {
+			query.addMachineIPWithOperation(ownIPAddress);
+			sendQuery(query, query.getQueryOriginMachineIP());
+		}
+	}
+	
+	/**
+	 * Handle term lookup query, sending the values straight back to the issuing client.
+	 *
+	 * @param query the query
+	 */
+	private void handleTermLookupQuery(Query query) {
+		String key = query.getKey();
+		// If we are the issuing client, announce the values
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceLookup(query);
+			return;
+		}
+		// The replicas of the key are kept here as well when its owner has failed
+		ArrayList<String> values = storage.lookup(key);
+		if (values != null) {
+			query.addValues(ownIPAddress, values);
+		}
+		sendQuery(query, query.getQueryOriginMachineIP());
+	}
+	
+	/**
+	 * Handle term delete query, deleting the key and sending the deleted values straight back to the issuing client.
+	 *
+	 * @param query the query
+	 */
+	private void handleTermDeleteQuery(Query query) {
+		String key = query.getKey();
+		// If we are the issuing client, announce the values deleted at the machine
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceTermDeletion(query);
+			return;
+		}
+		ArrayList<String> values = storage.lookup(key);
+		storage.deleteFromOwnerStorage(key);
+		if (values != null) {
+			query.addValues(ownIPAddress, values);
+		}
+		query.addMachineIPWithOperation(ownIPAddress);
+		sendQuery(query, query.getQueryOriginMachineIP());
+	}
+	
+	/**
+	 * Announce the values of a key partitioned by term deleted at a machine, unless the deletion is a pending
+	 * request whose future takes them.
+	 *
+	 * @param query the query, carrying the machine and the values deleted there, if the machine had the key
+	 */
+	private void announceTermDeletion(Query query) {
+		if (pendingRequests.addResponse(query)) {
+			return;
+		}
+		String key = query.getKey();
+		for (String IPAddress : query.getMachineIPsWithOperation()) {
+			ArrayList<String> deletedValues = query.getValues().get(IPAddress);
+			if (deletedValues == null) {
+				System.out.println("A value does not exist at the machine with IP: "+IPAddress+" for the key: "+key);
+				continue;
+			}
+			System.out.println("The following values for the key "+key+" has been deleted at the machine with IP: "+IPAddress);
+			for (String deletedValue : deletedValues) {
+				System.out.println(deletedValue);
+			}
+		}
+	}
+	
+	/**
+	 * Handle boolean lookup query.
+	 *
+	 * @param query the query
+	 */
+	private void handleBooleanLookupQuery(Query query) {
+		String key = query.getKey();
+		// If we are the issuing client, announce the matching values
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceLookupValues("the expression", key, query.getValues());
+			return;
+		}
+		// If this machine has values matching the expression, write them to the query and pass it
+		ArrayList<String> localValues = storage.lookupLocal(query.getBooleanExpression());
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+	
+	/**
+	 * Handle prefix lookup query.
+	 *
+	 * @param query the query
+	 */
+	private void handlePrefixLookupQuery(Query query) {
+		String prefix = query.getKey();
+		// If we are the issuing client, announce the values of the keys with the prefix
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceLookupValues("the keys starting with", prefix, query.getValues());
+			return;
+		}
+		// If this machine has values for keys with the prefix, write them to the query and pass it
+		ArrayList<String> localValues = storage.lookupLocalPrefix(prefix);
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+	
+	/**
+	 * Handle substring lookup query.
+	 *
+	 * @param query the query
+	 */
+	private void handleSubstringLookupQuery(Query query) {
+		String fragment = query.getKey();
+		// If we are the issuing client, announce the values of the keys containing the fragment
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceLookupValues("the keys containing", fragment, query.getValues());
+			return;
+		}
+		// If this machine has values for keys containing the fragment, write them to the query and pass it
+		ArrayList<String> localValues = storage.lookupLocalSubstring(fragment);
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+	
+	/**
+	 * Handle phrase lookup query.
+	 *
+	 * @param query the query
+	 */
+	private void handlePhraseLookupQuery(Query query) {
+		String phrase = query.getKey();
+		// If we are the issuing client, announce the titles containing the phrase
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceLookupValues("the phrase", "\""+phrase+"\"", query.getValues());
+			return;
+		}
+		// If this machine has titles containing the phrase, write them to the query and pass it
+		ArrayList<String> localValues = storage.lookupLocalPhrase(phrase);
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+	
+	/**
+	 * Handle lookup page query.
+	 *
+	 * @param query the query
+	 */
+	private void handleLookupPageQuery(Query query) {
+		String key = query.getKey();
+		LookupCursor lookupCursor = query.getLookupCursor();
+		// If we are the issuing client, announce the page and keep the cursor for the next one
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			if (query.getValues().size() > 0) {
+				announceLookupValues("the key", key, query.getValues());
+			} else {
+				System.out.println("No more values exist in the system for the key: "+key);
+			}
+			if (lookupCursor.isPageFull()) {
+				lastLookupCursor = lookupCursor;
+				System.out.println("Enter \"lookup next\" for the next page.");
+			}
+			return;
+		}
+		// If the page isn't full yet, add the next local values of the key to it and pass it, or send it
+		// straight back to the issuing client once it is full
+		ArrayList<String> localValues = new ArrayList<String>();
+		storage.lookupLocalPage(key, lookupCursor, localValues);
+		if (localValues.size() > 0) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, lookupCursor.isPageFull() ? query.getQueryOriginMachineIP() : nextNeighborIPAddress);
+	}
+	
+	/**
+	 * Handle lookup count query.
+	 *
+	 * @param query the query
+	 */
+	private void handleLookupCountQuery(Query query) {
+		String key = query.getKey();
+		// If we are the issuing client, announce the number of values found at every machine
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			HashMap<String, Integer> valueCounts = query.getValueCounts();
+			if (valueCounts.size() > 0) {
+				int totalValueCount = 0;
+				for (String machineIPWithOperation : valueCounts.keySet()) {
+					System.out.println(valueCounts.get(machineIPWithOperation)+" values for the key "+key+" has been found at the machine with IP: "+machineIPWithOperation);
+					totalValueCount += valueCounts.get(machineIPWithOperation);
+				}
+				System.out.println("The key "+key+" has "+totalValueCount+" values in the system.");
+			} else {
+				System.out.println("A value does not exist in the system for the key: "+key);
+			}
+			return;
+		}
+		// If this machine has values for the given key, write their number to the query and pass it
+		int localValueCount = storage.countLocal(key);
+		if (localValueCount > 0) {
+			query.addValueCount(ownIPAddress, localValueCount);
+		}
+		sendQuery(query, nextNeighborIPAddress);
+	}
+	
+	/**
+	 * Handle lookup limit query.
+	 *
+	 * @param query the query
+	 */
+	private void handleLookupLimitQuery(Query query) {
+		String key = query.getKey();
+		// If we are the issuing client, announce the values
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceLookupValues("the key", key, query.getValues());
+			return;
+		}
+		// Add the local values the limit still allows, and send the query straight back to the issuing
+		// client once the limit is met
+		ArrayList<String> localValues = storage.lookupLocal(key, query.getValueLimit() - query.getValueNumber());
+		if (localValues != null) {
+			query.addValues(ownIPAddress, localValues);
+		}
+		sendQuery(query, query.getValueNumber() >= query.getValueLimit() ? query.getQueryOriginMachineIP() : nextNeighborIPAddress);
+	}
+	
+	/**
+	 * Handle delete query.
+	 *
+	 * @param query the query
 	 */
 	private void handleDeleteQuery(Query query) {		
 		System.out.println("handleDeleteQuery");
@@ -572,18 +1658,8 @@ public class QueryHandler implements Runnable {
 		ArrayList<String> localValues = storage.lookupLocal(key);
 		// If we are the issuing client, if there is a value found for the given key and it is deleted, announce it
 		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
-			HashMap<String, ArrayList<String>> valuesMap = query.getValues();
-			Set<String> machineIPsWithOperation = valuesMap.keySet();
-			if (machineIPsWithOperation.size() > 0) {
-				for (String machineIPWithOperation : machineIPsWithOperation) {
-					ArrayList<String> foundValues = valuesMap.get(machineIPWithOperation);
-					System.out.println("The following values for the key "+key+" has been deleted at the machine with IP: "+machineIPWithOperation);
-					for (String foundValue : foundValues) {
-						System.out.println(foundValue);
-					}				
-				}
-			} else {
-				System.out.println("A value does not exist in the system for the key: "+key);
+			if (!pendingRequests.addResponse(query)) {
+				announceDeletedValues(key, query.getValues());
 			}
 			return;
 		}
@@ -599,6 +1675,173 @@ public class QueryHandler implements Runnable {
 		sendQuery(query, nextNeighborIPAddress);
 	}
 	
+	/**
+	 * Announces the values deleted at every machine for a key.
+	 *
+	 * @param key the key
+	 * @param valuesMap the values map
+	 */
+	private void announceDeletedValues(String key, HashMap<String, ArrayList<String>> valuesMap) {
+		Set<String> machineIPsWithOperation = valuesMap.keySet();
+		if (machineIPsWithOperation.size() > 0) {
+			for (String machineIPWithOperation : machineIPsWithOperation) {
+				ArrayList<String> foundValues = valuesMap.get(machineIPWithOperation);
+				System.out.println("The following values for the key "+key+" has been deleted at the machine with IP: "+machineIPWithOperation);
+				for (String foundValue : foundValues) {
+					System.out.println(foundValue);
+				}
+			}
+		} else {
+			System.out.println("A value does not exist in the system for the key: "+key);
+		}
+	}
+
+	/**
+	 * Handle batch round1 query.
+	 *
+	 * @param query the query
+	 */
+	private void handleBatchRound1Query(Query query) {
+		// If we are the issuing client, insert the new keys in a second lap, or announce the results if there are none
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			if (assignBatchStorages(query)) {
+				applyBatchInsertions(query);
+				query.setQueryType(QueryType.BATCH_ROUND_2);
+				sendQuery(query, nextNeighborIPAddress);
+			} else {
+				announceBatch(query);
+			}
+			return;
+		}
+		applyBatchOperations(query);
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Handle batch round2 query.
+	 *
+	 * @param query the query
+	 */
+	private void handleBatchRound2Query(Query query) {
+		// If we are the issuing client, announce the results of the operations
+		if (query.getQueryOriginMachineIP().equals(ownIPAddress)) {
+			announceBatch(query);
+			return;
+		}
+		applyBatchInsertions(query);
+		sendQuery(query, nextNeighborIPAddress);
+	}
+
+	/**
+	 * Does the operations of a batch in this machine in one pass, in their order: the local values of the
+	 * lookups are written to them, the keys of the deletions are deleted, and the values of the insertions
+	 * are inserted if their keys are here. The storage load is written for the insertions of new keys.
+	 *
+	 * @param query the query
+	 */
+	private void applyBatchOperations(Query query) {
+		boolean hasInsertion = false;
+		for (BatchOperation batchOperation : query.getBatchOperations()) {
+			String key = batchOperation.getKey();
+			if (batchOperation.getOperationType() == BatchOperationType.INSERT) {
+				hasInsertion = true;
+				if (storage.insertIfPresent(key, batchOperation.getValue()) == InsertResult.KEY_FOUND_IN_LOCAL) {
+					batchOperation.addMachineIPWithOperation(ownIPAddress);
+				}
+			} else if (batchOperation.getOperationType() == BatchOperationType.LOOKUP) {
+				ArrayList<String> localValues = storage.lookupLocal(key);
+				if (localValues != null) {
+					batchOperation.addValues(ownIPAddress, localValues);
+				}
+			} else {
+				ArrayList<String> localValues = storage.lookupLocal(key);
+				if (storage.lookup(key) != null) {
+					storage.delete(key);
+					if (localValues != null) {
+						batchOperation.addValues(ownIPAddress, localValues);
+					}
+				}
+			}
+		}
+		if (hasInsertion) {
+			query.updateStorageSize(ownIPAddress, storage.getLocalStorageSize());
+		}
+	}
+
+	/**
+	 * Chooses the storages of the insertions whose keys no machine has, spreading them over the least
+	 * loaded storages. The insertions of the same key are given the same storage.
+	 *
+	 * @param query the query
+	 * @return true, if there is an insertion of a new key
+	 */
+	private boolean assignBatchStorages(Query query) {
+		HashMap<String, Integer> storageSizes;
+		synchronized (query.getStorageSizes()) {
+			storageSizes = new HashMap<String, Integer>(query.getStorageSizes());
+		}
+		HashMap<String, String> keyStorageIPs = new HashMap<String, String>();
+		boolean hasNewKey = false;
+		for (BatchOperation batchOperation : query.getBatchOperations()) {
+			if (batchOperation.getOperationType() != BatchOperationType.INSERT || !batchOperation.getMachineIPsWithOperation().isEmpty()) {
+				continue;
+			}
+			String storageIP = keyStorageIPs.get(batchOperation.getKey());
+			if (storageIP == null) {
+				int minimumSize = Integer.MAX_VALUE;
+				for (Map.Entry<String, Integer> entry : storageSizes.entrySet()) {
+					if (entry.getValue() < minimumSize) {
+						minimumSize = entry.getValue();
+						storageIP = entry.getKey();
+					}
+				}
+				storageSizes.put(storageIP, minimumSize + 1);
+				keyStorageIPs.put(batchOperation.getKey(), storageIP);
+			}
+			batchOperation.setStorageIP(storageIP);
+			hasNewKey = true;
+		}
+		return hasNewKey;
+	}
+
+	/**
+	 * Inserts the new keys of a batch whose chosen storages this machine contains.
+	 *
+	 * @param query the query
+	 */
+	private void applyBatchInsertions(Query query) {
+		for (BatchOperation batchOperation : query.getBatchOperations()) {
+			String storageIP = batchOperation.getStorageIP();
+			if (storageIP != null && storage.getStorageKeyIPs().contains(storageIP)) {
+				storage.insert(batchOperation.getKey(), batchOperation.getValue(), storageIP);
+				// If the chosen storage is a local storage in this machine
+				if (storage.getLocalStorageIPs().contains(storageIP)) {
+					batchOperation.addMachineIPWithOperation(ownIPAddress);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Announces the results of the operations of a batch, in their order.
+	 *
+	 * @param query the query
+	 */
+	private void announceBatch(Query query) {
+		for (BatchOperation batchOperation : query.getBatchOperations()) {
+			String key = batchOperation.getKey();
+			if (batchOperation.getOperationType() == BatchOperationType.INSERT) {
+				for (String IPAddress : batchOperation.getMachineIPsWithOperation()) {
+					System.out.println("The key-value pair <"+key+", "+batchOperation.getValue()+"> has been inserted at the machine with IP: "+IPAddress);
+				}
+			} else if (batchOperation.getOperationType() == BatchOperationType.LOOKUP) {
+				announceLookupValues("the key", key, batchOperation.getValues());
+			} else {
+				announceDeletedValues(key, batchOperation.getValues());
+			}
+		}
+	}
+
 	/**
 	 * Send query to multiple machines.
 	 *
@@ -621,16 +1864,7 @@ public class QueryHandler implements Runnable {
 	 * @param destinationIPAddress the destination ip address
 	 */
 	private void sendQuery(Query query, String destinationIPAddress) {
-		try {
-			Socket socket = new Socket(destinationIPAddress, port);
-			ObjectOutputStream objectOutputStream = new ObjectOutputStream(socket.getOutputStream());
-			objectOutputStream.writeObject(query);
-			socket.close();
-		} catch (UnknownHostException e) {
-			return;
-		} catch (IOException e) {
-			return;
-		}
+		connectionPool.send(query, destinationIPAddress);
 	}
 	
 	/**
@@ -651,6 +1885,13 @@ public class QueryHandler implements Runnable {
 		storage.printStorage();
 	}
 
+	/**
+	 * Writes the snapshots of the modified storages.
+	 */
+	public void writeSnapshots() {
+		storage.writeSnapshots();
+	}
+
 	/**
 	 * Gets the storage sizes.
 	 *
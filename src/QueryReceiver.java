@@ -0,0 +1,24 @@
+// TODO: Auto-generated Javadoc
+/**
+ * The Interface QueryReceiver. Handles the queries received by a query server.
+ */
+public interface QueryReceiver {
+
+	/**
+	 * Receive query.
+	 *
+	 * @param query the query
+	 */
+	public void receiveQuery(Query query);
+
+	/**
+	 * Checks if the queries of a type are received right on the i/o thread reading them instead of by a
+	 * worker, which only suits the queries handled quickly and without waiting for any lock held long,
+	 * e.g. the liveness messages which must not wait behind the other queries.
+	 *
+	 * @param queryType the query type
+	 * @return true, if the queries are received on the i/o thread
+	 */
+	public boolean isReceivedInline(QueryType queryType);
+
+}
@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class QueryServer. Receives the queries the other machines send through their connection pools
+ * with a fixed number of threads, however many connections are open and however many queries arrive.
+ * One thread accepts the connections and hands each one to one of the i/o threads in turn. An i/o thread
+ * waits on a selector for any of its connections to become readable, reads whatever has arrived and cuts
+ * it into frames, so a connection never holds a thread while it is idle. Every complete frame is decoded
+ * and handled by the worker executor, which keeps the i/o threads free to read the other connections,
+ * except for the query types the receiver handles quickly, which are received right on the i/o thread,
+ * so the liveness messages are never queued behind the other queries.
+ */
+public class QueryServer {
+
+	/** The Constant MAXIMUM_FRAME_LENGTH. */
+	private static final int MAXIMUM_FRAME_LENGTH = 1 << 30;
+
+	/** The Constant READ_BUFFER_SIZE. */
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	/** The server socket channel. */
+	private ServerSocketChannel serverSocketChannel;
+
+	/** The i/o loops. */
+	private IOLoop[] IOLoops;
+
+	/** The worker executor, handling the received queries. */
+	private Executor workerExecutor;
+
+	/** The query receiver. */
+	private QueryReceiver queryReceiver;
+
+	/**
+	 * Instantiates a new query server, listening on a port.
+	 *
+	 * @param port the port
+	 * @param IOThreadNumber the i/o thread number
+	 * @param workerExecutor the worker executor
+	 * @param queryReceiver the query receiver
+	 * @throws IOException Signals that the port couldn't be listened on.
+	 */
+	public QueryServer(int port, int IOThreadNumber, Executor workerExecutor, QueryReceiver queryReceiver) throws IOException {
+		this.workerExecutor = workerExecutor;
+		this.queryReceiver = queryReceiver;
+		serverSocketChannel = ServerSocketChannel.open().bind(new InetSocketAddress(port));
+		IOLoops = new IOLoop[Math.max(1, IOThreadNumber)];
+		for (int i=0; i<IOLoops.length; i++) {
+			IOLoops[i] = new IOLoop();
+		}
+	}
+
+	/**
+	 * Starts the threads of the server.
+	 */
+	public void start() {
+		for (IOLoop loop : IOLoops) {
+			new Thread(loop).start();
+		}
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				acceptConnections();
+			}
+		}).start();
+	}
+
+	/**
+	 * Accepts the connections, spreading them over the i/o loops.
+	 */
+	private void acceptConnections() {
+		int nextIOLoop = 0;
+		while (true) {
+			try {
+				SocketChannel socketChannel = serverSocketChannel.accept();
+				socketChannel.configureBlocking(false);
+				socketChannel.socket().setTcpNoDelay(true);
+				IOLoops[nextIOLoop].add(socketChannel);
+				nextIOLoop = (nextIOLoop + 1) % IOLoops.length;
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Receives the query of a frame on the i/o thread if the receiver handles its type inline, and in
+	 * the worker executor otherwise.
+	 *
+	 * @param frame the frame
+	 * @param socketChannel the socket channel the frame is read from
+	 */
+	private void dispatch(final byte[] frame, final SocketChannel socketChannel) {
+		QueryType queryType = QueryCodec.peekQueryType(frame);
+		if (queryType != null && queryReceiver.isReceivedInline(queryType)) {
+			receive(frame, socketChannel);
+			return;
+		}
+		workerExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				receive(frame, socketChannel);
+			}
+		});
+	}
+
+	/**
+	 * Decodes a frame and receives its query. A connection sending a frame which isn't a query is closed,
+	 * like a connection sending an invalid frame length.
+	 *
+	 * @param frame the frame
+	 * @param socketChannel the socket channel the frame is read from
+	 */
+	private void receive(byte[] frame, SocketChannel socketChannel) {
+		Query query;
+		try {
+			query = QueryCodec.decode(frame);
+		} catch (IOException e) {
+			close(socketChannel);
+			return;
+		}
+		queryReceiver.receiveQuery(query);
+	}
+
+	/**
+	 * Closes a connection.
+	 *
+	 * @param socketChannel the socket channel
+	 */
+	private static void close(SocketChannel socketChannel) {
+		try {
+			socketChannel.close();
+		} catch (IOException e) {
+			// The connection is dropped either way
+		}
+	}
+
+	/**
+	 * The Class IOLoop. An i/o thread and the connections it reads.
+	 */
+	private class IOLoop implements Runnable {
+
+		/** The selector. */
+		private Selector selector;
+
+		/** The accepted connections waiting to be registered with the selector. */
+		private ConcurrentLinkedQueue<SocketChannel> acceptedChannels = new ConcurrentLinkedQueue<SocketChannel>();
+
+		/** The read buffer, shared by the connections of the loop. */
+		private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+		/**
+		 * Instantiates a new i/o loop.
+		 *
+		 * @throws IOException Signals that the selector couldn't be opened.
+		 */
+		public IOLoop() throws IOException {
+			selector = Selector.open();
+		}
+
+		/**
+		 * Adds an accepted connection. A channel can't be registered with a selector while the
+		 * selector is waiting, so it is registered by the loop once the selector is woken up.
+		 *
+		 * @param socketChannel the socket channel
+		 */
+		public void add(SocketChannel socketChannel) {
+			acceptedChannels.add(socketChannel);
+			selector.wakeup();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.lang.Runnable#run()
+		 */
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					selector.select();
+				} catch (IOException e) {
+					e.printStackTrace();
+					continue;
+				}
+				SocketChannel acceptedChannel;
+				while ((acceptedChannel = acceptedChannels.poll()) != null) {
+					try {
+						acceptedChannel.register(selector, SelectionKey.OP_READ, new FrameReader());
+					} catch (ClosedChannelException e) {
+						// The connection has been closed before it is read
+					}
+				}
+				Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+				while (iterator.hasNext()) {
+					SelectionKey selectionKey = iterator.next();
+					iterator.remove();
+					if (selectionKey.isValid() && selectionKey.isReadable()) {
+						read(selectionKey);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Reads what has arrived at a connection, dispatching every frame completed by it.
+		 *
+		 * @param selectionKey the selection key of the connection
+		 */
+		private void read(SelectionKey selectionKey) {
+			SocketChannel socketChannel = (SocketChannel) selectionKey.channel();
+			FrameReader frameReader = (FrameReader) selectionKey.attachment();
+			readBuffer.clear();
+			try {
+				if (socketChannel.read(readBuffer) < 0) {
+					selectionKey.cancel();
+					close(socketChannel);
+					return;
+				}
+				readBuffer.flip();
+				while (readBuffer.hasRemaining()) {
+					byte[] frame = frameReader.read(readBuffer);
+					if (frame != null) {
+						dispatch(frame, socketChannel);
+					}
+				}
+			} catch (IOException e) {
+				selectionKey.cancel();
+				close(socketChannel);
+			}
+		}
+	}
+
+	/**
+	 * The Class FrameReader. The frame a connection is in the middle of, its length followed by its bytes,
+	 * which may arrive in any number of reads.
+	 */
+	private static class FrameReader {
+
+		/** The length buffer. */
+		private ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+
+		/** The frame, or null while its length is read. */
+		private byte[] frame;
+
+		/** The number of bytes of the frame read. */
+		private int readByteNumber;
+
+		/**
+		 * Reads the bytes of the current frame from a buffer.
+		 *
+		 * @param buffer the buffer
+		 * @return the frame if it is complete, or null if the buffer has ended before it
+		 * @throws IOException Signals that the frame length is invalid.
+		 */
+		public byte[] read(ByteBuffer buffer) throws IOException {
+			if (frame == null) {
+				while (lengthBuffer.hasRemaining() && buffer.hasRemaining()) {
+					lengthBuffer.put(buffer.get());
+				}
+				if (lengthBuffer.hasRemaining()) {
+					return null;
+				}
+				int length = lengthBuffer.getInt(0);
+				if (length < 0 || length > MAXIMUM_FRAME_LENGTH) {
+					throw new IOException("Invalid frame length: "+length);
+				}
+				frame = new byte[length];
+				readByteNumber = 0;
+			}
+			int byteNumber = Math.min(buffer.remaining(), frame.length - readByteNumber);
+			buffer.get(frame, readByteNumber, byteNumber);
+			readByteNumber += byteNumber;
+			if (readByteNumber < frame.length) {
+				return null;
+			}
+			byte[] completedFrame = frame;
+			frame = null;
+			lengthBuffer.clear();
+			return completedFrame;
+		}
+	}
+
+}
@@ -17,9 +17,60 @@ public enum QueryType {
 	/** The INSER t_ roun d_2. */
 	INSERT_ROUND_2,
 	
+	/** The INSERT_DIRECT, an insertion sent straight to the least loaded machine of the load map and its replicas. */
+	INSERT_DIRECT,
+	
+	/** The INSERT_PROBE, an insertion sent to every machine at once, inserting the value only where the key is kept already. */
+	INSERT_PROBE,
+	
+	/** The INSERT_PROBE_RESPONSE, the answer of a machine to an insertion probe. */
+	INSERT_PROBE_RESPONSE,
+	
 	/** The LOOKUP. */
 	LOOKUP,
 	
+	/** The LOOKUP_COUNT, a lookup of the number of values of a key only. */
+	LOOKUP_COUNT,
+	
+	/** The LOOKUP_LIMIT, a lookup of at most a given number of values of a key. */
+	LOOKUP_LIMIT,
+	
+	/** The LOOKUP_PAGE, a lookup returning one page of the values at a time. */
+	LOOKUP_PAGE,
+	
+	/** The BOOLEAN_LOOKUP, a lookup of the titles matched by a boolean expression of keys. */
+	BOOLEAN_LOOKUP,
+	
+	/** The PREFIX_LOOKUP, a lookup of the titles of the keys starting with a prefix. */
+	PREFIX_LOOKUP,
+	
+	/** The SUBSTRING_LOOKUP, a lookup of the titles of the keys containing a fragment. */
+	SUBSTRING_LOOKUP,
+	
+	/** The PHRASE_LOOKUP, a lookup of the titles containing the keywords of a phrase consecutively. */
+	PHRASE_LOOKUP,
+	
+	/** The SCATTER_LOOKUP, a lookup sent by the issuing client straight to every machine. */
+	SCATTER_LOOKUP,
+	
+	/** The SCATTER_LOOKUP_RESPONSE, the local values of a machine sent back for a scatter lookup. */
+	SCATTER_LOOKUP_RESPONSE,
+	
+	/** The TERM_INSERT, an insertion sent straight to the machines keeping a key partitioned by term. */
+	TERM_INSERT,
+	
+	/** The TERM_LOOKUP, a lookup sent straight to a machine keeping a key partitioned by term. */
+	TERM_LOOKUP,
+	
+	/** The TERM_DELETE, a deletion sent straight to the machines keeping a key partitioned by term. */
+	TERM_DELETE,
+	
 	/** The DELETE. */
-	DELETE
+	DELETE,
+	
+	/** The BATCH_ROUND_1, a lap of the ring doing the lookups, deletions and insertions of existing keys of a batch. */
+	BATCH_ROUND_1,
+	
+	/** The BATCH_ROUND_2, a lap of the ring inserting the new keys of a batch into the storages chosen for them. */
+	BATCH_ROUND_2
 }
@@ -0,0 +1,82 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class ScatterLookup. A lookup the issuing client has sent to every machine at once, gathering the
+ * local values of the machines as their responses arrive. The lookup completes once every machine has
+ * responded or its deadline has passed, whichever comes first, and is announced exactly once.
+ */
+public class ScatterLookup {
+
+	/** The query, collecting the values of the machines. */
+	private Query query;
+
+	/** The machine i ps which haven't responded yet. */
+	private HashSet<String> awaitedMachineIPs;
+
+	/** The completed. */
+	private boolean completed;
+
+	/**
+	 * Instantiates a new scatter lookup.
+	 *
+	 * @param query the query
+	 * @param machineIPs the machine i ps the lookup is sent to
+	 */
+	public ScatterLookup(Query query, Collection<String> machineIPs) {
+		this.query = query;
+		this.awaitedMachineIPs = new HashSet<String>(machineIPs);
+	}
+
+	/**
+	 * Adds the response of a machine.
+	 *
+	 * @param IPAddress the iP address of the machine
+	 * @param localValues the local values of the machine, or null if it has none
+	 * @return true, if every machine has responded now
+	 */
+	public synchronized boolean addResponse(String IPAddress, ArrayList<String> localValues) {
+		if (completed || !awaitedMachineIPs.remove(IPAddress)) {
+			return false;
+		}
+		if (localValues != null) {
+			query.addValues(IPAddress, localValues);
+		}
+		return awaitedMachineIPs.isEmpty();
+	}
+
+	/**
+	 * Completes the lookup.
+	 *
+	 * @return true, if the lookup hasn't been completed before
+	 */
+	public synchronized boolean complete() {
+		if (completed) {
+			return false;
+		}
+		completed = true;
+		return true;
+	}
+
+	/**
+	 * Gets the query.
+	 *
+	 * @return the query
+	 */
+	public Query getQuery() {
+		return query;
+	}
+
+	/**
+	 * Gets the machine i ps which haven't responded yet.
+	 *
+	 * @return the awaited machine i ps
+	 */
+	public synchronized HashSet<String> getAwaitedMachineIPs() {
+		return new HashSet<String>(awaitedMachineIPs);
+	}
+
+}
@@ -1,23 +1,43 @@
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 // TODO: Auto-generated Javadoc
 /**
- * The Class Storage.
+ * The Class Storage. Lookups take no storage locks: the inner storages and the local storage i ps are kept in
+ * concurrent collections and every inner storage can be read while it is modified. Insertions and
+ * deletions lock the stripe of their key, so modifications of different keys run in parallel. Every key
+ * is indexed to the partitions, that is the inner storages, holding it, and the number of keys of every
+ * partition is counted, so an insertion or a deletion never probes or measures all the partitions.
+ * The local values of the recently looked up keys are cached, and a modification invalidates the
+ * cached values of its key once the key has been modified.
  */
 public class Storage {
 	
+	/** The Constant SNAPSHOT_WRITER_WAIT_PERIOD. */
+	private static final int SNAPSHOT_WRITER_WAIT_PERIOD = 60000;
+	
+	/** The Constant KEY_LOCK_NUMBER. */
+	private static final int KEY_LOCK_NUMBER = 256;
+	
 	/** The storage. */
-	private HashMap<String, HashMap<String, ArrayList<String>>> storage = new HashMap<String, HashMap<String, ArrayList<String>>>();
+	private ConcurrentHashMap<String, InnerStorage> storage = new ConcurrentHashMap<String, InnerStorage>();
 	
 	/** The local storage i ps. */
-	private HashSet<String> localStorageIPs = new HashSet<String>();
+	private Set<String> localStorageIPs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/** The key locks, a key is modified while holding the lock of its stripe. */
+	private Object[] keyLocks = new Object[KEY_LOCK_NUMBER];
 	
 	/** The data file name. */
 	private String dataFileName;
@@ -28,6 +48,48 @@ public class Storage {
 	/** The concurrent failure number. */
 	private int concurrentFailureNumber;
 	
+	/** The snapshot directory. */
+	private File snapshotDirectory;
+	
+	/** The dataset checksum. */
+	private long datasetChecksum;
+	
+	/** The dataset line ranges of the inner storages. */
+	private HashMap<String, int[]> storageLineRanges = new HashMap<String, int[]>();
+	
+	/** The write ahead log. */
+	private WriteAheadLog writeAheadLog;
+	
+	/** The i ps of the inner storages modified since their last snapshot. */
+	private HashSet<String> modifiedStorageIPs = new HashSet<String>();
+	
+	/** The partition i ps, the i ps of the inner storages in the order of their partition indexes. */
+	private String[] partitionIPs;
+	
+	/** The partition indexes of the i ps. */
+	private HashMap<String, Integer> partitionIndexes = new HashMap<String, Integer>();
+	
+	/** The numbers of keys of the partitions. */
+	private AtomicInteger[] partitionSizes;
+	
+	/** The key partitions, the bitmask of the partition indexes holding each key. */
+	private ConcurrentHashMap<String, Long> keyPartitions = new ConcurrentHashMap<String, Long>();
+	
+	/** The term dictionary, the keys in sorted order. */
+	private TermDictionary termDictionary;
+	
+	/** The n-gram index of the keys, or null if it is disabled. */
+	private NGramIndex nGramIndex;
+	
+	/** The position indexes of the partitions, or null if they are disabled. */
+	private PositionIndex[] positionIndexes;
+	
+	/** The consistent hash ring the keys are assigned to the machines by, or null if the keys are partitioned by document. */
+	private ConsistentHashRing consistentHashRing;
+	
+	/** The lookup cache of the local values, or null if it is disabled. */
+	private LookupCache lookupCache;
+	
 	/**
 	 * Instantiates a new storage.
 	 *
@@ -37,117 +99,501 @@ public class Storage {
 	 * @param concurrentFailureNumber the concurrent failure number
 	 */
 	public Storage(String dataFileName, ArrayList<String> systemIPList, String ownIPAddress, int concurrentFailureNumber) {
+		if (concurrentFailureNumber >= Long.SIZE) {
+			throw new IllegalArgumentException("At most "+(Long.SIZE-1)+" concurrent failures can be tolerated.");
+		}
 		this.dataFileName = dataFileName;
 		this.ownIPAddress = ownIPAddress;
 		this.concurrentFailureNumber = concurrentFailureNumber;
 		localStorageIPs.add(ownIPAddress);
-		buildStorage(systemIPList);
+		for (int i=0; i<KEY_LOCK_NUMBER; i++) {
+			keyLocks[i] = new Object();
+		}
+		if ("term".equals(Configuration.getPartitionMode())) {
+			consistentHashRing = new ConsistentHashRing(systemIPList, Configuration.getVirtualNodeNumber());
+			// The snapshots of another assignment of the keys hold other keys, so they are kept apart
+			this.snapshotDirectory = new File(new File(dataFileName + ".snapshots", "term-"+Long.toHexString(consistentHashRing.getSignature())), ownIPAddress);
+			buildTermStorage();
+		} else {
+			this.snapshotDirectory = new File(dataFileName + ".snapshots", ownIPAddress);
+			buildStorage(systemIPList);
+		}
+		openWriteAheadLog();
+		buildKeyPartitionIndex();
+		if (Configuration.getLookupCacheMaximumWeight() > 0) {
+			lookupCache = new LookupCache(Configuration.getLookupCacheMaximumWeight());
+		}
+		startSnapshotWriter();
 	}
 	
 	/**
-	 * Builds the storage.
+	 * Builds the storage. The line structure of the file is scanned once and then the local and replica
+	 * ranges are read from their snapshots, or parsed from the dataset when they have no valid snapshot,
+	 * together in the fork-join pool of the dataset loader.
 	 *
 	 * @param systemIPList the system ip list
 	 */
 	private void buildStorage(ArrayList<String> systemIPList) {
-		int totalLineNumber = getLineNumberOfFile();
+		final DatasetLoader datasetLoader;
+		try {
+			datasetLoader = new DatasetLoader(dataFileName);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		datasetChecksum = datasetLoader.getLineOffsetIndex().getChecksum();
+		int totalLineNumber = datasetLoader.getLineNumber();
 		float index = systemIPList.indexOf(ownIPAddress);
 		float size = systemIPList.size();
+		HashMap<String, ForkJoinTask<InnerStorage>> dataFileReaders = new HashMap<String, ForkJoinTask<InnerStorage>>();
 		for (int i=0; i<concurrentFailureNumber+1; i++) {
 			final String IPAddress = systemIPList.get((int) index);
 			final int startLineNumber = (int)(((index) / size) * (float)totalLineNumber);
 			final int endLineNumber = (int)(((index+1.0) / size) * (float)totalLineNumber);
-			Thread dataFileReader = new Thread(new Runnable() {	
+			String isLocal = localStorageIPs.contains(IPAddress) ? "local" : "replica";
+			System.out.println("Started building the " +isLocal+" storage for IP: "+IPAddress+" | startLine: "+startLineNumber+ " endLine: " +endLineNumber);
+			storageLineRanges.put(IPAddress, new int[] {startLineNumber, endLineNumber});
+			dataFileReaders.put(IPAddress, datasetLoader.getForkJoinPool().submit(new Callable<InnerStorage>() {
 				@Override
-				public void run() {
-					readDataFile(IPAddress, startLineNumber, endLineNumber);					
+				public InnerStorage call() throws Exception {
+					try {
+						HeapInnerStorage innerStorage = StorageSnapshot.read(getSnapshotFile(IPAddress), datasetChecksum, startLineNumber, endLineNumber);
+						if (innerStorage != null) {
+							System.out.println("Read the snapshot of the storage for IP: "+IPAddress);
+							return toStorageEngine(innerStorage);
+						}
+					} catch (IOException e) {
+						System.out.println("The snapshot of the storage for IP: "+IPAddress+" couldn't be read: "+e.getMessage());
+					}
+					synchronized (modifiedStorageIPs) {
+						modifiedStorageIPs.add(IPAddress);
+					}
+					HeapInnerStorage innerStorage = datasetLoader.load(startLineNumber, endLineNumber).join();
+					innerStorage.trim();
+					return toStorageEngine(innerStorage);
 				}
-			});
-			dataFileReader.start();
+			}));
 			index--;
 			if (index < 0) {
 				index += systemIPList.size();
 			}
 		}
+		for (String IPAddress : dataFileReaders.keySet()) {
+			storage.put(IPAddress, dataFileReaders.get(IPAddress).join());
+			String isLocal = localStorageIPs.contains(IPAddress) ? "local" : "replica";
+			System.out.println("Built the " +isLocal+" storage for IP: "+IPAddress);
+		}
+		datasetLoader.shutdown();
 	}
 	
 	/**
-	 * Read data file.
-	 *
-	 * @param IPAddress the iP address
-	 * @param startLineNumber the start line number
-	 * @param endLineNumber the end line number
-	 */
-	private void readDataFile(String IPAddress, int startLineNumber, int endLineNumber) {
-		String isLocal = localStorageIPs.contains(IPAddress) ? "local" : "replica";
-		System.out.println("Started building the " +isLocal+" storage for IP: "+IPAddress+" | startLine: "+startLineNumber+ " endLine: " +endLineNumber);
-		HashMap<String, ArrayList<String>> innerStorage = new HashMap<String, ArrayList<String>>();
-		storage.put(IPAddress, innerStorage);
-	    Scanner scanner = null;
+	 * Builds the storage partitioned by term. Every machine keeps an inner storage for every owner of the keys
+	 * it holds, that is itself and the machines it holds replicas for, and every key is kept in the inner
+	 * storage of its owner. The inner storages without a valid snapshot are built from the whole dataset: it
+	 * is parsed once and the keys are shuffled into the inner storages of their owners, each of which keeps
+	 * only the titles of its keys. Every machine reads the dataset file itself, so no posting is sent over
+	 * the network.
+	 */
+	private void buildTermStorage() {
+		final DatasetLoader datasetLoader;
 		try {
-			scanner = new Scanner(new FileInputStream(dataFileName), "UTF-8");
-            int currentLineNumber = 0;
-		    while (scanner.hasNextLine() && currentLineNumber <= endLineNumber){
-		    	if (currentLineNumber <= startLineNumber) {
-		    		scanner.nextLine();
-		    		currentLineNumber++;
-		    		continue;
-		    	}
-		    	String movie = scanner.nextLine();
-                movie = movie.replace("\"", "");
-                String[] keys = movie.split(" ");
-                for (int i=0; i<keys.length; i++) {
-                	String key = keys[i];
-                    if (innerStorage.containsKey(key)) {
-                    	ArrayList<String> values = innerStorage.get(key);
-                    	values.add(movie);
-                    } else {
-                    	ArrayList<String> values = new ArrayList<String>();
-                    	values.add(movie);
-                    	innerStorage.put(key, values);
-                    }
-                }
-                currentLineNumber++;
-			}
-		} catch (FileNotFoundException e) {
+			datasetLoader = new DatasetLoader(dataFileName);
+		} catch (IOException e) {
 			e.printStackTrace();
-		} finally {
-	      scanner.close();
-	    }
-		System.out.println("Built the " +isLocal+" storage for IP: "+IPAddress);
+			return;
+		}
+		datasetChecksum = datasetLoader.getLineOffsetIndex().getChecksum();
+		int totalLineNumber = datasetLoader.getLineNumber();
+		HashSet<String> ownerIPs = consistentHashRing.getOwnersHeldBy(ownIPAddress, concurrentFailureNumber + 1);
+		if (ownerIPs.size() >= Long.SIZE) {
+			throw new IllegalArgumentException("At most "+(Long.SIZE-1)+" machines can be partitioned by term.");
+		}
+		HashSet<String> unbuiltOwnerIPs = new HashSet<String>();
+		for (String IPAddress : ownerIPs) {
+			storageLineRanges.put(IPAddress, new int[] {0, totalLineNumber});
+			try {
+				HeapInnerStorage innerStorage = StorageSnapshot.read(getSnapshotFile(IPAddress), datasetChecksum, 0, totalLineNumber);
+				if (innerStorage != null) {
+					System.out.println("Read the snapshot of the storage for IP: "+IPAddress);
+					storage.put(IPAddress, toStorageEngine(innerStorage));
+					continue;
+				}
+			} catch (IOException e) {
+				System.out.println("The snapshot of the storage for IP: "+IPAddress+" couldn't be read: "+e.getMessage());
+			}
+			unbuiltOwnerIPs.add(IPAddress);
+		}
+		if (unbuiltOwnerIPs.size() > 0) {
+			System.out.println("Started building the term partitioned storages for IPs: "+unbuiltOwnerIPs+" | startLine: 0 endLine: "+totalLineNumber);
+			HeapInnerStorage datasetStorage;
+			try {
+				datasetStorage = datasetLoader.load(0, totalLineNumber).join();
+			} catch (IOException e) {
+				e.printStackTrace();
+				datasetStorage = new HeapInnerStorage();
+			}
+			HashMap<String, HeapInnerStorage> ownerStorages = partitionByOwner(datasetStorage, unbuiltOwnerIPs);
+			for (String IPAddress : unbuiltOwnerIPs) {
+				markModified(IPAddress);
+				storage.put(IPAddress, toStorageEngine(ownerStorages.get(IPAddress)));
+				String isLocal = localStorageIPs.contains(IPAddress) ? "local" : "replica";
+				System.out.println("Built the " +isLocal+" storage for IP: "+IPAddress);
+			}
+		}
+		datasetLoader.shutdown();
 	}
 	
 	/**
-	 * Insert.
+	 * Partitions the keys held by this machine by their owners. The titles of an owner are renumbered in the
+	 * order of their document ids in the dataset, so the posting lists stay ascending.
+	 *
+	 * @param datasetStorage the inner storage of the whole dataset
+	 * @param ownerIPs the i ps of the owners to partition the keys of
+	 * @return the inner storages of the owners
+	 */
+	private HashMap<String, HeapInnerStorage> partitionByOwner(HeapInnerStorage datasetStorage, Set<String> ownerIPs) {
+		HashMap<String, ArrayList<String>> ownerKeys = new HashMap<String, ArrayList<String>>();
+		HashMap<String, BitSet> ownerDocumentIds = new HashMap<String, BitSet>();
+		for (String IPAddress : ownerIPs) {
+			ownerKeys.put(IPAddress, new ArrayList<String>());
+			ownerDocumentIds.put(IPAddress, new BitSet());
+		}
+		for (String key : datasetStorage.keySet()) {
+			ArrayList<String> owners = consistentHashRing.getOwners(key, concurrentFailureNumber + 1);
+			if (!owners.contains(ownIPAddress) || !ownerIPs.contains(owners.get(0))) {
+				continue;
+			}
+			ownerKeys.get(owners.get(0)).add(key);
+			BitSet documentIds = ownerDocumentIds.get(owners.get(0));
+			for (int documentId : datasetStorage.getPostingList(key).toArray()) {
+				documentIds.set(documentId);
+			}
+		}
+		HashMap<String, HeapInnerStorage> ownerStorages = new HashMap<String, HeapInnerStorage>();
+		int[] ownerDocumentIdMap = new int[datasetStorage.getTitleNumber()];
+		for (String IPAddress : ownerIPs) {
+			HeapInnerStorage innerStorage = new HeapInnerStorage();
+			BitSet documentIds = ownerDocumentIds.get(IPAddress);
+			for (int documentId = documentIds.nextSetBit(0); documentId >= 0; documentId = documentIds.nextSetBit(documentId + 1)) {
+				byte[] title = datasetStorage.getTitleBytes(documentId);
+				ownerDocumentIdMap[documentId] = innerStorage.getTitleDictionary().append(title, 0, title.length);
+			}
+			for (String key : ownerKeys.get(IPAddress)) {
+				for (int documentId : datasetStorage.getPostingList(key).toArray()) {
+					innerStorage.addDocumentId(key, ownerDocumentIdMap[documentId]);
+				}
+			}
+			innerStorage.trim();
+			ownerStorages.put(IPAddress, innerStorage);
+		}
+		return ownerStorages;
+	}
+	
+	/**
+	 * Builds the key partition index, the partition sizes, the term dictionary, the n-gram index and the
+	 * position indexes from the inner storages.
+	 */
+	private void buildKeyPartitionIndex() {
+		partitionIPs = storage.keySet().toArray(new String[storage.size()]);
+		partitionSizes = new AtomicInteger[partitionIPs.length];
+		for (int i=0; i<partitionIPs.length; i++) {
+			InnerStorage innerStorage = storage.get(partitionIPs[i]);
+			partitionIndexes.put(partitionIPs[i], i);
+			partitionSizes[i] = new AtomicInteger(innerStorage.size());
+			for (String key : innerStorage.keySet()) {
+				Long partitions = keyPartitions.get(key);
+				keyPartitions.put(key, (partitions == null ? 0L : partitions) | (1L << i));
+			}
+		}
+		termDictionary = new TermDictionary(keyPartitions.keySet());
+		if (Configuration.isNGramIndexEnabled()) {
+			nGramIndex = new NGramIndex(keyPartitions.keySet());
+		}
+		if (Configuration.isPositionIndexEnabled()) {
+			positionIndexes = new PositionIndex[partitionIPs.length];
+			for (int i=0; i<partitionIPs.length; i++) {
+				positionIndexes[i] = new PositionIndex();
+				positionIndexes[i].update(storage.get(partitionIPs[i]));
+			}
+		}
+	}
+	
+	/**
+	 * Converts a built inner storage to the storage engine given by the configuration.
+	 *
+	 * @param heapInnerStorage the heap inner storage
+	 * @return the inner storage
+	 */
+	private static InnerStorage toStorageEngine(HeapInnerStorage heapInnerStorage) {
+		if ("offheap".equals(Configuration.getStorageEngine())) {
+			return new OffHeapInnerStorage(heapInnerStorage);
+		}
+		return heapInnerStorage;
+	}
+	
+	/**
+	 * Starts the snapshot writer which periodically writes the snapshots of the modified inner storages,
+	 * and writes them once more when the program is terminated.
+	 */
+	private void startSnapshotWriter() {
+		Thread snapshotWriter = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					writeSnapshots();
+					try {
+						Thread.sleep(SNAPSHOT_WRITER_WAIT_PERIOD);
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+		snapshotWriter.setDaemon(true);
+		snapshotWriter.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeSnapshots();
+			}
+		}));
+	}
+	
+	/**
+	 * Writes the snapshots of the inner storages modified since their last snapshot. The write-ahead log
+	 * is rotated before the modified storages are taken, and its old segments are deleted once every
+	 * snapshot is written. A modification marks its storage before its record is appended, so a record in
+	 * an old segment belongs to a storage taken for this round, whose snapshot holds the modification.
+	 * Modifications go on while the snapshots are written: the ones logged after the rotation are replayed
+	 * on top of the snapshots, which is harmless for the ones a snapshot already holds, since replaying an
+	 * insertion or a deletion twice has no further effect.
+	 */
+	public synchronized void writeSnapshots() {
+		synchronized (modifiedStorageIPs) {
+			if (modifiedStorageIPs.isEmpty()) {
+				return;
+			}
+		}
+		if (!snapshotDirectory.isDirectory() && !snapshotDirectory.mkdirs()) {
+			System.out.println("The snapshot directory "+snapshotDirectory+" couldn't be created.");
+			return;
+		}
+		long lastLogSegmentNumber = -1;
+		if (writeAheadLog != null) {
+			try {
+				lastLogSegmentNumber = writeAheadLog.rotate();
+			} catch (IOException e) {
+				System.out.println("The write-ahead log couldn't be rotated: "+e.getMessage());
+			}
+		}
+		HashSet<String> IPAddresses;
+		synchronized (modifiedStorageIPs) {
+			IPAddresses = new HashSet<String>(modifiedStorageIPs);
+			modifiedStorageIPs.clear();
+		}
+		boolean writtenAllSnapshots = true;
+		for (String IPAddress : IPAddresses) {
+			int[] lineRange = storageLineRanges.get(IPAddress);
+			try {
+				StorageSnapshot.write(getSnapshotFile(IPAddress), storage.get(IPAddress), datasetChecksum, lineRange[0], lineRange[1]);
+			} catch (IOException e) {
+				System.out.println("The snapshot of the storage for IP: "+IPAddress+" couldn't be written: "+e.getMessage());
+				markModified(IPAddress);
+				writtenAllSnapshots = false;
+			}
+		}
+		if (writtenAllSnapshots && lastLogSegmentNumber >= 0) {
+			writeAheadLog.deleteSegments(lastLogSegmentNumber);
+		}
+	}
+	
+	/**
+	 * Replays the write-ahead log on top of the inner storages read from the snapshots or the dataset,
+	 * and opens it for the following modifications.
+	 */
+	private void openWriteAheadLog() {
+		writeAheadLog = new WriteAheadLog(snapshotDirectory, Configuration.getWalFsyncBatchSize(), Configuration.getWalFsyncInterval());
+		int replayedRecordNumber = writeAheadLog.replay(new WriteAheadLog.Replayer() {
+			@Override
+			public void insert(String IPAddress, String key, String value) {
+				InnerStorage innerStorage = storage.get(IPAddress);
+				if (innerStorage == null) {
+					return;
+				}
+				innerStorage.add(key, value);
+				markModified(IPAddress);
+			}
+			
+			@Override
+			public void delete(String IPAddress, String key) {
+				InnerStorage innerStorage = storage.get(IPAddress);
+				if (innerStorage != null && innerStorage.remove(key)) {
+					markModified(IPAddress);
+				}
+			}
+		});
+		if (replayedRecordNumber > 0) {
+			System.out.println("Replayed "+replayedRecordNumber+" insertions and deletions from the write-ahead log.");
+		}
+		try {
+			writeAheadLog.open();
+		} catch (IOException e) {
+			System.out.println("The write-ahead log couldn't be opened, the modifications will only be kept by the snapshots: "+e.getMessage());
+			writeAheadLog = null;
+		}
+	}
+	
+	/**
+	 * Gets the snapshot file.
+	 *
+	 * @param IPAddress the iP address
+	 * @return the snapshot file
+	 */
+	private File getSnapshotFile(String IPAddress) {
+		return new File(snapshotDirectory, IPAddress + StorageSnapshot.SNAPSHOT_FILE_SUFFIX);
+	}
+	
+	/**
+	 * Marks the inner storage as modified since its last snapshot.
+	 *
+	 * @param IPAddress the iP address
+	 */
+	private void markModified(String IPAddress) {
+		synchronized (modifiedStorageIPs) {
+			modifiedStorageIPs.add(IPAddress);
+		}
+	}
+	
+	/**
+	 * Logs an insertion applied to an inner storage.
+	 *
+	 * @param IPAddress the iP address
+	 * @param key the key
+	 * @param value the value
+	 */
+	private void logInsert(String IPAddress, String key, String value) {
+		// Marked first, so a snapshot round deleting the segment of the record writes the storage
+		markModified(IPAddress);
+		if (writeAheadLog != null) {
+			writeAheadLog.appendInsert(IPAddress, key, value);
+		}
+	}
+	
+	/**
+	 * Logs a deletion applied to an inner storage.
+	 *
+	 * @param IPAddress the iP address
+	 * @param key the key
+	 */
+	private void logDelete(String IPAddress, String key) {
+		// Marked first, so a snapshot round deleting the segment of the record writes the storage
+		markModified(IPAddress);
+		if (writeAheadLog != null) {
+			writeAheadLog.appendDelete(IPAddress, key);
+		}
+	}
+	
+	/**
+	 * Gets the lock of the stripe of a key.
+	 *
+	 * @param key the key
+	 * @return the key lock
+	 */
+	private Object getKeyLock(String key) {
+		int hash = key.hashCode();
+		return keyLocks[(hash ^ (hash >>> 16)) & (KEY_LOCK_NUMBER - 1)];
+	}
+	
+	/**
+	 * Insert. The value is added to the partitions already holding the key, or to the partition with the
+	 * fewest keys when the key is new.
 	 *
 	 * @param key the key
 	 * @param value the value
 	 */
 	public void insert(String key, String value) {
-		synchronized (storage) {
-			boolean overwrittenTheKey = false;
-			Set<String> allStorageIPs = storage.keySet();
-			for (String IPAddress : allStorageIPs) {
-				if (storage.get(IPAddress).containsKey(key)) {
-					storage.get(IPAddress).get(key).add(value);
-					overwrittenTheKey = true;
-				}
+		insert(key, value, null);
+	}
+	
+	/**
+	 * Insert. The value is added to the partition of the given storage, whichever other partitions hold the
+	 * key, so every machine keeping the storage puts the pair into it. Without a storage kept here, the
+	 * value is added as by insert(key, value).
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @param storageIP the iP address of the storage, or null
+	 */
+	public void insert(String key, String value, String storageIP) {
+		Integer storagePartition = storageIP == null ? null : partitionIndexes.get(storageIP);
+		synchronized (getKeyLock(key)) {
+			if (storagePartition != null) {
+				insertIntoPartition(storagePartition, key, value);
+				invalidateLookupCache(key);
+				return;
 			}
-			if (overwrittenTheKey) {
+			if (insertIntoPartitions(key, value) != InsertResult.KEY_NOT_FOUND) {
+				invalidateLookupCache(key);
 				return;
 			}
-			int smallestSize = Integer.MAX_VALUE;
-			String IPAddressWithSmallestSize = null;
-			for (String IPAddress : allStorageIPs) {
-				if (storage.get(IPAddress).size() < smallestSize) {
-					IPAddressWithSmallestSize = IPAddress;
-					smallestSize = storage.get(IPAddress).size();
+			int smallestPartition = 0;
+			for (int i=1; i<partitionIPs.length; i++) {
+				if (partitionSizes[i].get() < partitionSizes[smallestPartition].get()) {
+					smallestPartition = i;
+				}
+			}
+			storage.get(partitionIPs[smallestPartition]).add(key, value);
+			logInsert(partitionIPs[smallestPartition], key, value);
+			partitionSizes[smallestPartition].incrementAndGet();
+			keyPartitions.put(key, 1L << smallestPartition);
+			termDictionary.add(key);
+			if (nGramIndex != null) {
+				nGramIndex.add(key);
+			}
+			invalidateLookupCache(key);
+		}
+	}
+	
+	/**
+	 * Inserts the value into the partitions holding the key, doing nothing if no partition holds it. A
+	 * partition whose key already has the value is left as it is.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return where the key has been found
+	 */
+	public InsertResult insertIfPresent(String key, String value) {
+		synchronized (getKeyLock(key)) {
+			InsertResult insertResult = insertIntoPartitions(key, value);
+			if (insertResult != InsertResult.KEY_NOT_FOUND) {
+				invalidateLookupCache(key);
+			}
+			return insertResult;
+		}
+	}
+	
+	/**
+	 * Inserts the value into the partitions holding the key while holding the lock of its stripe.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return where the key has been found
+	 */
+	private InsertResult insertIntoPartitions(String key, String value) {
+		Long partitions = keyPartitions.get(key);
+		if (partitions == null) {
+			return InsertResult.KEY_NOT_FOUND;
+		}
+		boolean isFoundInLocal = false;
+		for (int i=0; i<partitionIPs.length; i++) {
+			if ((partitions & (1L << i)) != 0) {
+				if (storage.get(partitionIPs[i]).add(key, value)) {
+					logInsert(partitionIPs[i], key, value);
 				}
-			}	
-			ArrayList<String> values = new ArrayList<String>();
-			values.add(value);
-			storage.get(IPAddressWithSmallestSize).put(key, values);				
+				isFoundInLocal |= localStorageIPs.contains(partitionIPs[i]);
+			}
 		}
+		return isFoundInLocal ? InsertResult.KEY_FOUND_IN_LOCAL : InsertResult.KEY_FOUND_IN_REPLICA;
 	}
 
 	/**
@@ -168,21 +614,261 @@ public class Storage {
 	 * @return the array list
 	 */
 	public ArrayList<String> lookupLocal(String key) {
-		return lookupImpl(key, localStorageIPs);
+		if (lookupCache == null) {
+			return lookupImpl(key, localStorageIPs);
+		}
+		ArrayList<String> cachedValues = lookupCache.get(key);
+		if (cachedValues != null) {
+			return cachedValues.size() == 0 ? null : new ArrayList<String>(cachedValues);
+		}
+		long generation = lookupCache.getGeneration(key);
+		ArrayList<String> values = lookupImpl(key, localStorageIPs);
+		lookupCache.put(key, values == null ? new ArrayList<String>() : new ArrayList<String>(values), generation);
+		return values;
 	}
 	
 	/**
-	 * Lookup impl.
+	 * Looks up at most the given number of local values of a key, resolving only the titles returned.
+	 *
+	 * @param key the key
+	 * @param limit the limit
+	 * @return the array list
+	 */
+	public ArrayList<String> lookupLocal(String key, int limit) {
+		Long partitions = keyPartitions.get(key);
+		if (partitions == null || limit <= 0) {
+			return null;
+		}
+		ArrayList<String> values = new ArrayList<String>();
+		for (int i=0; i<partitionIPs.length && values.size() < limit; i++) {
+			if ((partitions & (1L << i)) == 0 || !localStorageIPs.contains(partitionIPs[i])) {
+				continue;
+			}
+			InnerStorage innerStorage = storage.get(partitionIPs[i]);
+			PostingIterator iterator = innerStorage.getPostingIterator(key);
+			if (iterator == null) {
+				continue;
+			}
+			for (int documentId = iterator.nextDocumentId(); documentId != PostingIterator.NO_MORE_DOCUMENTS && values.size() < limit; documentId = iterator.nextDocumentId()) {
+				values.add(innerStorage.getTitle(documentId));
+			}
+		}
+		if (values.size() == 0) {
+			return null;
+		}
+		return values;
+	}
+	
+	/**
+	 * Counts the local values of a key without resolving them.
+	 *
+	 * @param key the key
+	 * @return the value number
+	 */
+	public int countLocal(String key) {
+		Long partitions = keyPartitions.get(key);
+		int valueNumber = 0;
+		for (int i=0; partitions != null && i<partitionIPs.length; i++) {
+			if ((partitions & (1L << i)) != 0 && localStorageIPs.contains(partitionIPs[i])) {
+				valueNumber += storage.get(partitionIPs[i]).getValueNumber(key);
+			}
+		}
+		return valueNumber;
+	}
+	
+	/**
+	 * Looks up the local titles matched by a boolean expression of keys. The expression is evaluated over
+	 * the postings of every local storage and only the titles of the matching document ids are resolved.
+	 *
+	 * @param expression the expression
+	 * @return the array list
+	 */
+	public ArrayList<String> lookupLocal(BooleanExpression expression) {
+		ArrayList<String> values = new ArrayList<String>();
+		for (int i=0; i<partitionIPs.length; i++) {
+			if (!localStorageIPs.contains(partitionIPs[i])) {
+				continue;
+			}
+			InnerStorage innerStorage = storage.get(partitionIPs[i]);
+			PostingIterator iterator = expression.iterator(innerStorage);
+			if (iterator == null) {
+				continue;
+			}
+			for (int documentId = iterator.nextDocumentId(); documentId != PostingIterator.NO_MORE_DOCUMENTS; documentId = iterator.nextDocumentId()) {
+				values.add(innerStorage.getTitle(documentId));
+			}
+		}
+		if (values.size() == 0) {
+			return null;
+		}
+		return values;
+	}
+	
+	/**
+	 * Looks up the local titles containing the keywords of a phrase consecutively. The titles having all
+	 * the keywords are found by intersecting their postings, filtered through the position index when it
+	 * is enabled, and verified against the keywords of their titles.
+	 *
+	 * @param phrase the phrase
+	 * @return the array list
+	 */
+	public ArrayList<String> lookupLocalPhrase(String phrase) {
+		String[] phraseKeywords = phrase.split(" ");
+		if (phraseKeywords.length == 0) {
+			return null;
+		}
+		BooleanExpression[] keywordExpressions = new BooleanExpression[phraseKeywords.length];
+		for (int i=0; i<phraseKeywords.length; i++) {
+			keywordExpressions[i] = BooleanExpression.key(phraseKeywords[i]);
+		}
+		BooleanExpression expression = BooleanExpression.and(keywordExpressions);
+		int[] phraseHashes = PositionIndex.getKeywordHashes(phraseKeywords);
+		ArrayList<String> values = new ArrayList<String>();
+		for (int i=0; i<partitionIPs.length; i++) {
+			if (!localStorageIPs.contains(partitionIPs[i])) {
+				continue;
+			}
+			InnerStorage innerStorage = storage.get(partitionIPs[i]);
+			PostingIterator iterator = expression.iterator(innerStorage);
+			if (iterator == null) {
+				continue;
+			}
+			PositionIndex positionIndex = positionIndexes == null ? null : positionIndexes[i];
+			if (positionIndex != null) {
+				positionIndex.update(innerStorage);
+			}
+			for (int documentId = iterator.nextDocumentId(); documentId != PostingIterator.NO_MORE_DOCUMENTS; documentId = iterator.nextDocumentId()) {
+				if (positionIndex != null && !positionIndex.mayContain(documentId, phraseHashes)) {
+					continue;
+				}
+				String title = innerStorage.getTitle(documentId);
+				if (containsPhrase(title.split(" "), phraseKeywords)) {
+					values.add(title);
+				}
+			}
+		}
+		if (values.size() == 0) {
+			return null;
+		}
+		return values;
+	}
+	
+	/**
+	 * Checks if the keywords of a title contain the keywords of a phrase consecutively.
+	 *
+	 * @param titleKeywords the title keywords
+	 * @param phraseKeywords the phrase keywords
+	 * @return true, if the title contains the phrase
+	 */
+	private static boolean containsPhrase(String[] titleKeywords, String[] phraseKeywords) {
+		for (int start=0; start + phraseKeywords.length <= titleKeywords.length; start++) {
+			int i = 0;
+			while (i < phraseKeywords.length && titleKeywords[start+i].equals(phraseKeywords[i])) {
+				i++;
+			}
+			if (i == phraseKeywords.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Looks up the local titles of the keys starting with a prefix, enumerated from the term dictionary.
+	 *
+	 * @param prefix the prefix
+	 * @return the array list
+	 */
+	public ArrayList<String> lookupLocalPrefix(String prefix) {
+		return lookupLocalKeys(termDictionary.getKeysWithPrefix(prefix));
+	}
+	
+	/**
+	 * Looks up the local titles of the keys containing a fragment. The keys are found through the n-gram
+	 * index when it is enabled, or else by scanning every key.
+	 *
+	 * @param fragment the fragment
+	 * @return the array list
+	 */
+	public ArrayList<String> lookupLocalSubstring(String fragment) {
+		if (nGramIndex != null) {
+			return lookupLocalKeys(nGramIndex.getKeysContaining(fragment));
+		}
+		ArrayList<String> keys = new ArrayList<String>();
+		for (String key : keyPartitions.keySet()) {
+			if (key.contains(fragment)) {
+				keys.add(key);
+			}
+		}
+		return lookupLocalKeys(keys);
+	}
+	
+	/**
+	 * Looks up the local titles of any of the given keys. The document ids of the postings of the keys are
+	 * merged per local storage, so a title having several of the keys is only resolved once per storage.
+	 * Keys which aren't stored anymore are skipped.
+	 *
+	 * @param keys the keys
+	 * @return the array list
+	 */
+	private ArrayList<String> lookupLocalKeys(ArrayList<String> keys) {
+		ArrayList<String> values = new ArrayList<String>();
+		for (int i=0; i<partitionIPs.length; i++) {
+			if (!localStorageIPs.contains(partitionIPs[i])) {
+				continue;
+			}
+			InnerStorage innerStorage = storage.get(partitionIPs[i]);
+			BitSet documentIds = new BitSet();
+			for (String key : keys) {
+				Long partitions = keyPartitions.get(key);
+				if (partitions == null || (partitions & (1L << i)) == 0) {
+					continue;
+				}
+				PostingIterator iterator = innerStorage.getPostingIterator(key);
+				if (iterator == null) {
+					continue;
+				}
+				for (int documentId = iterator.nextDocumentId(); documentId != PostingIterator.NO_MORE_DOCUMENTS; documentId = iterator.nextDocumentId()) {
+					documentIds.set(documentId);
+				}
+			}
+			for (int documentId = documentIds.nextSetBit(0); documentId >= 0; documentId = documentIds.nextSetBit(documentId + 1)) {
+				values.add(innerStorage.getTitle(documentId));
+			}
+		}
+		if (values.size() == 0) {
+			return null;
+		}
+		return values;
+	}
+	
+	/**
+	 * Invalidates the cached local values of a key, after its storage has been modified.
+	 *
+	 * @param key the key
+	 */
+	private void invalidateLookupCache(String key) {
+		if (lookupCache != null) {
+			lookupCache.invalidate(key);
+		}
+	}
+	
+	/**
+	 * Lookup impl. The titles are only resolved from the title dictionaries here.
 	 *
 	 * @param key the key
 	 * @param scope the scope
 	 * @return the array list
 	 */
 	private ArrayList<String> lookupImpl(String key, Set<String> scope) {
+		Long partitions = keyPartitions.get(key);
+		if (partitions == null) {
+			return null;
+		}
 		ArrayList<String> values = new ArrayList<String>();
-		for (String IPAddress : scope) {
-			if (storage.get(IPAddress).containsKey(key)) {
-				values.addAll(storage.get(IPAddress).get(key));
+		for (int i=0; i<partitionIPs.length; i++) {
+			if ((partitions & (1L << i)) != 0 && scope.contains(partitionIPs[i])) {
+				storage.get(partitionIPs[i]).addValuesTo(key, values);
 			}
 		}
 		if (values.size() == 0) {
@@ -191,19 +877,185 @@ public class Storage {
 		return values;
 	}
 	
+	/**
+	 * Adds the next page of the local values of a key to the given list, resuming from the cursor when
+	 * the page has stopped at this machine. The postings are iterated in place and only the titles of the
+	 * page are resolved. The cursor is given the position the page stops at, or this machine is marked
+	 * completed when its values run out before the page is full.
+	 *
+	 * @param key the key
+	 * @param cursor the cursor
+	 * @param values the values
+	 */
+	public void lookupLocalPage(String key, LookupCursor cursor, ArrayList<String> values) {
+		int limit = cursor.getRemainingPageSize();
+		if (limit <= 0 || cursor.isCompleted(ownIPAddress)) {
+			return;
+		}
+		int startPartition = 0;
+		int startDocumentId = 0;
+		if (ownIPAddress.equals(cursor.getResumeMachineIP())) {
+			Integer resumePartition = partitionIndexes.get(cursor.getResumeStorageIP());
+			if (resumePartition != null) {
+				startPartition = resumePartition;
+				startDocumentId = cursor.getResumeDocumentId();
+			}
+			cursor.clearResumePosition();
+		}
+		Long partitions = keyPartitions.get(key);
+		int valueNumber = 0;
+		for (int i=startPartition; partitions != null && i<partitionIPs.length; i++) {
+			if ((partitions & (1L << i)) == 0 || !localStorageIPs.contains(partitionIPs[i])) {
+				continue;
+			}
+			InnerStorage innerStorage = storage.get(partitionIPs[i]);
+			PostingIterator iterator = innerStorage.getPostingIterator(key);
+			if (iterator == null) {
+				continue;
+			}
+			int documentId = i == startPartition ? iterator.advance(startDocumentId) : iterator.nextDocumentId();
+			for (; documentId != PostingIterator.NO_MORE_DOCUMENTS; documentId = iterator.nextDocumentId()) {
+				if (valueNumber == limit) {
+					cursor.setResumePosition(ownIPAddress, partitionIPs[i], documentId);
+					cursor.addPageValueNumber(valueNumber);
+					return;
+				}
+				values.add(innerStorage.getTitle(documentId));
+				valueNumber++;
+			}
+		}
+		cursor.addPageValueNumber(valueNumber);
+		cursor.complete(ownIPAddress);
+	}
+	
+	/**
+	 * Checks if the keys are partitioned by term.
+	 *
+	 * @return true, if the keys are partitioned by term
+	 */
+	public boolean isTermPartitioned() {
+		return consistentHashRing != null;
+	}
+	
+	/**
+	 * Gets the machines a key is kept at when the keys are partitioned by term, its owner followed by the
+	 * machines keeping its replicas.
+	 *
+	 * @param key the key
+	 * @return the owner i ps
+	 */
+	public ArrayList<String> getKeyOwners(String key) {
+		return consistentHashRing.getOwners(key, concurrentFailureNumber + 1);
+	}
+	
+	/**
+	 * Inserts a key-value pair into the inner storage of the owner of the key when the keys are partitioned
+	 * by term, whether the inner storage is local or a replica.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return true, if this machine keeps the key
+	 */
+	public boolean insertIntoOwnerStorage(String key, String value) {
+		String ownerIP = consistentHashRing.getOwners(key, 1).get(0);
+		Integer partition = partitionIndexes.get(ownerIP);
+		if (partition == null) {
+			return false;
+		}
+		synchronized (getKeyLock(key)) {
+			insertIntoPartition(partition, key, value);
+			invalidateLookupCache(key);
+		}
+		return true;
+	}
+	
+	/**
+	 * Inserts a key-value pair into a partition, whether other partitions hold the key or not. The caller
+	 * holds the lock of the key.
+	 *
+	 * @param partition the partition
+	 * @param key the key
+	 * @param value the value
+	 */
+	private void insertIntoPartition(int partition, String key, String value) {
+		String IPAddress = partitionIPs[partition];
+		InnerStorage innerStorage = storage.get(IPAddress);
+		boolean isNewKey = !innerStorage.containsKey(key);
+		if (innerStorage.add(key, value)) {
+			logInsert(IPAddress, key, value);
+		}
+		if (isNewKey) {
+			partitionSizes[partition].incrementAndGet();
+			Long partitions = keyPartitions.get(key);
+			keyPartitions.put(key, (partitions == null ? 0L : partitions) | (1L << partition));
+			termDictionary.add(key);
+			if (nGramIndex != null) {
+				nGramIndex.add(key);
+			}
+		}
+	}
+	
+	/**
+	 * Deletes a key from the inner storage of its owner when the keys are partitioned by term, whether the
+	 * inner storage is local or a replica.
+	 *
+	 * @param key the key
+	 */
+	public void deleteFromOwnerStorage(String key) {
+		String ownerIP = consistentHashRing.getOwners(key, 1).get(0);
+		Integer partition = partitionIndexes.get(ownerIP);
+		if (partition == null) {
+			return;
+		}
+		synchronized (getKeyLock(key)) {
+			Long partitions = keyPartitions.get(key);
+			if (partitions == null || (partitions & (1L << partition)) == 0) {
+				return;
+			}
+			if (storage.get(ownerIP).remove(key)) {
+				logDelete(ownerIP, key);
+				partitionSizes[partition].decrementAndGet();
+			}
+			long remainingPartitions = partitions & ~(1L << partition);
+			if (remainingPartitions == 0) {
+				keyPartitions.remove(key);
+				termDictionary.remove(key);
+			} else {
+				keyPartitions.put(key, remainingPartitions);
+			}
+			invalidateLookupCache(key);
+		}
+	}
+	
 	/**
 	 * Delete.
 	 *
 	 * @param key the key
 	 */
 	public void delete(String key) {
-		for (String IPAddress : localStorageIPs) {
-			synchronized (storage) {
-				if (storage.get(IPAddress).containsKey(key)) {
-					storage.get(IPAddress).remove(key);
+		synchronized (getKeyLock(key)) {
+			Long partitions = keyPartitions.get(key);
+			if (partitions == null) {
+				return;
+			}
+			long remainingPartitions = partitions;
+			for (int i=0; i<partitionIPs.length; i++) {
+				if ((partitions & (1L << i)) != 0 && localStorageIPs.contains(partitionIPs[i])) {
+					if (storage.get(partitionIPs[i]).remove(key)) {
+						logDelete(partitionIPs[i], key);
+						partitionSizes[i].decrementAndGet();
+					}
+					remainingPartitions &= ~(1L << i);
 				}
 			}
-		}	
+			if (remainingPartitions == 0) {
+				keyPartitions.remove(key);
+				termDictionary.remove(key);
+			} else {
+				keyPartitions.put(key, remainingPartitions);
+			}
+			invalidateLookupCache(key);
+		}
 	}
 	
 	/**
@@ -223,28 +1075,9 @@ public class Storage {
 				localStorageIPs.remove(IPAddress);
 			}
 		}
-	}
-	
-	/**
-	 * Gets the line number of file.
-	 *
-	 * @return the line number of file
-	 */
-	private int getLineNumberOfFile() {
-	    Scanner scanner = null;
-		int count = 0;
-		try {
-			scanner = new Scanner(new FileInputStream(dataFileName), "UTF-8");
-		    while (scanner.hasNextLine()){
-		    	scanner.nextLine();
-		    	count++;
-			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-		} finally {
-	      scanner.close();
-	    }
-		return count;
+		if (lookupCache != null) {
+			lookupCache.clear();
+		}
 	}
 	
 	/**
@@ -252,7 +1085,7 @@ public class Storage {
 	 *
 	 * @return the local storage
 	 */
-	public HashMap<String, ArrayList<String>> getLocalStorage() {
+	public InnerStorage getLocalStorage() {
 		return storage.get(ownIPAddress);
 	}
 	
@@ -261,7 +1094,7 @@ public class Storage {
 	 *
 	 * @return the local storage i ps
 	 */
-	public HashSet<String> getLocalStorageIPs() {
+	public Set<String> getLocalStorageIPs() {
 		return localStorageIPs;
 	}
 	
@@ -273,7 +1106,7 @@ public class Storage {
 	public int getLocalStorageSize() {
 		int size = 0;
 		for (String IPAddress : localStorageIPs) {
-			size += storage.get(IPAddress).size();
+			size += partitionSizes[partitionIndexes.get(IPAddress)].get();
 		}
 		return size;
 	}
@@ -288,7 +1121,18 @@ public class Storage {
 		Set<String> allStorageIPs = storage.keySet();
 		for (String IPAddress : allStorageIPs) {
 			String isLocal = localStorageIPs.contains(IPAddress) ? "local" : "replica";
-			stringBuffer.append("Inner Storage for "+IPAddress+" ("+isLocal+") = "+storage.get(IPAddress).size()+"\n");
+			stringBuffer.append("Inner Storage for "+IPAddress+" ("+isLocal+") = "+partitionSizes[partitionIndexes.get(IPAddress)].get()+"\n");
+		}
+		if (lookupCache != null) {
+			stringBuffer.append(lookupCache.getStatisticsAsString());
+		}
+		if (nGramIndex != null) {
+			stringBuffer.append("N-gram Index = "+nGramIndex.getGramNumber()+" grams of "+nGramIndex.getKeyNumber()+" keys, about "+
+					nGramIndex.getMemorySize()/1024+" KB\n");
+		}
+		for (int i=0; positionIndexes != null && i<partitionIPs.length; i++) {
+			stringBuffer.append("Position Index for "+partitionIPs[i]+" = "+positionIndexes[i].getKeywordNumber()+" keywords of "+
+					positionIndexes[i].getTitleNumber()+" titles, about "+positionIndexes[i].getMemorySize()/1024+" KB\n");
 		}
 		return stringBuffer.toString();
 	}
@@ -306,9 +1150,7 @@ public class Storage {
 	 * Prints the storage.
 	 */
 	public void printStorage() {
-		synchronized (storage) {
-			System.out.println(storage.toString());
-		}	
+		System.out.println(storage.toString());
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class StorageSnapshot. Writes an inner storage to a compact binary file and memory maps it back.
+ * The posting lists of the keys are written in their compacted format, followed by the title dictionary as
+ * its offsets and its arena of UTF-8 bytes, so reading a snapshot is mostly a matter of bulk copies. The
+ * snapshot is written while the storage is modified: every key is read once, and the titles are counted
+ * after the keys, so every document id in the snapshot has its title in it.
+ */
+public class StorageSnapshot {
+
+	/** The Constant SNAPSHOT_FILE_SUFFIX. */
+	public static final String SNAPSHOT_FILE_SUFFIX = ".snapshot";
+
+	/** The Constant MAGIC. */
+	private static final int MAGIC = 0x50494E53;
+
+	/** The Constant VERSION. */
+	private static final int VERSION = 4;
+
+	/** The Constant HEADER_SIZE. */
+	private static final int HEADER_SIZE = 36;
+
+	/** The Constant COUNTS_POSITION, the position of the key number, title number and arena size in the header. */
+	private static final int COUNTS_POSITION = 24;
+
+	/** The Constant UTF_8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Writes the inner storage to a temporary file first and then renames it, so a crash never leaves a torn snapshot.
+	 *
+	 * @param snapshotFile the snapshot file
+	 * @param innerStorage the inner storage
+	 * @param datasetChecksum the dataset checksum
+	 * @param startLineNumber the start line number
+	 * @param endLineNumber the end line number
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static void write(File snapshotFile, InnerStorage innerStorage, long datasetChecksum,
+			int startLineNumber, int endLineNumber) throws IOException {
+		File temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+		FileOutputStream fileOutputStream = new FileOutputStream(temporaryFile);
+		DataOutputStream dataOutputStream = new DataOutputStream(new BufferedOutputStream(fileOutputStream, 1 << 16));
+		try {
+			dataOutputStream.writeInt(MAGIC);
+			dataOutputStream.writeInt(VERSION);
+			dataOutputStream.writeLong(datasetChecksum);
+			dataOutputStream.writeInt(startLineNumber);
+			dataOutputStream.writeInt(endLineNumber);
+			// The counts are only known once the keys and the titles are written
+			dataOutputStream.writeInt(0);
+			dataOutputStream.writeInt(0);
+			dataOutputStream.writeInt(0);
+			int keyNumber = 0;
+			for (String key : innerStorage.keySet()) {
+				PostingList postingList = innerStorage.getPostingList(key);
+				if (postingList == null) {
+					continue;
+				}
+				writeString(dataOutputStream, key);
+				writePostingList(dataOutputStream, postingList);
+				keyNumber++;
+			}
+			int titleNumber = innerStorage.getTitleNumber();
+			int offset = 0;
+			dataOutputStream.writeInt(offset);
+			for (int i=0; i<titleNumber; i++) {
+				offset += innerStorage.getTitleBytes(i).length;
+				dataOutputStream.writeInt(offset);
+			}
+			for (int i=0; i<titleNumber; i++) {
+				dataOutputStream.write(innerStorage.getTitleBytes(i));
+			}
+			dataOutputStream.flush();
+			ByteBuffer counts = ByteBuffer.allocate(12);
+			counts.putInt(keyNumber).putInt(titleNumber).putInt(offset).flip();
+			fileOutputStream.getChannel().write(counts, COUNTS_POSITION);
+			fileOutputStream.getFD().sync();
+		} finally {
+			dataOutputStream.close();
+		}
+		if (!temporaryFile.renameTo(snapshotFile)) {
+			snapshotFile.delete();
+			if (!temporaryFile.renameTo(snapshotFile)) {
+				throw new IOException("couldn't rename "+temporaryFile.getName());
+			}
+		}
+	}
+
+	/**
+	 * Memory maps the snapshot and reads the inner storage from it.
+	 *
+	 * @param snapshotFile the snapshot file
+	 * @param datasetChecksum the dataset checksum
+	 * @param startLineNumber the start line number
+	 * @param endLineNumber the end line number
+	 * @return the inner storage, or null if there is no snapshot of the same dataset range
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static HeapInnerStorage read(File snapshotFile, long datasetChecksum,
+			int startLineNumber, int endLineNumber) throws IOException {
+		if (!snapshotFile.exists() || snapshotFile.length() < HEADER_SIZE || snapshotFile.length() > Integer.MAX_VALUE) {
+			return null;
+		}
+		RandomAccessFile file = new RandomAccessFile(snapshotFile, "r");
+		try {
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != datasetChecksum ||
+					buffer.getInt() != startLineNumber || buffer.getInt() != endLineNumber) {
+				return null;
+			}
+			int keyNumber = buffer.getInt();
+			int titleNumber = buffer.getInt();
+			byte[] arena = new byte[buffer.getInt()];
+			ConcurrentHashMap<String, PostingList> postingLists = new ConcurrentHashMap<String, PostingList>(keyNumber * 4 / 3 + 1);
+			for (int i=0; i<keyNumber; i++) {
+				String key = readString(buffer);
+				postingLists.put(key, readPostingList(buffer));
+			}
+			int[] offsets = new int[titleNumber + 1];
+			buffer.asIntBuffer().get(offsets);
+			buffer.position(buffer.position() + offsets.length * 4);
+			buffer.get(arena);
+			return new HeapInnerStorage(new TitleDictionary(arena, offsets), postingLists);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Writes a posting list as its format, size and last document id followed by the document ids,
+	 * the variable byte gaps or the bitmap words.
+	 *
+	 * @param dataOutputStream the data output stream
+	 * @param postingList the posting list
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writePostingList(DataOutputStream dataOutputStream, PostingList postingList) throws IOException {
+		dataOutputStream.writeByte(postingList.getFormat());
+		dataOutputStream.writeInt(postingList.size());
+		dataOutputStream.writeInt(postingList.getLastDocumentId());
+		if (postingList.getFormat() == PostingList.VARIABLE_BYTE) {
+			dataOutputStream.writeInt(postingList.getByteLength());
+			dataOutputStream.write(postingList.getBytes(), 0, postingList.getByteLength());
+		} else if (postingList.getFormat() == PostingList.BITMAP) {
+			long[] words = postingList.getWords();
+			dataOutputStream.writeInt(postingList.getBitmapBase());
+			dataOutputStream.writeInt(words.length);
+			for (int i=0; i<words.length; i++) {
+				dataOutputStream.writeLong(words[i]);
+			}
+		} else {
+			int[] documentIds = postingList.toArray();
+			for (int i=0; i<documentIds.length; i++) {
+				dataOutputStream.writeInt(documentIds[i]);
+			}
+		}
+	}
+
+	/**
+	 * Reads a posting list.
+	 *
+	 * @param buffer the buffer
+	 * @return the posting list
+	 */
+	private static PostingList readPostingList(MappedByteBuffer buffer) {
+		byte format = buffer.get();
+		int size = buffer.getInt();
+		int lastDocumentId = buffer.getInt();
+		if (format == PostingList.VARIABLE_BYTE) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			return new PostingList(bytes, size, lastDocumentId);
+		}
+		if (format == PostingList.BITMAP) {
+			int bitmapBase = buffer.getInt();
+			long[] words = new long[buffer.getInt()];
+			buffer.asLongBuffer().get(words);
+			buffer.position(buffer.position() + words.length * 8);
+			return new PostingList(words, bitmapBase, size, lastDocumentId);
+		}
+		int[] documentIds = new int[size];
+		buffer.asIntBuffer().get(documentIds);
+		buffer.position(buffer.position() + size * 4);
+		return new PostingList(documentIds);
+	}
+
+	/**
+	 * Write string.
+	 *
+	 * @param dataOutputStream the data output stream
+	 * @param string the string
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeString(DataOutputStream dataOutputStream, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF_8);
+		dataOutputStream.writeInt(bytes.length);
+		dataOutputStream.write(bytes);
+	}
+
+	/**
+	 * Read string.
+	 *
+	 * @param buffer the buffer
+	 * @return the string
+	 */
+	private static String readString(MappedByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+}
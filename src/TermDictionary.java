@@ -0,0 +1,97 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class TermDictionary. The keys of the storage in sorted order, next to the hash index of the key
+ * partitions, so the keys with a prefix are enumerated without scanning all of them. The keys the storage
+ * is built with are kept in a sorted array and the keys inserted afterwards in a concurrent skip list,
+ * and both are merged while enumerating. A deleted key is only removed from the skip list, so the keys
+ * enumerated from the array have to be checked against the key partitions.
+ */
+public class TermDictionary {
+
+	/** The sorted keys the storage is built with. */
+	private String[] sortedKeys;
+
+	/** The keys added after the storage is built. */
+	private ConcurrentSkipListSet<String> addedKeys = new ConcurrentSkipListSet<String>();
+
+	/**
+	 * Instantiates a new term dictionary.
+	 *
+	 * @param keys the keys the storage is built with
+	 */
+	public TermDictionary(Collection<String> keys) {
+		sortedKeys = keys.toArray(new String[keys.size()]);
+		Arrays.sort(sortedKeys);
+	}
+
+	/**
+	 * Adds a key.
+	 *
+	 * @param key the key
+	 */
+	public void add(String key) {
+		if (Arrays.binarySearch(sortedKeys, key) < 0) {
+			addedKeys.add(key);
+		}
+	}
+
+	/**
+	 * Removes a key added after the storage is built.
+	 *
+	 * @param key the key
+	 */
+	public void remove(String key) {
+		addedKeys.remove(key);
+	}
+
+	/**
+	 * Gets the keys starting with a prefix in sorted order.
+	 *
+	 * @param prefix the prefix
+	 * @return the keys, including the deleted keys the storage is built with
+	 */
+	public ArrayList<String> getKeysWithPrefix(String prefix) {
+		ArrayList<String> keys = new ArrayList<String>();
+		int index = Arrays.binarySearch(sortedKeys, prefix);
+		if (index < 0) {
+			index = -index - 1;
+		}
+		Iterator<String> iterator = addedKeys.tailSet(prefix).iterator();
+		String addedKey = nextWithPrefix(iterator, prefix);
+		while (index < sortedKeys.length && sortedKeys[index].startsWith(prefix)) {
+			while (addedKey != null && addedKey.compareTo(sortedKeys[index]) < 0) {
+				keys.add(addedKey);
+				addedKey = nextWithPrefix(iterator, prefix);
+			}
+			keys.add(sortedKeys[index++]);
+		}
+		while (addedKey != null) {
+			keys.add(addedKey);
+			addedKey = nextWithPrefix(iterator, prefix);
+		}
+		return keys;
+	}
+
+	/**
+	 * Gets the next added key if it starts with the prefix.
+	 *
+	 * @param iterator the iterator over the added keys from the prefix
+	 * @param prefix the prefix
+	 * @return the added key, or null if there is none left with the prefix
+	 */
+	private static String nextWithPrefix(Iterator<String> iterator, String prefix) {
+		if (!iterator.hasNext()) {
+			return null;
+		}
+		String addedKey = iterator.next();
+		return addedKey.startsWith(prefix) ? addedKey : null;
+	}
+
+}
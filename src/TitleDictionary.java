@@ -0,0 +1,312 @@
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class TitleDictionary. Stores every title of an inner storage once, as UTF-8 bytes packed into a
+ * single arena, and identifies it by its document id, which is the order it has been stored in. The titles of
+ * the dataset are appended in file order; a title inserted later is looked up through a hash table of the
+ * document ids first, so it gets the id of the same title if it is already stored. Titles are added
+ * by one thread at a time and resolved by any number of threads without locking: a grown arena is filled
+ * before it is published, and the bytes of a title never change once its document id is handed out.
+ */
+public class TitleDictionary {
+
+	/** The Constant UTF_8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The arena. */
+	private volatile byte[] arena;
+
+	/** The arena size. */
+	private int arenaSize;
+
+	/** The offsets, the title with document id i is stored between offsets[i] and offsets[i+1]. */
+	private volatile int[] offsets;
+
+	/** The title number. */
+	private volatile int titleNumber;
+
+	/** The hash table of document ids plus one, built on the first lookup of a title. */
+	private int[] hashTable;
+
+	/**
+	 * Instantiates a new title dictionary.
+	 */
+	public TitleDictionary() {
+		this(1 << 12, 1 << 8);
+	}
+
+	/**
+	 * Instantiates a new title dictionary.
+	 *
+	 * @param arenaCapacity the arena capacity
+	 * @param titleCapacity the title capacity
+	 */
+	public TitleDictionary(int arenaCapacity, int titleCapacity) {
+		arena = new byte[Math.max(16, arenaCapacity)];
+		offsets = new int[Math.max(16, titleCapacity + 1)];
+	}
+
+	/**
+	 * Instantiates a new title dictionary over an existing arena.
+	 *
+	 * @param arena the arena
+	 * @param offsets the offsets, holding one more entry than the titles
+	 */
+	public TitleDictionary(byte[] arena, int[] offsets) {
+		this.arena = arena;
+		this.arenaSize = offsets[offsets.length-1];
+		this.offsets = offsets;
+		this.titleNumber = offsets.length - 1;
+	}
+
+	/**
+	 * Appends a title without looking it up.
+	 *
+	 * @param bytes the UTF-8 bytes of the title
+	 * @param offset the offset
+	 * @param length the length
+	 * @return the document id
+	 */
+	public synchronized int append(byte[] bytes, int offset, int length) {
+		byte[] currentArena = arena;
+		if (arenaSize + length > currentArena.length) {
+			currentArena = Arrays.copyOf(currentArena, Math.max(currentArena.length * 2, arenaSize + length));
+		}
+		int[] currentOffsets = offsets;
+		if (titleNumber + 2 > currentOffsets.length) {
+			currentOffsets = Arrays.copyOf(currentOffsets, currentOffsets.length * 2);
+		}
+		System.arraycopy(bytes, offset, currentArena, arenaSize, length);
+		arenaSize += length;
+		currentOffsets[titleNumber+1] = arenaSize;
+		arena = currentArena;
+		offsets = currentOffsets;
+		titleNumber++;
+		if (hashTable != null) {
+			addToHashTable(titleNumber - 1);
+		}
+		return titleNumber - 1;
+	}
+
+	/**
+	 * Adds a title unless it is already stored.
+	 *
+	 * @param title the title
+	 * @return the document id
+	 */
+	public synchronized int add(String title) {
+		byte[] bytes = title.getBytes(UTF_8);
+		int documentId = find(bytes);
+		if (documentId >= 0) {
+			return documentId;
+		}
+		return append(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Gets the document id of a title.
+	 *
+	 * @param title the title
+	 * @return the document id, or -1 if the title isn't stored
+	 */
+	public synchronized int getDocumentId(String title) {
+		return find(title.getBytes(UTF_8));
+	}
+
+	/**
+	 * Finds the document id of the title with the given bytes.
+	 *
+	 * @param bytes the bytes
+	 * @return the document id, or -1 if the title isn't stored
+	 */
+	private int find(byte[] bytes) {
+		if (hashTable == null) {
+			buildHashTable();
+		}
+		int mask = hashTable.length - 1;
+		int slot = hash(bytes, 0, bytes.length) & mask;
+		while (hashTable[slot] != 0) {
+			int documentId = hashTable[slot] - 1;
+			if (equals(documentId, bytes)) {
+				return documentId;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Builds the hash table from the stored titles.
+	 */
+	private void buildHashTable() {
+		int capacity = 16;
+		while (capacity < titleNumber * 2) {
+			capacity *= 2;
+		}
+		hashTable = new int[capacity];
+		for (int i=0; i<titleNumber; i++) {
+			addToHashTable(i);
+		}
+	}
+
+	/**
+	 * Adds a document id to the hash table, doubling the table when it gets half full. A title stored
+	 * twice keeps the first document id it has been given.
+	 *
+	 * @param documentId the document id
+	 */
+	private void addToHashTable(int documentId) {
+		if ((documentId + 1) * 2 > hashTable.length) {
+			buildHashTable();
+			return;
+		}
+		int mask = hashTable.length - 1;
+		byte[] currentArena = arena;
+		int start = offsets[documentId];
+		int length = offsets[documentId+1] - start;
+		int slot = hash(currentArena, start, length) & mask;
+		while (hashTable[slot] != 0) {
+			int storedDocumentId = hashTable[slot] - 1;
+			if (storedDocumentId == documentId || equals(storedDocumentId, currentArena, start, length)) {
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		hashTable[slot] = documentId + 1;
+	}
+
+	/**
+	 * Hash.
+	 *
+	 * @param bytes the bytes
+	 * @param offset the offset
+	 * @param length the length
+	 * @return the hash
+	 */
+	private static int hash(byte[] bytes, int offset, int length) {
+		int hash = 1;
+		for (int i=offset; i<offset+length; i++) {
+			hash = 31 * hash + bytes[i];
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Checks whether the title with the given document id has the given bytes.
+	 *
+	 * @param documentId the document id
+	 * @param bytes the bytes
+	 * @return true, if equal
+	 */
+	private boolean equals(int documentId, byte[] bytes) {
+		return equals(documentId, bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Checks whether the title with the given document id has the given bytes.
+	 *
+	 * @param documentId the document id
+	 * @param bytes the bytes
+	 * @param offset the offset
+	 * @param length the length
+	 * @return true, if equal
+	 */
+	private boolean equals(int documentId, byte[] bytes, int offset, int length) {
+		int[] currentOffsets = offsets;
+		byte[] currentArena = arena;
+		int start = currentOffsets[documentId];
+		if (currentOffsets[documentId+1] - start != length) {
+			return false;
+		}
+		for (int i=0; i<length; i++) {
+			if (currentArena[start+i] != bytes[offset+i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Resolves the title of a document id.
+	 *
+	 * @param documentId the document id
+	 * @return the title
+	 */
+	public String getTitle(int documentId) {
+		int[] currentOffsets = offsets;
+		int start = currentOffsets[documentId];
+		return new String(arena, start, currentOffsets[documentId+1] - start, UTF_8);
+	}
+
+	/**
+	 * Gets the UTF-8 bytes of the title of a document id.
+	 *
+	 * @param documentId the document id
+	 * @return the title bytes
+	 */
+	public byte[] getTitleBytes(int documentId) {
+		int[] currentOffsets = offsets;
+		return Arrays.copyOfRange(arena, currentOffsets[documentId], currentOffsets[documentId+1]);
+	}
+
+	/**
+	 * Appends the titles of another dictionary, whose document ids are shifted by the title number of
+	 * this dictionary.
+	 *
+	 * @param titleDictionary the title dictionary
+	 */
+	public synchronized void appendAll(TitleDictionary titleDictionary) {
+		for (int i=0; i<titleDictionary.titleNumber; i++) {
+			int start = titleDictionary.offsets[i];
+			append(titleDictionary.arena, start, titleDictionary.offsets[i+1] - start);
+		}
+	}
+
+	/**
+	 * Releases the unused capacity of the arena once the dictionary is built.
+	 */
+	public synchronized void trim() {
+		arena = Arrays.copyOf(arena, arenaSize);
+		offsets = Arrays.copyOf(offsets, titleNumber + 1);
+	}
+
+	/**
+	 * Gets the title number.
+	 *
+	 * @return the title number
+	 */
+	public int getTitleNumber() {
+		return titleNumber;
+	}
+
+	/**
+	 * Gets the arena.
+	 *
+	 * @return the arena, of which only the first getArenaSize() bytes are used
+	 */
+	public byte[] getArena() {
+		return arena;
+	}
+
+	/**
+	 * Gets the arena size.
+	 *
+	 * @return the arena size
+	 */
+	public int getArenaSize() {
+		return arenaSize;
+	}
+
+	/**
+	 * Gets the offsets.
+	 *
+	 * @return the offsets, of which only the first getTitleNumber() + 1 entries are used
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+}
@@ -0,0 +1,440 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+
+// TODO: Auto-generated Javadoc
+/**
+ * The Class WriteAheadLog. Appends the insertions and deletions applied to the storage into numbered
+ * segment files. The records are only buffered by the appending threads; a syncer thread writes them in
+ * groups and syncs the segment once fsyncBatchSize records are waiting or the oldest waiting record is
+ * fsyncInterval milliseconds old. A segment can be dropped once every storage is snapshotted after it.
+ */
+public class WriteAheadLog {
+
+	/** The Constant INSERT. */
+	private static final byte INSERT = 1;
+
+	/** The Constant DELETE. */
+	private static final byte DELETE = 2;
+
+	/** The Constant SEGMENT_FILE_PREFIX. */
+	private static final String SEGMENT_FILE_PREFIX = "wal-";
+
+	/** The Constant SEGMENT_FILE_SUFFIX. */
+	private static final String SEGMENT_FILE_SUFFIX = ".log";
+
+	/** The Constant UTF_8. */
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/** The Constant WRITE_RETRY_WAIT_PERIOD. */
+	private static final int WRITE_RETRY_WAIT_PERIOD = 1000;
+
+	/** The directory. */
+	private File directory;
+
+	/** The fsync batch size. */
+	private int fsyncBatchSize;
+
+	/** The fsync interval. */
+	private long fsyncInterval;
+
+	/** The segment file. */
+	private RandomAccessFile segmentFile;
+
+	/** The segment number. */
+	private long segmentNumber;
+
+	/** The length of the segment up to its last record written and synced. */
+	private long writtenSegmentLength;
+
+	/** The records waiting to be written. */
+	private ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+
+	/** The number of records waiting to be written. */
+	private int pendingRecordNumber;
+
+	/** The time the oldest waiting record has been appended. */
+	private long oldestPendingRecordTime;
+
+	/** The lock held while the segment is written or rotated. */
+	private Object writeLock = new Object();
+
+	/** The record buffer. */
+	private ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+
+	/** The record output. */
+	private DataOutputStream recordOutput = new DataOutputStream(recordBuffer);
+
+	/**
+	 * The Interface Replayer.
+	 */
+	public interface Replayer {
+
+		/**
+		 * Replays an insertion.
+		 *
+		 * @param IPAddress the iP address of the inner storage
+		 * @param key the key
+		 * @param value the value
+		 */
+		void insert(String IPAddress, String key, String value);
+
+		/**
+		 * Replays a deletion.
+		 *
+		 * @param IPAddress the iP address of the inner storage
+		 * @param key the key
+		 */
+		void delete(String IPAddress, String key);
+	}
+
+	/**
+	 * Instantiates a new write ahead log.
+	 *
+	 * @param directory the directory
+	 * @param fsyncBatchSize the fsync batch size
+	 * @param fsyncInterval the fsync interval
+	 */
+	public WriteAheadLog(File directory, int fsyncBatchSize, long fsyncInterval) {
+		this.directory = directory;
+		this.fsyncBatchSize = Math.max(1, fsyncBatchSize);
+		this.fsyncInterval = Math.max(0, fsyncInterval);
+	}
+
+	/**
+	 * Replays the records of the existing segments in order. A torn record at the end of a segment, left
+	 * by a crash in the middle of a write, ends the replay of that segment.
+	 *
+	 * @param replayer the replayer
+	 * @return the number of replayed records
+	 */
+	public int replay(Replayer replayer) {
+		int replayedRecordNumber = 0;
+		for (long existingSegmentNumber : getSegmentNumbers()) {
+			File file = getSegmentFile(existingSegmentNumber);
+			try {
+				RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+				try {
+					MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+					CRC32 crc32 = new CRC32();
+					while (buffer.remaining() >= 8) {
+						int length = buffer.getInt();
+						int checksum = buffer.getInt();
+						if (length <= 0 || length > buffer.remaining()) {
+							break;
+						}
+						byte[] record = new byte[length];
+						buffer.get(record);
+						crc32.reset();
+						crc32.update(record);
+						if ((int) crc32.getValue() != checksum) {
+							break;
+						}
+						ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+						byte type = recordBuffer.get();
+						String IPAddress = readString(recordBuffer);
+						String key = readString(recordBuffer);
+						if (type == INSERT) {
+							replayer.insert(IPAddress, key, readString(recordBuffer));
+						} else if (type == DELETE) {
+							replayer.delete(IPAddress, key);
+						}
+						replayedRecordNumber++;
+					}
+				} finally {
+					randomAccessFile.close();
+				}
+			} catch (IOException e) {
+				System.out.println("The write-ahead log segment "+file.getName()+" couldn't be replayed: "+e.getMessage());
+			}
+		}
+		return replayedRecordNumber;
+	}
+
+	/**
+	 * Opens a new segment after the existing ones and starts the syncer.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void open() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("couldn't create "+directory);
+		}
+		long[] segmentNumbers = getSegmentNumbers();
+		synchronized (writeLock) {
+			segmentNumber = segmentNumbers.length > 0 ? segmentNumbers[segmentNumbers.length-1] + 1 : 0;
+			segmentFile = new RandomAccessFile(getSegmentFile(segmentNumber), "rw");
+			writtenSegmentLength = 0;
+		}
+		Thread syncer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (true) {
+					try {
+						writePendingRecords(true);
+					} catch (IOException e) {
+						System.out.println("The write-ahead log couldn't be written, retrying: "+e.getMessage());
+						try {
+							Thread.sleep(WRITE_RETRY_WAIT_PERIOD);
+						} catch (InterruptedException interruptedException) {
+							interruptedException.printStackTrace();
+						}
+					} catch (InterruptedException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		});
+		syncer.setDaemon(true);
+		syncer.start();
+	}
+
+	/**
+	 * Appends an insertion.
+	 *
+	 * @param IPAddress the iP address of the inner storage
+	 * @param key the key
+	 * @param value the value
+	 */
+	public void appendInsert(String IPAddress, String key, String value) {
+		append(INSERT, IPAddress, key, value);
+	}
+
+	/**
+	 * Appends a deletion.
+	 *
+	 * @param IPAddress the iP address of the inner storage
+	 * @param key the key
+	 */
+	public void appendDelete(String IPAddress, String key) {
+		append(DELETE, IPAddress, key, null);
+	}
+
+	/**
+	 * Buffers a record and wakes the syncer up if the batch is full.
+	 *
+	 * @param type the type
+	 * @param IPAddress the iP address
+	 * @param key the key
+	 * @param value the value
+	 */
+	private synchronized void append(byte type, String IPAddress, String key, String value) {
+		try {
+			recordBuffer.reset();
+			recordOutput.writeByte(type);
+			writeString(recordOutput, IPAddress);
+			writeString(recordOutput, key);
+			if (value != null) {
+				writeString(recordOutput, value);
+			}
+			byte[] record = recordBuffer.toByteArray();
+			CRC32 crc32 = new CRC32();
+			crc32.update(record);
+			DataOutputStream pendingOutput = new DataOutputStream(pendingRecords);
+			pendingOutput.writeInt(record.length);
+			pendingOutput.writeInt((int) crc32.getValue());
+			pendingOutput.write(record);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		if (pendingRecordNumber == 0) {
+			oldestPendingRecordTime = System.currentTimeMillis();
+		}
+		pendingRecordNumber++;
+		// The syncer is woken up to start waiting for the interval, and again once the batch is full
+		if (pendingRecordNumber == 1 || pendingRecordNumber >= fsyncBatchSize) {
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Writes the waiting records to the segment and syncs it. The syncer waits for a full batch or for
+	 * the oldest record to become fsyncInterval old before writing. The records are taken under the
+	 * write lock, so they always reach the segment they were appended to, while the appending threads
+	 * only wait for the records to be taken and never for the disk. If the write fails, the records are put
+	 * back in front of the waiting ones, and the next write starts again after the last synced record.
+	 *
+	 * @param waitForBatch whether to wait for the batch
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws InterruptedException the interrupted exception
+	 */
+	private void writePendingRecords(boolean waitForBatch) throws IOException, InterruptedException {
+		if (waitForBatch) {
+			synchronized (this) {
+				while (pendingRecordNumber == 0) {
+					wait();
+				}
+				long waitTime = oldestPendingRecordTime + fsyncInterval - System.currentTimeMillis();
+				while (pendingRecordNumber > 0 && pendingRecordNumber < fsyncBatchSize && waitTime > 0) {
+					wait(waitTime);
+					waitTime = oldestPendingRecordTime + fsyncInterval - System.currentTimeMillis();
+				}
+			}
+		}
+		synchronized (writeLock) {
+			byte[] records;
+			int recordNumber;
+			long recordTime;
+			synchronized (this) {
+				if (pendingRecordNumber == 0) {
+					return;
+				}
+				records = pendingRecords.toByteArray();
+				recordNumber = pendingRecordNumber;
+				recordTime = oldestPendingRecordTime;
+				pendingRecords.reset();
+				pendingRecordNumber = 0;
+			}
+			boolean written = false;
+			try {
+				// A failed write may have left a part of the records, which is overwritten
+				segmentFile.seek(writtenSegmentLength);
+				segmentFile.write(records);
+				segmentFile.getChannel().force(false);
+				writtenSegmentLength += records.length;
+				written = true;
+			} finally {
+				if (!written) {
+					putBack(records, recordNumber, recordTime);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Puts records which couldn't be written back in front of the waiting records.
+	 *
+	 * @param records the records
+	 * @param recordNumber the record number
+	 * @param recordTime the time the oldest of the records has been appended
+	 */
+	private synchronized void putBack(byte[] records, int recordNumber, long recordTime) {
+		byte[] laterRecords = pendingRecords.toByteArray();
+		pendingRecords.reset();
+		pendingRecords.write(records, 0, records.length);
+		pendingRecords.write(laterRecords, 0, laterRecords.length);
+		pendingRecordNumber += recordNumber;
+		oldestPendingRecordTime = recordTime;
+	}
+
+	/**
+	 * Syncs the current segment and continues in a new one. The returned segment number and the ones
+	 * before it can be deleted once the state they describe is snapshotted.
+	 *
+	 * @return the number of the last segment before the rotation
+	 * @throws IOException Signals that the segment couldn't be synced or a new one couldn't be opened, in
+	 * which case the log goes on in the current segment.
+	 */
+	public long rotate() throws IOException {
+		synchronized (writeLock) {
+			// The segment is only left once its records are synced, so it can be deleted after the snapshots
+			try {
+				writePendingRecords(false);
+			} catch (InterruptedException e) {
+				throw new IOException("interrupted while syncing the segment");
+			}
+			long rotatedSegmentNumber = segmentNumber;
+			// The new segment is opened before the current one is left, so a failure leaves the current one in use
+			RandomAccessFile newSegmentFile = new RandomAccessFile(getSegmentFile(rotatedSegmentNumber + 1), "rw");
+			try {
+				segmentFile.close();
+			} catch (IOException e) {
+				// The records of the segment are synced already
+			}
+			segmentFile = newSegmentFile;
+			segmentNumber = rotatedSegmentNumber + 1;
+			writtenSegmentLength = 0;
+			return rotatedSegmentNumber;
+		}
+	}
+
+	/**
+	 * Deletes the segments up to the given segment number.
+	 *
+	 * @param lastSegmentNumber the last segment number
+	 */
+	public void deleteSegments(long lastSegmentNumber) {
+		for (long existingSegmentNumber : getSegmentNumbers()) {
+			if (existingSegmentNumber <= lastSegmentNumber) {
+				getSegmentFile(existingSegmentNumber).delete();
+			}
+		}
+	}
+
+	/**
+	 * Gets the numbers of the existing segments in ascending order.
+	 *
+	 * @return the segment numbers
+	 */
+	private long[] getSegmentNumbers() {
+		String[] fileNames = directory.list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_FILE_PREFIX) && name.endsWith(SEGMENT_FILE_SUFFIX);
+			}
+		});
+		if (fileNames == null) {
+			return new long[0];
+		}
+		long[] segmentNumbers = new long[fileNames.length];
+		int count = 0;
+		for (String fileName : fileNames) {
+			try {
+				segmentNumbers[count] = Long.parseLong(fileName.substring(SEGMENT_FILE_PREFIX.length(), fileName.length() - SEGMENT_FILE_SUFFIX.length()));
+				count++;
+			} catch (NumberFormatException e) {
+				continue;
+			}
+		}
+		segmentNumbers = Arrays.copyOf(segmentNumbers, count);
+		Arrays.sort(segmentNumbers);
+		return segmentNumbers;
+	}
+
+	/**
+	 * Gets the segment file.
+	 *
+	 * @param number the number
+	 * @return the segment file
+	 */
+	private File getSegmentFile(long number) {
+		return new File(directory, SEGMENT_FILE_PREFIX + number + SEGMENT_FILE_SUFFIX);
+	}
+
+	/**
+	 * Write string.
+	 *
+	 * @param dataOutputStream the data output stream
+	 * @param string the string
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void writeString(DataOutputStream dataOutputStream, String string) throws IOException {
+		byte[] bytes = string.getBytes(UTF_8);
+		dataOutputStream.writeInt(bytes.length);
+		dataOutputStream.write(bytes);
+	}
+
+	/**
+	 * Read string.
+	 *
+	 * @param buffer the buffer
+	 * @return the string
+	 */
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+}